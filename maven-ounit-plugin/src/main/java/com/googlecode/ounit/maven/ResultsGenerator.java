@@ -58,8 +58,8 @@ public class ResultsGenerator {
 	private final String labelFailedTests = "Failed Tests";
 	private final String labelOutput      = "Additional Test Output";
 	private final String labelOutputFiles = "Additional test output saved to";
-	private final String labelStudent = "Student";
-	private final String labelTeacher = "Teacher";
+	public static final String LABEL_STUDENT = "Student";
+	public static final String LABEL_TEACHER = "Teacher";
 	private final String summaryLine =
 		"Tests run: %d, Failures: %d, Errors: %d, Skipped: %d, Time elapsed: %.2fs";
 	private final String failureLine = "%s(%s)\n  %s: %s";
@@ -67,11 +67,43 @@ public class ResultsGenerator {
 
 
 	public ResultsGenerator(MojoData mavenInternals) throws Exception {
-		log = mavenInternals.getLog();
-		outputDirectory = mavenInternals.getOutputDirectory();
-		showTestOutput = mavenInternals.isShowTestOutput();
-		testResults = new ArrayList<TestSuite>(2);
-
+		this(mavenInternals.getLog(), mavenInternals.getOutputDirectory(),
+				mavenInternals.isShowTestOutput(), parseSuites(mavenInternals));
+	}
+	
+	/**
+	 * Generate results from test suites that were collected by other means
+	 * than parsing surefire reports.
+	 * 
+	 * @param log logger
+	 * @param outputDirectory build directory
+	 * @param showTestOutput include test output files in reports
+	 * @param testResults test suites, one of them must be named
+	 *        {@link #LABEL_TEACHER}
+	 * @throws Exception if teacher tests were not executed
+	 */
+	public ResultsGenerator(Log log, File outputDirectory,
+			boolean showTestOutput, List<TestSuite> testResults)
+			throws Exception {
+		this.log = log;
+		this.outputDirectory = outputDirectory;
+		this.showTestOutput = showTestOutput;
+		this.testResults = testResults;
+		
+		TestSuite teacher = null;
+		for(TestSuite suite: testResults)
+			if(suite.getName().equals(LABEL_TEACHER))
+				teacher = suite;
+		
+		if(teacher == null || teacher.getResults().getTotalTests() <= 0) 
+			throw new Exception("Teacher tests were not executed");
+		
+		marks.put("teacher", teacher.getResults().getTotalPercentage());
+	}
+	
+	private static List<TestSuite> parseSuites(MojoData mavenInternals)
+			throws Exception {
+		List<TestSuite> rv = new ArrayList<TestSuite>(2);
 		TestSuite suite;
 		List<File> dirs;
 		ReportParser parser = mavenInternals.getReportParser();
@@ -79,20 +111,17 @@ public class ResultsGenerator {
 		dirs = mavenInternals.getStudentTestDirectories();
 		TestResults results = parser.parseReportFiles(dirs);
 		if(results.getTotalTests() > 0) {
-			suite = new TestSuite(labelStudent, dirs);
+			suite = new TestSuite(LABEL_STUDENT, dirs);
 			suite.setResults(results);
-			testResults.add(suite);
+			rv.add(suite);
 		}
 
 		dirs = mavenInternals.getTeacherTestDirectories();
-		suite = new TestSuite(labelTeacher, dirs);
+		suite = new TestSuite(LABEL_TEACHER, dirs);
 		suite.setResults(parser.parseReportFiles(dirs));
+		rv.add(suite);
 		
-		if(suite.getResults().getTotalTests() <= 0) 
-			throw new Exception("Teacher tests were not executed");
-		
-		marks.put("teacher", suite.getResults().getTotalPercentage());
-		testResults.add(suite);
+		return rv;
 	}
 	
 	public String generateHtmlReport() {
@@ -30,6 +30,12 @@ package com.googlecode.ounit.opaque;
  * It's currently only used by Moodle OPAQE question type to test
  * the connection to the question engine.
  * However, in the future it could be used for load balancing purposes.
+ * <p>
+ * Engines that run builds can report their load: queued and running
+ * builds, build latency and throughput over a recent time window and
+ * whether the engine is saturated. Negative values mean the engine
+ * does not report the figure.
+ * </p>
  * 
  * @author anttix
  */
@@ -37,6 +43,12 @@ public class EngineStatus {
 	private String name;
 	private String usedmemory;
 	private int activesessions;
+	private int queuedbuilds = -1;
+	private int runningbuilds = -1;
+	private long latencyp50 = -1;
+	private long latencyp95 = -1;
+	private double buildsperminute = -1;
+	private boolean saturated;
 	
 	private static final String DEFAULT_NAME = "Generic OPAQUE question engine";
 
@@ -67,4 +79,62 @@ public class EngineStatus {
 	public void setActivesessions(int activesessions) {
 		this.activesessions = activesessions;
 	}
+
+	public int getQueuedbuilds() {
+		return queuedbuilds;
+	}
+
+	public void setQueuedbuilds(int queuedbuilds) {
+		this.queuedbuilds = queuedbuilds;
+	}
+
+	public int getRunningbuilds() {
+		return runningbuilds;
+	}
+
+	public void setRunningbuilds(int runningbuilds) {
+		this.runningbuilds = runningbuilds;
+	}
+
+	/**
+	 * @return median build time in milliseconds
+	 */
+	public long getLatencyp50() {
+		return latencyp50;
+	}
+
+	public void setLatencyp50(long latencyp50) {
+		this.latencyp50 = latencyp50;
+	}
+
+	/**
+	 * @return 95th percentile of build time in milliseconds
+	 */
+	public long getLatencyp95() {
+		return latencyp95;
+	}
+
+	public void setLatencyp95(long latencyp95) {
+		this.latencyp95 = latencyp95;
+	}
+
+	public double getBuildsperminute() {
+		return buildsperminute;
+	}
+
+	public void setBuildsperminute(double buildsperminute) {
+		this.buildsperminute = buildsperminute;
+	}
+
+	/**
+	 * @return true if new builds would have to wait for a full round
+	 *         of running builds to finish
+	 */
+	public boolean isSaturated() {
+		return saturated;
+	}
+
+	public void setSaturated(boolean saturated) {
+		this.saturated = saturated;
+	}
 }
@@ -91,6 +91,13 @@ public interface OpaqueService {
 	 *   <name>My Question Engine</name> <!-- Required -->
 	 *   <usedmemory>123 bytes or 45 KB or 67 MB</usedmemory> <!-- Optional -->
 	 *   <activesessions>9</activesessions> <!-- Optional -->
+	 *   <!-- Optional load figures, latencies in milliseconds -->
+	 *   <queuedbuilds>4</queuedbuilds>
+	 *   <runningbuilds>2</runningbuilds>
+	 *   <latencyp50>3500</latencyp50>
+	 *   <latencyp95>9000</latencyp95>
+	 *   <buildsperminute>12.5</buildsperminute>
+	 *   <saturated>false</saturated>
 	 * </engineinfo>
 	 *
 	 */
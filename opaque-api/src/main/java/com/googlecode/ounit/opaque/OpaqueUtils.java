@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class OpaqueUtils {
@@ -64,11 +65,23 @@ public class OpaqueUtils {
 	}
 
 	public static String makeEngineXML(EngineStatus es) {
+		String load = "";
+		if(es.getQueuedbuilds() >= 0)
+			load =
+				"  <queuedbuilds>" + es.getQueuedbuilds() + "</queuedbuilds>" +
+				"  <runningbuilds>" + es.getRunningbuilds() + "</runningbuilds>" +
+				"  <latencyp50>" + es.getLatencyp50() + "</latencyp50>" +
+				"  <latencyp95>" + es.getLatencyp95() + "</latencyp95>" +
+				"  <buildsperminute>" + String.format(Locale.US, "%.1f",
+						es.getBuildsperminute()) + "</buildsperminute>" +
+				"  <saturated>" + es.isSaturated() + "</saturated>";
+		
 		return
 			"<engineinfo>\n" +
 			"  <name>" + es.getName() + "</name>" +
 			"  <usedmemory>" + es.getUsedmemory() + "</usedmemory>" +
 			"  <activesessions>" + es.getActivesessions() + "</activesessions>" +
+			load +
 			"</engineinfo>";
 	}
 
@@ -21,6 +21,8 @@
 
 package com.googlecode.ounit.opaque;
 
+import java.io.Serializable;
+
 /*
  * API CLASS: This class is used in SOAP returns and should not be altered
  */
@@ -33,7 +35,9 @@ package com.googlecode.ounit.opaque;
  * @author anttix
  *
  */
-public class QuestionInfo {
+public class QuestionInfo implements Serializable {
+	private static final long serialVersionUID = 1L;
+	
 	String plainmode = "no";
 	String title;
 	int maxScore;
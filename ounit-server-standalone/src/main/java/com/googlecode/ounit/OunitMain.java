@@ -21,11 +21,21 @@
 
 package com.googlecode.ounit;
 
+import static com.googlecode.ounit.OunitConfig.METRICS_ADDRESS;
+import static com.googlecode.ounit.OunitConfig.METRICS_PORT;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.util.logging.LogManager;
 
 import javax.xml.ws.Endpoint;
 
 import com.googlecode.ounit.OunitService;
+import com.googlecode.ounit.executor.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 public class OunitMain {
 	public static void main(String [] args) {
@@ -42,5 +52,40 @@ public class OunitMain {
 		OunitService implementor = new OunitService();
 		String address = "http://localhost:8080/ounit-server/OunitService";
 		Endpoint.publish(address, implementor);
+		
+		Metrics.getInstance().registerMBean();
+		if(METRICS_PORT > 0) {
+			try {
+				startMetricsServer(new InetSocketAddress(METRICS_ADDRESS, METRICS_PORT));
+				log.info("Metrics available at http://{}:{}/metrics",
+						METRICS_ADDRESS, METRICS_PORT);
+			} catch (IOException e) {
+				log.warn("Unable to start metrics server", e);
+			}
+		}
+	}
+	
+	/**
+	 * Serve {@link Metrics} as plain text on <code>/metrics</code>.
+	 * There is no access control, the address must not be public.
+	 */
+	private static void startMetricsServer(InetSocketAddress address)
+			throws IOException {
+		HttpServer server = HttpServer.create(address, 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(HttpExchange ex) throws IOException {
+				byte [] body = Metrics.getInstance().toText().getBytes("UTF-8");
+				ex.getResponseHeaders().set("Content-Type",
+						"text/plain; version=0.0.4; charset=utf-8");
+				ex.sendResponseHeaders(200, body.length);
+				OutputStream out = ex.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.start();
 	}
 }
@@ -0,0 +1,364 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import static com.googlecode.ounit.OunitUtil.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.ounit.executor.Metrics;
+
+/**
+ * Content addressed cache of build results.
+ * <p>
+ * A build is fully determined by the question revision and the contents
+ * of the editable files, so rebuilding identical submissions (LMS replays,
+ * resubmissions) can be avoided by storing the files the build produced.
+ * Entries are kept in separate directories named after the key and are
+ * evicted in least recently used order when the cache grows too large.
+ * </p>
+ * <p>
+ * Compiler and test output refer to the directory of the session that
+ * was built. The directory is stored as {@link #PROJECT_DIR} and replaced
+ * with the directory of the session the results are restored to.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class BuildCache {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	static final String MARKS   = "marks.properties";
+	static final String RESULTS = "results.html";
+	static final String ERRORS  = "errors.txt";
+	
+	/* Stands for the project directory in cached outputs */
+	public static final String PROJECT_DIR = "@ounit.projectdir@";
+	
+	private final File dir;
+	private final long maxSize;
+	private long size = 0;
+	/* Entry sizes in access order */
+	private final LinkedHashMap<String, Long> entries =
+		new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * Result of a cached build. Outputs are read into memory when the
+	 * entry is looked up, so eviction can not remove them while they
+	 * are being restored.
+	 */
+	public static class Entry {
+		private final byte [] marks;
+		private final byte [] results;
+		private final String errors;
+		
+		Entry(byte [] marks, byte [] results, String errors) {
+			this.marks = marks;
+			this.results = results;
+			this.errors = errors;
+		}
+		
+		public boolean hasErrors() {
+			return errors != null;
+		}
+		
+		/**
+		 * @return build errors with the project directory replaced by
+		 *         {@link BuildCache#PROJECT_DIR}
+		 */
+		public String getErrors() {
+			return errors;
+		}
+		
+		/**
+		 * Copy cached build outputs to a project directory.
+		 * Outputs that the cached build did not produce are removed.
+		 */
+		public void restore(File projDir) throws IOException {
+			String path = projDir.getAbsolutePath();
+			restoreFile(replace(marks, PROJECT_DIR, path),
+					new File(projDir, OunitConfig.MARKS_FILE));
+			restoreFile(replace(results, PROJECT_DIR, path),
+					new File(projDir, OunitConfig.RESULTS_FILE));
+		}
+		
+		private static void restoreFile(byte [] data, File dst) throws IOException {
+			if(data == null) {
+				dst.delete();
+				return;
+			}
+			
+			dst.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(dst);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+		}
+	}
+	
+	/**
+	 * @param dir directory to store the cache in
+	 * @param maxSize maximum size of the cache in bytes
+	 */
+	public BuildCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		dir.mkdirs();
+		
+		/* Load entries left from previous runs, oldest first */
+		File [] files = dir.listFiles();
+		if(files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File f1, File f2) {
+					long d = f1.lastModified() - f2.lastModified();
+					return d < 0 ? -1 : (d > 0 ? 1 : 0);
+				}
+			});
+			for(File f: files) {
+				if(f.getName().startsWith("."))
+					deleteDirectory(f);
+				else
+					addEntry(f.getName(), sizeOf(f));
+			}
+		}
+		evict();
+	}
+	
+	/**
+	 * Calculate a cache key for a build.
+	 * 
+	 * @param q question
+	 * @param digests hashes of editable files
+	 * @return a 32 character hex string
+	 */
+	public static String key(OunitQuestion q, Map<String, String> digests) {
+		SortedMap<String, String> sorted = new TreeMap<String, String>(digests);
+		StringBuilder sb = new StringBuilder();
+		sb.append(q.getBaseUrl()).append('\n');
+		sb.append(q.getId()).append('\n');
+		sb.append(q.getRevision()).append('\n');
+		for(Map.Entry<String, String> e: sorted.entrySet())
+			sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+		
+		return md5Hex(sb.toString());
+	}
+	
+	/**
+	 * Look up results of a build.
+	 * 
+	 * @param key cache key
+	 * @return cached results or null if not found
+	 */
+	public Entry get(String key) {
+		Entry rv;
+		
+		/* Entries are only deleted while holding the lock */
+		synchronized (this) {
+			/* get() also moves the entry to the end of eviction order */
+			if(entries.get(key) == null) {
+				miss();
+				return null;
+			}
+			
+			File d = new File(dir, key);
+			if(!d.isDirectory()) {
+				log.warn("Build cache entry {} disappeared", d);
+				remove(key);
+				miss();
+				return null;
+			}
+			
+			try {
+				byte [] errors = readFile(new File(d, ERRORS));
+				rv = new Entry(readFile(new File(d, MARKS)),
+						readFile(new File(d, RESULTS)),
+						errors == null ? null : new String(errors, "UTF-8"));
+			} catch(IOException e) {
+				log.warn("Corrupt build cache entry {}", d);
+				remove(key);
+				miss();
+				return null;
+			}
+			d.setLastModified(System.currentTimeMillis());
+		}
+		hits.incrementAndGet();
+		Metrics.getInstance().cacheAccess("build", true);
+		
+		return rv;
+	}
+	
+	/**
+	 * Store results of a build.
+	 * 
+	 * @param key cache key
+	 * @param projDir project directory that was built
+	 * @param errors build errors or null if the build succeeded
+	 */
+	public void put(String key, File projDir, String errors) {
+		File tmp = new File(dir, "." + key + "-" + Thread.currentThread().getId());
+		try {
+			tmp.mkdirs();
+			storeFile(readFile(new File(projDir, OunitConfig.MARKS_FILE)),
+					projDir, new File(tmp, MARKS));
+			storeFile(readFile(new File(projDir, OunitConfig.RESULTS_FILE)),
+					projDir, new File(tmp, RESULTS));
+			if(errors != null)
+				storeFile(errors.getBytes("UTF-8"), projDir, new File(tmp, ERRORS));
+			
+			synchronized (this) {
+				File d = new File(dir, key);
+				if(entries.containsKey(key) || !tmp.renameTo(d)) {
+					deleteDirectory(tmp);
+					return;
+				}
+				addEntry(key, sizeOf(d));
+				evict();
+			}
+		} catch(IOException e) {
+			log.warn("Unable to store build results", e);
+			deleteDirectory(tmp);
+		}
+	}
+	
+	private void miss() {
+		misses.incrementAndGet();
+		Metrics.getInstance().cacheAccess("build", false);
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+	
+	private synchronized void remove(String key) {
+		Long s = entries.remove(key);
+		if(s != null)
+			size -= s;
+		deleteDirectory(new File(dir, key));
+	}
+	
+	private void addEntry(String key, long entrySize) {
+		entries.put(key, entrySize);
+		size += entrySize;
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+		while(size > maxSize && i.hasNext()) {
+			Map.Entry<String, Long> e = i.next();
+			log.debug("Evicting build cache entry {}", e.getKey());
+			size -= e.getValue();
+			i.remove();
+			deleteDirectory(new File(dir, e.getKey()));
+		}
+	}
+	
+	/**
+	 * Write build output to the cache with the project directory
+	 * replaced by {@link #PROJECT_DIR}.
+	 */
+	private static void storeFile(byte [] data, File projDir, File dst)
+			throws IOException {
+		if(data == null)
+			return;
+		
+		String canonical = projDir.getCanonicalPath();
+		String absolute = projDir.getAbsolutePath();
+		data = replace(data, canonical, PROJECT_DIR);
+		if(!absolute.equals(canonical))
+			data = replace(data, absolute, PROJECT_DIR);
+		
+		OutputStream out = new FileOutputStream(dst);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Replace every occurrence of a string in UTF-8 encoded data.
+	 * 
+	 * @return the data, replaced or as it was, null if data is null
+	 */
+	private static byte [] replace(byte [] data, String from, String to)
+			throws IOException {
+		if(data == null)
+			return null;
+		
+		/* ISO-8859-1 maps every byte to a char, so nothing else changes */
+		String s = new String(data, "ISO-8859-1");
+		String needle = new String(from.getBytes("UTF-8"), "ISO-8859-1");
+		if(!s.contains(needle))
+			return data;
+		return s.replace(needle, new String(to.getBytes("UTF-8"),
+				"ISO-8859-1")).getBytes("ISO-8859-1");
+	}
+	
+	/**
+	 * @return contents of a file or null if it does not exist
+	 */
+	private static byte [] readFile(File f) throws IOException {
+		if(!f.isFile())
+			return null;
+		
+		InputStream in = new FileInputStream(f);
+		try {
+			byte [] buf = new byte[(int) f.length()];
+			int off = 0, len;
+			while(off < buf.length && (len = in.read(buf, off, buf.length - off)) > 0)
+				off += len;
+			return off == buf.length ? buf : Arrays.copyOf(buf, off);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -23,14 +23,103 @@ package com.googlecode.ounit;
 
 import static com.googlecode.ounit.OunitConfig.*;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.googlecode.ounit.executor.Metrics;
+
+/**
+ * Loads questions from GIT repositories.
+ * <p>
+ * Loaded questions are cached, so opening the repository and parsing
+ * the question POM happens only once per revision. The head revision
+ * is re-checked at most once per {@link OunitConfig#SCM_TTL} seconds.
+ * Every caller receives a private copy since sessions switch revisions.
+ * Only the {@link #MAX_QUESTIONS} most recently used questions are kept.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
 public class DefaultQuestionFactory implements QuestionFactory {
+	public static final int MAX_QUESTIONS = 256;
+	
+	private static class Entry {
+		final GitQuestion question;
+		volatile long checkTime;
+		
+		Entry(GitQuestion question) {
+			this.question = question;
+			this.checkTime = System.currentTimeMillis();
+		}
+	}
+	
+	/* Access ordered, guarded by itself */
+	private final Map<String, Entry> cache =
+		new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> e) {
+				return size() > MAX_QUESTIONS;
+			}
+		};
 	
 	@Override
 	public OunitQuestion loadQuestion(String id, String version, String baseURL) {
 		if(baseURL == null || baseURL.replaceAll("[ \t\n]+", "").isEmpty())
 			baseURL = BASEURL;
 
+		String key = id + "\n" + version + "\n" + baseURL;
+		Entry e;
+		synchronized (cache) {
+			e = cache.get(key);
+		}
+		if(e != null) {
+			long now = System.currentTimeMillis();
+			if(now - e.checkTime < SCM_TTL * 1000L) {
+				Metrics.getInstance().cacheAccess("question", true);
+				return new GitQuestion(e.question);
+			}
+			
+			GitQuestion q = new GitQuestion(e.question);
+			if(!q.isStale()) {
+				e.checkTime = now;
+				Metrics.getInstance().cacheAccess("question", true);
+				return q;
+			}
+			
+			synchronized (cache) {
+				if(cache.get(key) == e)
+					cache.remove(key);
+			}
+		}
+		Metrics.getInstance().cacheAccess("question", false);
+		
 		// TODO: Detect appropriate SCM from baseURL.
-		return new GitQuestion(id, version, baseURL);
+		GitQuestion q = new GitQuestion(id, version, baseURL);
+		synchronized (cache) {
+			cache.put(key, new Entry(q));
+		}
+		
+		return new GitQuestion(q);
+	}
+	
+	/**
+	 * Forget all cached questions.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * @return number of cached questions
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
 	}
 }
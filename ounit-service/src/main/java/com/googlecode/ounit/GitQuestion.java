@@ -37,7 +37,9 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
 
 public class GitQuestion extends QuestionBase {
-	private org.slf4j.Logger _log;
+	private static final long serialVersionUID = 1L;
+	
+	private transient org.slf4j.Logger _log;
 	private org.slf4j.Logger getLog() {
 		if(_log == null)
 			_log = org.slf4j.LoggerFactory.getLogger(this.getClass());
@@ -47,6 +49,24 @@ public class GitQuestion extends QuestionBase {
 	static Map<String, Long> pullTimes = Collections.synchronizedMap(new HashMap<String, Long>());
 	File cloneDir;
 	
+	/* 
+	 * Repository operations for the same question are serialized on a
+	 * lock stripe. Threads that had to wait re-check the state and reuse
+	 * whatever the previous holder produced, different questions proceed
+	 * in parallel.
+	 */
+	private static final Object[] locks = new Object[64];
+	static {
+		for(int i = 0; i < locks.length; i++)
+			locks[i] = new Object();
+	}
+	
+	static Object lockFor(File f) {
+		int h = f.getAbsolutePath().hashCode();
+		h ^= (h >>> 16);
+		return locks[(h & 0x7fffffff) % locks.length];
+	}
+	
 	// TODO: Support username/password via
 	// 		 .setCredentialsProvider(credentialsProvider)
 	
@@ -60,13 +80,22 @@ public class GitQuestion extends QuestionBase {
 	 */
 	public GitQuestion(String id, String version, String baseURL) {
 		super(id, version, baseURL);
-		findRepo();
+	}
+	
+	/**
+	 * Copy a question without touching the repository.
+	 * 
+	 * @param q question to copy
+	 */
+	public GitQuestion(GitQuestion q) {
+		super(q);
+		this.cloneDir = q.cloneDir;
 	}
 
 	@Override
 	public String findHeadRevision() {
-		if(cloneDir == null)
-			findRepo();
+		/* Fetches at most once per SCM_TTL */
+		findRepo();
 
 		try {
 			Repository repo = Git.open(cloneDir).getRepository();
@@ -83,60 +112,89 @@ public class GitQuestion extends QuestionBase {
 	@Override
 	protected void fetchQuestion() {
 		File cacheDir = new File(WORKDIR, REPO_DIR);
-		srcDir = new File(cacheDir, id + "-" + revision);
+		File dir = new File(cacheDir, id + "-" + revision);
 		
-		if(srcDir.exists()) {
-			getLog().debug("Question found in {}", srcDir);
-			return;
+		synchronized (lockFor(dir)) {
+			if(!dir.exists())
+				checkout(dir);
+			else
+				getLog().debug("Question found in {}", dir);
 		}
 		
+		srcDir = dir;
+	}
+	
+	/**
+	 * Check out current revision to a temporary directory and
+	 * publish it by renaming, so nobody ever sees a partial checkout.
+	 */
+	private void checkout(File dir) {
+		File tmp = new File(dir.getParentFile(), "." + dir.getName() + "-"
+				+ Thread.currentThread().getId());
+		deleteDirectory(tmp);
+		
 		try {
 			getLog().debug("Checking out revision {} from {} to {}",
-					new Object[] { revision, cloneDir, srcDir });
+					new Object[] { revision, cloneDir, dir });
 			
 			Git git = Git.wrap(new RepositoryBuilder()
 				.setMustExist(true)
-				.setIndexFile(new File(srcDir, ".gitindex"))
+				.setIndexFile(new File(tmp, ".gitindex"))
 				.setGitDir(cloneDir)
-				.setWorkTree(srcDir)
+				.setWorkTree(tmp)
 				.build());
 
 			git.checkout()
 				.setName(revision)
 				.call();
+			git.getRepository().close();
+			
+			if(!tmp.renameTo(dir))
+				throw new IOException("Unable to rename " + tmp + " to " + dir);
 		} catch(Exception e) {
 			getLog().error("Error checking out revision " + revision + " from "
 					+ cloneDir, e);
+			deleteDirectory(tmp);
 			throw new RuntimeException("Failed to fetch question", e);
 		}
-
 	}
 	
 	private void findRepo() {
 		File cacheDir = new File(WORKDIR, REPO_DIR);
-		cloneDir = new File(cacheDir, id + ".git");
-		if(!cloneDir.isDirectory()) {
-			cloneRepo();
-		} else {
-			// FIXME: Handle baseURL changes.
-			pull();
+		File dir = new File(cacheDir, id + ".git");
+		
+		synchronized (lockFor(dir)) {
+			cloneDir = dir;
+			if(!cloneDir.isDirectory()) {
+				cloneRepo();
+			} else {
+				// FIXME: Handle baseURL changes.
+				pull();
+			}
 		}
 	}
 
 	private void cloneRepo() {
 		String url = baseURL + "/" + id;
+		File tmp = new File(cloneDir.getParentFile(), "." + cloneDir.getName()
+				+ "-" + Thread.currentThread().getId());
+		deleteDirectory(tmp);
 		
 		getLog().debug("Cloning {} to {}", new Object[] { id, cloneDir } );
 		try {
 			Git.cloneRepository()
 				.setBare(true)
-				.setDirectory(cloneDir)
+				.setDirectory(tmp)
 				.setTimeout(SCM_TIMEOUT)
 				.setURI(url)
-				.call();
+				.call()
+				.getRepository().close();
+			
+			if(!tmp.renameTo(cloneDir))
+				throw new IOException("Unable to rename " + tmp + " to " + cloneDir);
 		} catch (Exception e) {
 			getLog().error("Failed to clone question from {} to {}", new Object[] { url, cloneDir });
-			deleteDirectory(cloneDir);
+			deleteDirectory(tmp);
 			throw new RuntimeException("Failed to clone question repository", e);
 		}
 		pullTimes.put(id, System.currentTimeMillis());
@@ -149,20 +149,23 @@ public class MainPage extends BasePage {
 				
 				OunitSession sess = getOunitSession();
 
-				// Check if student is out of attempts
-				int attempt = sess.getAttempt();
-				int maxAttempts = sess.getMaxAttempts();
-				if (maxAttempts > 0) {
-					if (attempt >= maxAttempts)
-						sess.setClosed(true);
-					/*
-					 * Skip build if out of attempts. This is a sanity check, it
-					 * shouldn't happen under normal circumstances
-					 */
-					if (attempt > maxAttempts)
-						return;
+				/* A repeated submission of the same files is free */
+				if (!sess.isDuplicateBuild()) {
+					// Check if student is out of attempts
+					int attempt = sess.getAttempt();
+					int maxAttempts = sess.getMaxAttempts();
+					if (maxAttempts > 0) {
+						if (attempt >= maxAttempts)
+							sess.setClosed(true);
+						/*
+						 * Skip build if out of attempts. This is a sanity check, it
+						 * shouldn't happen under normal circumstances
+						 */
+						if (attempt > maxAttempts)
+							return;
+					}
+					sess.setAttempt(attempt + 1);
 				}
-				sess.setAttempt(attempt + 1);
 				
 				boolean buildSuccessful = sess.build();
 
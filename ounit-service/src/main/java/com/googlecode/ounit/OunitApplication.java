@@ -21,10 +21,17 @@
 
 package com.googlecode.ounit;
 
+import static com.googlecode.ounit.OunitConfig.*;
 import static com.googlecode.ounit.OunitUtil.*;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.Page;
@@ -33,20 +40,31 @@ import org.apache.wicket.Session;
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.extensions.protocol.opaque.OpaqueApplication;
 import org.apache.wicket.extensions.protocol.opaque.OpaqueQuestion;
+import org.apache.wicket.extensions.protocol.opaque.OpaqueSessionStore;
 import org.apache.wicket.request.Request;
 import org.apache.wicket.request.Response;
 import org.apache.wicket.session.ISessionStore.UnboundListener;
 
+import com.googlecode.ounit.executor.Metrics;
 import com.googlecode.ounit.executor.OunitExecutionRequest;
+import com.googlecode.ounit.executor.OunitExecutionRequest.Priority;
 import com.googlecode.ounit.executor.OunitExecutor;
 import com.googlecode.ounit.executor.OunitResult;
 import com.googlecode.ounit.executor.OunitTask;
+import com.googlecode.ounit.executor.OunitTaskListener;
+import com.googlecode.ounit.executor.OunitWorker;
+import com.googlecode.ounit.opaque.EngineStatus;
 import com.googlecode.ounit.opaque.OpaqueException;
 
 public class OunitApplication extends OpaqueApplication {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
 	
 	protected QuestionFactory qf = new DefaultQuestionFactory();
+	protected QuestionWarmer warmer;
+	protected Timer sweeper;
 	
+	/* Session directories are checked for orphans this often */
+	static final long ORPHAN_SWEEP_INTERVAL = 60 * 60 * 1000L;
 	
 	@Override
 	public Class<? extends Page> getHomePage() {
@@ -62,12 +80,63 @@ public class OunitApplication extends OpaqueApplication {
 	protected void init() {
 		super.init();
 		getRootRequestMapperAsCompound().add(new OunitRequestMapper());
+		Metrics.getInstance().registerMBean();
 		getSessionStore().registerUnboundListener(new UnboundListener() {
 			@Override
 			public void sessionUnbound(String sessionId) {
 				deleteDirectory(new File(OunitSession.sessDir, sessionId));
 			}
 		});
+		if(getSessionStore() instanceof OpaqueSessionStore)
+			configureSessionStore((OpaqueSessionStore) getSessionStore());
+		warmer = new QuestionWarmer(qf, getPreparedQuestionCache(),
+				WARMUP_THREADS);
+		warmer.warmAll(PREWARM, DEFAULT_VERSION);
+	}
+	
+	@Override
+	protected void onDestroy() {
+		if(warmer != null)
+			warmer.shutdown();
+		if(sweeper != null)
+			sweeper.cancel();
+		super.onDestroy();
+	}
+	
+	private void configureSessionStore(final OpaqueSessionStore store) {
+		store.setSpillDirectory(new File(WORKDIR, SPILLED_SESSION_DIR));
+		store.setMaxSessions(MAX_SESSIONS);
+		store.setIdleTimeout(SESSION_TIMEOUT * 60 * 1000L);
+		
+		sweeper = new Timer("ounit-session-sweeper", true);
+		sweeper.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				sweepOrphanedSessions(store, System.currentTimeMillis());
+			}
+		}, ORPHAN_SWEEP_INTERVAL, ORPHAN_SWEEP_INTERVAL);
+	}
+	
+	/**
+	 * Delete session directories left behind by sessions that no longer
+	 * exist, for example because the server was restarted before they
+	 * were saved. Recently modified directories are left alone in case
+	 * their session is still being created.
+	 */
+	void sweepOrphanedSessions(OpaqueSessionStore store, long now) {
+		File [] dirs = OunitSession.sessDir.listFiles();
+		if(dirs == null)
+			return;
+		
+		for(File d: dirs) {
+			if(!d.isDirectory() || store.isBound(d.getName()))
+				continue;
+			if(now - d.lastModified() < ORPHAN_SWEEP_INTERVAL)
+				continue;
+			
+			log.debug("Removing orphaned session directory {}", d);
+			deleteDirectory(d);
+		}
 	}
 
 	@Override
@@ -77,11 +146,33 @@ public class OunitApplication extends OpaqueApplication {
 		return qf.loadQuestion(id, version, baseUrl);
 	}
 	
+	/**
+	 * The LMS asks for question info well before students start it,
+	 * so run the preparation build now. Sessions starting in the
+	 * meantime will wait for it instead of building again.
+	 */
+	@Override
+	public void questionInfoRequested(OpaqueQuestion question) {
+		if(warmer != null)
+			warmer.warm((OunitQuestion) question);
+	}
+	
 	@Override
 	public Session newSession(Request request, Response response) {
 		return new OunitSession(request);
 	}
 	
+	@Override
+	public void updateEngineStatus(EngineStatus status) {
+		OunitExecutor oe = getExecutor();
+		status.setQueuedbuilds(oe.getQueueLength());
+		status.setRunningbuilds(oe.getRunningCount());
+		status.setLatencyp50(oe.getRecentLatency(0.5));
+		status.setLatencyp95(oe.getRecentLatency(0.95));
+		status.setBuildsperminute(oe.getRecentThroughput());
+		status.setSaturated(oe.isSaturated());
+	}
+	
 	public static OunitApplication get() {
 		Application app = Application.get();
 
@@ -94,27 +185,47 @@ public class OunitApplication extends OpaqueApplication {
 		return (OunitApplication) app;
 	}
 		
+	/**
+	 * Block until the task completes or {@link OunitConfig#TASK_TIMEOUT}
+	 * elapses. Tasks that time out are cancelled.
+	 * 
+	 * @param task task to wait for
+	 * @return result of the build
+	 * @throws RuntimeException if the task fails or times out
+	 */
 	public static OunitResult waitForTask(OunitTask task)
 			throws RuntimeException {
 		try {
-			while(!task.isDone()) {
-				Thread.sleep(200);
-			}
-			return task.get();
+			return task.get(TASK_TIMEOUT, TimeUnit.SECONDS);
+		} catch(TimeoutException e) {
+			task.cancel(true);
+			throw new RuntimeException("Build did not complete in "
+					+ TASK_TIMEOUT + " seconds", e);
 		} catch(Exception e) {
 			//slog.warn("Failed task", e);
 			throw new RuntimeException((e.getCause() == null) ? e : e.getCause());
 		}
 	}
 
-	/* Executor access must be synchronized */
-	static OunitExecutor oe = null;
-	
-	public static synchronized OunitTask scheduleTask(OunitExecutionRequest r) {
+	public static OunitTask scheduleTask(OunitExecutionRequest r) {
 		return getExecutor().submit(r);
 	}
 	
-	public static synchronized Properties getModelProperties(File outDir) {
+	public static OunitTask scheduleTask(OunitExecutionRequest r,
+			OunitTaskListener listener) {
+		return getExecutor().submit(r, listener);
+	}
+	
+	/**
+	 * Move a queued task ahead of tasks with lower priority.
+	 * 
+	 * @return false if the task is no longer queued
+	 */
+	public static boolean raisePriority(OunitTask task, Priority priority) {
+		return getExecutor().raisePriority(task, priority);
+	}
+	
+	public static Properties getModelProperties(File outDir) {
 		try {
 			return getExecutor().getModelProperties(outDir);
 		} catch (Exception e) {
@@ -122,10 +233,63 @@ public class OunitApplication extends OpaqueApplication {
 		}
 	}
 	
-	private static synchronized OunitExecutor getExecutor() {
-		if(oe == null)
-			oe = new OunitExecutor();
-
-		return oe;
+	static BuildCache buildCache = null;
+	
+	/**
+	 * @return build result cache or null if caching is disabled
+	 */
+	public static synchronized BuildCache getBuildCache() {
+		if(buildCache == null && BUILD_CACHE_SIZE > 0)
+			buildCache = new BuildCache(new File(WORKDIR, BUILD_CACHE_DIR),
+					BUILD_CACHE_SIZE * 1024L * 1024L);
+		
+		return buildCache;
+	}
+	
+	static PreparedQuestionCache preparedQuestionCache = null;
+	
+	/**
+	 * @return prepared question cache or null if caching is disabled
+	 */
+	public static synchronized PreparedQuestionCache getPreparedQuestionCache() {
+		if(preparedQuestionCache == null && PREPARE_CACHE)
+			preparedQuestionCache = new PreparedQuestionCache(
+					new File(WORKDIR, PREPARED_DIR),
+					PREPARE_CACHE_SIZE * 1024L * 1024L);
+		
+		return preparedQuestionCache;
+	}
+	
+	/* Executor is thread safe, the holder makes creation lazy without locking */
+	private static class ExecutorHolder {
+		static final OunitExecutor oe = newExecutor();
+		
+		private static OunitExecutor newExecutor() {
+			if(OFFLINE)
+				OunitWorker.getInstance().setLocalRepository(
+						new File(WORKDIR, LOCAL_REPO_DIR));
+			OunitWorker.getInstance().setForkedJvms(FORKED_JVMS, BUILD_MEMORY);
+			OunitWorker.getInstance().setRemoteWorkers(splitList(WORKERS),
+					WORKER_SECRET);
+			return new OunitExecutor(
+					THREADS > 0 ? THREADS : OunitExecutor.defaultThreads(),
+					QUEUE_SIZE);
+		}
+	}
+	
+	private static List<String> splitList(String list) {
+		List<String> rv = new ArrayList<String>();
+		if(list == null)
+			return rv;
+		for(String s: list.split(",")) {
+			s = s.trim();
+			if(!s.isEmpty())
+				rv.add(s);
+		}
+		return rv;
+	}
+	
+	private static OunitExecutor getExecutor() {
+		return ExecutorHolder.oe;
 	}
 }
\ No newline at end of file
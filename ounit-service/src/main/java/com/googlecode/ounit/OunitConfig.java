@@ -27,6 +27,8 @@ import java.io.InputStream;
 import java.util.Properties;
 import org.springframework.util.PropertyPlaceholderHelper;
 
+import com.googlecode.ounit.executor.OunitExecutionRequest;
+
 public class OunitConfig {
 	
 	// TODO: Consider moving constants to a separate class
@@ -44,22 +46,93 @@ public class OunitConfig {
 	public static final String PREPARE_LOG          = "prepare.log";
 	public static final String BUILD_LOG            = "build.log";
 	public static final String SRCDIR               = "src";
+	public static final String JAVA_SRCDIR          = "main/java/";
+	public static final String RESOURCE_SRCDIR      = "main/resources/";
+	public static final String CLASSES_DIR          = "target/classes";
 	public static final int    DEFAULT_ATTEMPTS		= 3;
+	public static final String DEFAULT_VERSION      = "master";
 	
 	public static final String SESSION_DIR		    = "sessions";
 	public static final String SRC_CACHE_DIR	    = "src-cache";
+	public static final String BUILD_CACHE_DIR	    = "build-cache";
+	public static final String PREPARED_DIR	        = "prepared";
 	public static final String REPO_DIR				= "questions";
+	public static final String LOCAL_REPO_DIR		= "repository";
+	public static final String SPILLED_SESSION_DIR	= "spilled-sessions";
 	
 	public static final String OUNIT_PROPERTIES		= "ounit.properties";
 	public static final String WORKDIR_PROPERTY     = "ounit.workdir";
 	public static final String BASEURL_PROPERTY     = "ounit.baseurl";
 	public static final String SCM_TIMEOUT_PROPERTY = "ounit.timeout";
 	public static final String SCM_TTL_PROPERTY 	= "ounit.ttl";
+	public static final String TASK_TIMEOUT_PROPERTY = "ounit.tasktimeout";
+	public static final String FASTPATH_PROPERTY    = "ounit.fastpath";
+	public static final String BUILD_CACHE_PROPERTY = "ounit.buildcache";
+	public static final String PREPARE_CACHE_PROPERTY = "ounit.preparecache";
+	public static final String PREPARE_CACHE_SIZE_PROPERTY = "ounit.preparecachesize";
+	public static final String PREWARM_PROPERTY     = "ounit.prewarm";
+	public static final String THREADS_PROPERTY     = "ounit.threads";
+	public static final String QUEUE_PROPERTY       = "ounit.queue";
+	public static final String FORKED_JVMS_PROPERTY = "ounit.forkedjvms";
+	public static final String WORKERS_PROPERTY     = "ounit.workers";
+	public static final String WORKER_SECRET_PROPERTY = "ounit.workersecret";
+	public static final String BUILD_TIMEOUT_PROPERTY = "ounit.buildtimeout";
+	public static final String BUILD_CPU_TIME_PROPERTY = "ounit.buildcputime";
+	public static final String BUILD_MEMORY_PROPERTY = "ounit.buildmemory";
+	public static final String BUILD_OUTPUT_PROPERTY = "ounit.buildoutput";
+	public static final String OFFLINE_PROPERTY     = "ounit.offline";
+	public static final String LOG_LEVEL_PROPERTY   = "ounit.loglevel";
+	public static final String LOG_COMPRESS_PROPERTY = "ounit.logcompress";
+	public static final String METRICS_PORT_PROPERTY = "ounit.metricsport";
+	public static final String METRICS_ADDRESS_PROPERTY = "ounit.metricsaddress";
+	public static final String MAX_SESSIONS_PROPERTY = "ounit.maxsessions";
+	public static final String SESSION_TIMEOUT_PROPERTY = "ounit.sessiontimeout";
+	public static final String RESOURCE_CACHE_SIZE_PROPERTY = "ounit.resourcecachesize";
+	public static final int    WARMUP_THREADS       = 2;
 	
 	public static String WORKDIR;
 	public static String BASEURL;
 	public static int SCM_TIMEOUT;
 	public static int SCM_TTL;
+	public static int TASK_TIMEOUT;
+	public static boolean FASTPATH;
+	/* Maximum size of build result cache in megabytes, 0 disables */
+	public static int BUILD_CACHE_SIZE;
+	public static boolean PREPARE_CACHE;
+	/* Maximum size of prepared question cache in megabytes */
+	public static int PREPARE_CACHE_SIZE;
+	/* Comma separated list of id[:version] to prepare on startup */
+	public static String PREWARM;
+	/* Number of concurrent builds, 0 to derive from processors and memory */
+	public static int THREADS;
+	/* Number of builds allowed to wait before new ones are rejected */
+	public static int QUEUE_SIZE;
+	/* Number of pre-started JVMs for fast path builds, 0 disables the fast path */
+	public static int FORKED_JVMS;
+	/* Comma separated host:port list of remote build workers */
+	public static String WORKERS;
+	/* Secret shared with the remote build workers */
+	public static String WORKER_SECRET;
+	/* Limits of student builds: seconds, CPU seconds, MB of test heap, log bytes */
+	public static int BUILD_TIMEOUT;
+	public static int BUILD_CPU_TIME;
+	public static int BUILD_MEMORY;
+	public static long BUILD_OUTPUT;
+	/* Seed a local repository once per question revision, build student code offline */
+	public static boolean OFFLINE;
+	/* Build log of student builds: minimum level (debug, info, warn, error), gzip */
+	public static int LOG_LEVEL;
+	public static boolean LOG_COMPRESS;
+	/* Port of the plain text metrics page of the standalone server, 0 disables it */
+	public static int METRICS_PORT;
+	/* Address the metrics page listens on, it has no access control */
+	public static String METRICS_ADDRESS;
+	/* Sessions kept in memory, the rest are written to disk, 0 for no limit */
+	public static int MAX_SESSIONS;
+	/* Minutes of inactivity after which a session is discarded, 0 keeps forever */
+	public static int SESSION_TIMEOUT;
+	/* Megabytes of static resources kept ready for the LMS, 0 disables */
+	public static int RESOURCE_CACHE_SIZE;
 	
 	// TODO: VERSION
 
@@ -90,5 +163,40 @@ public class OunitConfig {
 		BASEURL = ph.replacePlaceholders(conf.getProperty(BASEURL_PROPERTY), conf);
 		SCM_TIMEOUT = Integer.parseInt(conf.getProperty(SCM_TIMEOUT_PROPERTY));
 		SCM_TTL = Integer.parseInt(conf.getProperty(SCM_TTL_PROPERTY));
+		TASK_TIMEOUT = Integer.parseInt(conf.getProperty(TASK_TIMEOUT_PROPERTY));
+		FASTPATH = Boolean.parseBoolean(conf.getProperty(FASTPATH_PROPERTY));
+		BUILD_CACHE_SIZE = Integer.parseInt(conf.getProperty(BUILD_CACHE_PROPERTY));
+		PREPARE_CACHE = Boolean.parseBoolean(conf.getProperty(PREPARE_CACHE_PROPERTY));
+		PREPARE_CACHE_SIZE = Integer.parseInt(conf.getProperty(PREPARE_CACHE_SIZE_PROPERTY));
+		PREWARM = conf.getProperty(PREWARM_PROPERTY);
+		THREADS = Integer.parseInt(conf.getProperty(THREADS_PROPERTY));
+		QUEUE_SIZE = Integer.parseInt(conf.getProperty(QUEUE_PROPERTY));
+		FORKED_JVMS = Integer.parseInt(conf.getProperty(FORKED_JVMS_PROPERTY));
+		WORKERS = conf.getProperty(WORKERS_PROPERTY);
+		WORKER_SECRET = conf.getProperty(WORKER_SECRET_PROPERTY);
+		BUILD_TIMEOUT = Integer.parseInt(conf.getProperty(BUILD_TIMEOUT_PROPERTY));
+		BUILD_CPU_TIME = Integer.parseInt(conf.getProperty(BUILD_CPU_TIME_PROPERTY));
+		BUILD_MEMORY = Integer.parseInt(conf.getProperty(BUILD_MEMORY_PROPERTY));
+		BUILD_OUTPUT = Long.parseLong(conf.getProperty(BUILD_OUTPUT_PROPERTY));
+		OFFLINE = Boolean.parseBoolean(conf.getProperty(OFFLINE_PROPERTY));
+		LOG_LEVEL = parseLogLevel(conf.getProperty(LOG_LEVEL_PROPERTY));
+		LOG_COMPRESS = Boolean.parseBoolean(conf.getProperty(LOG_COMPRESS_PROPERTY));
+		METRICS_PORT = Integer.parseInt(conf.getProperty(METRICS_PORT_PROPERTY));
+		METRICS_ADDRESS = conf.getProperty(METRICS_ADDRESS_PROPERTY);
+		MAX_SESSIONS = Integer.parseInt(conf.getProperty(MAX_SESSIONS_PROPERTY));
+		SESSION_TIMEOUT = Integer.parseInt(conf.getProperty(SESSION_TIMEOUT_PROPERTY));
+		RESOURCE_CACHE_SIZE = Integer.parseInt(conf.getProperty(RESOURCE_CACHE_SIZE_PROPERTY));
+	}
+	
+	private static int parseLogLevel(String level) {
+		level = level.trim();
+		if(level.equalsIgnoreCase("debug"))
+			return OunitExecutionRequest.LOG_DEBUG;
+		if(level.equalsIgnoreCase("warn"))
+			return OunitExecutionRequest.LOG_WARN;
+		if(level.equalsIgnoreCase("error"))
+			return OunitExecutionRequest.LOG_ERROR;
+		
+		return OunitExecutionRequest.LOG_INFO;
 	}
 }
\ No newline at end of file
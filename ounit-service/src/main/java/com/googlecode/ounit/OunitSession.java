@@ -29,17 +29,17 @@ import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.wicket.extensions.protocol.opaque.OpaqueRequest;
 import org.apache.wicket.extensions.protocol.opaque.OpaqueSession;
 import org.apache.wicket.request.Request;
+import org.apache.wicket.request.cycle.RequestCycle;
 
 import com.googlecode.ounit.executor.OunitExecutionRequest;
 import com.googlecode.ounit.executor.OunitResult;
@@ -51,8 +51,6 @@ import com.googlecode.ounit.opaque.Score;
 public class OunitSession extends OpaqueSession {
 	private static final long serialVersionUID = 1L;
 	
-	// TODO: Do not allow more than one thread to mess with a single session
-	
 	/* Temporary directory to hold user files (aka sessions) */
 	static final File sessDir = new File(WORKDIR, SESSION_DIR);
 	
@@ -70,6 +68,8 @@ public class OunitSession extends OpaqueSession {
 	private String downloadChecksum;
 	private int attempt = 1;
 	private int maxAttempts = DEFAULT_ATTEMPTS;
+	/* Content hashes of editable files as they were at the last build */
+	private HashMap<String, String> editDigests;
 
 	public OunitSession(Request request) {
 		super(request);
@@ -93,6 +93,7 @@ public class OunitSession extends OpaqueSession {
 	
 	public void setProjDir(File projDir) {
 		this.projDir = projDir;
+		this.downloadChecksum = null;
 	}
 	
 	public List<String> getEditFiles() {
@@ -118,6 +119,24 @@ public class OunitSession extends OpaqueSession {
 	private transient File description;
 	private transient File resultsFile;
 	private transient ProjectTree tree;
+	/* Guarded by this */
+	private transient SessionBuild lastBuild;
+	
+	/**
+	 * A build of particular editable file contents. Repeated submissions
+	 * of the same files share it.
+	 */
+	private static class SessionBuild {
+		final HashMap<String, String> digests;
+		final CountDownLatch done = new CountDownLatch(1);
+		/* Valid after done, null if the build failed to run */
+		volatile Boolean hasErrors;
+		volatile long finished = Long.MAX_VALUE;
+		
+		SessionBuild(HashMap<String, String> digests) {
+			this.digests = digests;
+		}
+	}
 
 	public ProjectTree getTree() {
 		final File srcDir = new File(projDir, SRCDIR);
@@ -296,35 +315,49 @@ public class OunitSession extends OpaqueSession {
 			return;
 		}
 
-		OunitTask task = startPrepare();
-		OunitResult r = OunitApplication.waitForTask(task);
-		
 		String errstr = "Failed to prepare question";
+		PreparedQuestionCache cache = OunitApplication.getPreparedQuestionCache();
+		File prepDir = (cache == null) ? null : cache.acquire(getQuestion());
+		
+		OunitResult r = null;
+		if(prepDir == null) {
+			OunitTask task = startPrepare();
+			r = OunitApplication.waitForTask(task);
+		} else if(projDir.isDirectory()) {
+			throw new RuntimeException("Directory " + projDir + " already exists");
+		}
+		
 		try {
-			if(r.hasErrors()) {
+			if(prepDir != null) {
+				getLog().debug("Copying prepared question from {} to {}",
+						new Object[] { prepDir, projDir });
+				copyDirectory(prepDir, projDir);
+			} else if(r.hasErrors()) {
 				getLog().warn(errstr, r.getErrors());
 				throw new Exception(errstr + ": " + r.getErrors());
-			} else {
-				loadModelProps();
 			}
+			loadModelProps();
+			editDigests = digestEditFiles();
 		} catch(Exception e) {
 			deleteDirectory(getProjDir());
 			throw new RuntimeException(e);
+		} finally {
+			if(prepDir != null)
+				cache.release(prepDir);
 		}
 		
-		waitForNextMtimeSlot();
 		prepared = true;
+		getDownloadChecksum();
 	}
 	
 	/**
-	 * Calculate checksum of the download file.
-	 * We want a content based checksum that is not affected by modification
-	 * dates. Therefore we will concatenate all filenames along with their
-	 * CRC checksums and then calculate an MD5 hash over the resulting string.
+	 * Find checksum of the download file. It is calculated when the
+	 * question is prepared and shared by all sessions of the same
+	 * question revision.
 	 *  
-	 * @return a 32 character hex string
+	 * @return a 32 character hex string or null if there is no download
 	 */
-	private String getDownloadChecksum() {
+	public String getDownloadChecksum() {
 		if(downloadChecksum != null)
 			return downloadChecksum;
 		
@@ -332,21 +365,13 @@ public class OunitSession extends OpaqueSession {
 		if (f == null)
 			return null;
 
-		String chain = "";
 		try {
-			ZipFile zf = new ZipFile(f);
-			Enumeration<? extends ZipEntry> i = zf.entries();
-			while(i.hasMoreElements()) {
-				ZipEntry e = i.nextElement();
-				long crc = e.getCrc();
-				assert crc != -1: "Download files without CRC checking are not supported";
-				chain += e.getName();
-				chain += Long.toHexString(crc);
-			}
-			MessageDigest m = MessageDigest.getInstance("MD5");
-			byte[] digest = m.digest(chain.getBytes());
-			BigInteger bi = new BigInteger(1, digest);
-			return String.format("%1$032x", bi);
+			PreparedQuestionCache cache = OunitApplication.getPreparedQuestionCache();
+			String hash = (cache == null || getQuestion() == null)
+					? zipChecksum(f) : cache.getDownloadChecksum(getQuestion(), f);
+			if(prepared)
+				downloadChecksum = hash;
+			return hash;
 		} catch (Exception e) {
 			throw new RuntimeException("Unable to calculate download checksum", e);
 		}
@@ -373,7 +398,10 @@ public class OunitSession extends OpaqueSession {
 		OunitTask task = OunitApplication.scheduleTask(new OunitExecutionRequest()
 			.setBaseDirectory(qDir)
 			.setOutputDirectory(projDir.getAbsolutePath())
-			.setLogFile(new File(projDir, PREPARE_LOG)));
+			.setLogFile(new File(projDir, PREPARE_LOG))
+			.setOwner(getId())
+			.setPhase("prepare")
+			.setQuestion(getQuestion().getId()));
 			
 		return task;
 	}
@@ -384,6 +412,91 @@ public class OunitSession extends OpaqueSession {
 	 * @return true if build was successful
 	 */
 	public boolean build() {
+		HashMap<String, String> digests = digestEditFiles();
+		SessionBuild b, dup;
+		synchronized (this) {
+			dup = findDuplicate(digests);
+			if(dup == null)
+				lastBuild = b = new SessionBuild(digests);
+			else
+				b = null;
+		}
+		
+		if(dup != null) {
+			getLog().debug("Session {} joins a build of identical files", getId());
+			return waitForBuild(dup);
+		}
+		
+		try {
+			b.hasErrors = build(digests);
+			return b.hasErrors;
+		} finally {
+			b.finished = System.currentTimeMillis();
+			b.done.countDown();
+		}
+	}
+	
+	/**
+	 * Check if the editable files are identical to a build that was
+	 * queued or running when the current request arrived. Double
+	 * submissions and LMS retries get the results of that build and
+	 * should not cost an attempt.
+	 * 
+	 * @return true if {@link #build()} will not start a new build
+	 */
+	public synchronized boolean isDuplicateBuild() {
+		return findDuplicate(digestEditFiles()) != null;
+	}
+	
+	/* Must be called with the session locked */
+	private SessionBuild findDuplicate(HashMap<String, String> digests) {
+		SessionBuild b = lastBuild;
+		if(b == null || !b.digests.equals(digests))
+			return null;
+		/* Failed to run, so try again */
+		if(b.done.getCount() == 0 && b.hasErrors == null)
+			return null;
+		
+		long arrival = System.currentTimeMillis();
+		RequestCycle rc = RequestCycle.get();
+		if(rc != null && rc.getRequest() instanceof OpaqueRequest)
+			arrival = ((OpaqueRequest) rc.getRequest()).getArrivalTime();
+		
+		return b.finished >= arrival ? b : null;
+	}
+	
+	private boolean waitForBuild(SessionBuild b) {
+		try {
+			if(!b.done.await(TASK_TIMEOUT, TimeUnit.SECONDS))
+				throw new RuntimeException("Build did not complete in "
+						+ TASK_TIMEOUT + " seconds");
+		} catch(InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		if(b.hasErrors == null)
+			throw new RuntimeException("Build of identical files failed");
+		
+		return b.hasErrors;
+	}
+	
+	private boolean build(HashMap<String, String> digests) {
+		BuildCache cache = OunitApplication.getBuildCache();
+		String key = null;
+		if(cache != null) {
+			key = BuildCache.key(getQuestion(), digests);
+			BuildCache.Entry hit = cache.get(key);
+			if(hit != null) {
+				getLog().debug("Build results of session {} found in cache", getId());
+				try {
+					hit.restore(projDir);
+				} catch(IOException e) {
+					throw new RuntimeException("Failed to restore cached results", e);
+				}
+				return hit.hasErrors();
+			}
+		}
+		
+		invalidateChangedOutputs(digests);
 		OunitTask task = startBuild();
 		OunitResult r = OunitApplication.waitForTask(task);
 
@@ -404,7 +517,14 @@ public class OunitSession extends OpaqueSession {
 			}
 		}
 		
-		waitForNextMtimeSlot();
+		/*
+		 * Only outcomes decided by the submitted files are cached. A timeout
+		 * may be caused by load and other failures by the infrastructure
+		 * (dependency resolution, lost workers), so build again next time.
+		 */
+		if(cache != null && !r.isTimedOut() && (!r.hasErrors()
+				|| r.hasCompileErrors() || r.hasTestErrors()))
+			cache.put(key, projDir, r.getErrors());
 		
 		return r.hasErrors();
 	}
@@ -418,37 +538,85 @@ public class OunitSession extends OpaqueSession {
 		
 		if(!projDir.isDirectory()) throw new RuntimeException("Attempted to compile a stale session");
 		
+		PreparedQuestionCache cache = OunitApplication.getPreparedQuestionCache();
+		boolean offline = OFFLINE && cache != null && cache.isSeeded(getQuestion());
+		
 		OunitTask task = OunitApplication.scheduleTask(new OunitExecutionRequest()
 			.setBaseDirectory(projDir)
-			.setLogFile(new File(projDir, BUILD_LOG)));
+			.setLogFile(new File(projDir, LOG_COMPRESS ? BUILD_LOG + ".gz" : BUILD_LOG))
+			.setFastPath(FASTPATH)
+			.setOwner(getId())
+			.setTimeout(BUILD_TIMEOUT)
+			.setCpuTimeLimit(BUILD_CPU_TIME)
+			.setMaxMemory(BUILD_MEMORY)
+			.setMaxOutput(BUILD_OUTPUT)
+			.setOffline(offline)
+			.setLogLevel(LOG_LEVEL)
+			.setCompressLog(LOG_COMPRESS)
+			.setPhase("build")
+			.setQuestion(getQuestion().getId()));
 		
 		return task;
 	}
 
 	/**
-	 * There are many file systems out there that store modification
-	 * time in seconds. This function tries to detect the situation
-	 * and wait for the next full second to elapse.
-	 * If we fail to wait, the compiler may not detect that files
-	 * have been changed. It may seem strange that projects can be
-	 * recompiled multiple times inside a same second, but this is
-	 * exactly what happens when LMS replays the session. 
+	 * Hash the contents of all editable files.
+	 * 
+	 * @return map of file name to hash
 	 */
-	private void waitForNextMtimeSlot() {
-		long mtime = projDir.lastModified();
-
-		if (mtime % 1000 == 0) {
-			// Probability of hitting a timestamp that falls exactly on full
-			// second is very low thus we use the fact to decide that
-			// the file system stores mtimes in seconds
-			long currentTime = System.currentTimeMillis();
-			long sleepTime = 1001 - currentTime % 1000;
-			getLog().debug("Sleeping for {}ms", sleepTime);
+	private HashMap<String, String> digestEditFiles() {
+		HashMap<String, String> rv = new HashMap<String, String>();
+		File srcDir = new File(projDir, SRCDIR);
+		for(String f: editFiles) {
+			File file = new File(srcDir, f);
+			if(!file.isFile())
+				continue;
 			try {
-				Thread.sleep(sleepTime);
-			} catch (InterruptedException e) {
-				// Eat it !
+				rv.put(f, md5Hex(file));
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read " + file, e);
+			}
+		}
+		
+		return rv;
+	}
+
+	/**
+	 * Remove compiled classes and copied resources of the editable files
+	 * that were changed since the last build. This forces Maven to
+	 * recompile exactly those sources without relying on modification
+	 * times that many file systems store with one second resolution.
+	 * 
+	 * @param digests current hashes of editable files
+	 */
+	private void invalidateChangedOutputs(HashMap<String, String> digests) {
+		File classesDir = new File(projDir, CLASSES_DIR);
+		
+		for(String f: editFiles) {
+			String digest = digests.get(f);
+			if(editDigests != null && digest != null
+					&& digest.equals(editDigests.get(f)))
+				continue;
+			
+			getLog().debug("{} was changed since last build", f);
+			if(f.startsWith(JAVA_SRCDIR) && f.endsWith(".java")) {
+				String cls = f.substring(JAVA_SRCDIR.length(), f.length() - 5);
+				final String name = new File(cls).getName();
+				File pkgDir = new File(classesDir, cls).getParentFile();
+				File [] outputs = pkgDir.listFiles(new FilenameFilter() {
+					public boolean accept(File dir, String n) {
+						return n.equals(name + ".class")
+								|| n.startsWith(name + "$") && n.endsWith(".class");
+					}
+				});
+				if(outputs != null)
+					for(File o: outputs)
+						o.delete();
+			} else if(f.startsWith(RESOURCE_SRCDIR)) {
+				new File(classesDir, f.substring(RESOURCE_SRCDIR.length())).delete();
 			}
 		}
+		
+		editDigests = digests;
 	}
-}
\ No newline at end of file
+}
@@ -22,6 +22,17 @@
 package com.googlecode.ounit;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class OunitUtil {
 	/**
@@ -43,4 +54,149 @@ public class OunitUtil {
 		}
 		return (path.delete());
 	}
+	
+	/**
+	 * Calculate total size of files in a directory.
+	 * 
+	 * @param f file or directory
+	 * @return size in bytes
+	 */
+	public static long sizeOf(File f) {
+		if(f.isFile())
+			return f.length();
+		
+		long rv = 0;
+		File [] files = f.listFiles();
+		if(files != null)
+			for(File i: files)
+				rv += sizeOf(i);
+		return rv;
+	}
+	
+	/**
+	 * Calculate MD5 hash of file contents.
+	 * 
+	 * @param f file to hash
+	 * @return a 32 character hex string
+	 * @throws IOException
+	 */
+	public static String md5Hex(File f) throws IOException {
+		MessageDigest m;
+		try {
+			m = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] buf = new byte[8192];
+			int len;
+			while ((len = in.read(buf)) > 0)
+				m.update(buf, 0, len);
+		} finally {
+			in.close();
+		}
+		
+		return String.format("%1$032x", new BigInteger(1, m.digest()));
+	}
+	
+	/**
+	 * Calculate a content based checksum of a zip file.
+	 * Modification dates do not affect the result. The digest is
+	 * fed with file names and CRC checksums of all entries from the
+	 * central directory so entry data is never decompressed.
+	 * 
+	 * @param f zip file
+	 * @return a 32 character hex string
+	 * @throws IOException
+	 */
+	public static String zipChecksum(File f) throws IOException {
+		MessageDigest m;
+		try {
+			m = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		
+		ZipFile zf = new ZipFile(f);
+		try {
+			Enumeration<? extends ZipEntry> i = zf.entries();
+			while(i.hasMoreElements()) {
+				ZipEntry e = i.nextElement();
+				long crc = e.getCrc();
+				assert crc != -1: "Download files without CRC checking are not supported";
+				m.update(e.getName().getBytes());
+				m.update(Long.toHexString(crc).getBytes());
+			}
+		} finally {
+			zf.close();
+		}
+		
+		return String.format("%1$032x", new BigInteger(1, m.digest()));
+	}
+	
+	/**
+	 * Calculate MD5 hash of a string.
+	 * 
+	 * @param s string to hash, encoded as UTF-8
+	 * @return a 32 character hex string
+	 */
+	public static String md5Hex(String s) {
+		try {
+			MessageDigest m = MessageDigest.getInstance("MD5");
+			byte [] digest = m.digest(s.getBytes("UTF-8"));
+			return String.format("%1$032x", new BigInteger(1, digest));
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Recursively copy a directory.
+	 * 
+	 * @param src source directory
+	 * @param dst destination directory, created if it does not exist
+	 * @throws IOException
+	 */
+	public static void copyDirectory(File src, File dst) throws IOException {
+		dst.mkdirs();
+		File [] files = src.listFiles();
+		if(files == null)
+			throw new IOException("Unable to list " + src);
+		
+		for(File f: files) {
+			File d = new File(dst, f.getName());
+			if(f.isDirectory())
+				copyDirectory(f, d);
+			else
+				copyFile(f, d);
+		}
+	}
+	
+	/**
+	 * Copy a file using channel transfer so the data does not have to
+	 * pass through the Java heap.
+	 * 
+	 * @param src source file
+	 * @param dst destination file, will be overwritten
+	 * @throws IOException
+	 */
+	public static void copyFile(File src, File dst) throws IOException {
+		FileInputStream in = new FileInputStream(src);
+		try {
+			FileOutputStream out = new FileOutputStream(dst);
+			try {
+				FileChannel ic = in.getChannel();
+				FileChannel oc = out.getChannel();
+				long size = ic.size(), pos = 0;
+				while(pos < size)
+					pos += ic.transferTo(pos, size - pos, oc);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
 }
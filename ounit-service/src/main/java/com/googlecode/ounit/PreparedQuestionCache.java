@@ -0,0 +1,612 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import static com.googlecode.ounit.OunitConfig.*;
+import static com.googlecode.ounit.OunitUtil.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.googlecode.ounit.executor.Metrics;
+import com.googlecode.ounit.executor.OunitExecutionRequest;
+import com.googlecode.ounit.executor.OunitResult;
+import com.googlecode.ounit.executor.OunitTask;
+import com.googlecode.ounit.executor.OunitTaskListener;
+import com.googlecode.ounit.executor.OunitExecutionRequest.Priority;
+
+/**
+ * Shared cache of prepared questions.
+ * <p>
+ * Output of the preparation build (student POM, sources, assembly and
+ * compiled teacher tests) only depends on the question revision so it is
+ * built once into a read-only directory and copied into new sessions.
+ * Concurrent requests for the same revision wait for a single build.
+ * </p>
+ * <p>
+ * In offline mode every prepared revision is also built once as a
+ * student would build it. This resolves all plugins and dependencies
+ * into the local repository so builds of student code can run offline.
+ * A failed seed is retried when a student builds the revision, waiting
+ * longer after each failure.
+ * </p>
+ * <p>
+ * Revisions are evicted in least recently used order when the cache
+ * grows too large. Directories handed out by {@link #acquire(OunitQuestion)}
+ * are kept until they are released.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class PreparedQuestionCache {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	/* Files larger than this are not checked for absolute paths */
+	private static final long MAX_SCAN_SIZE = 1024 * 1024;
+	
+	/* Marks revisions whose dependencies are in the local repository */
+	private static final String SEEDED_SUFFIX = ".seeded";
+	
+	/* Number of download checksums to remember */
+	private static final int MAX_CHECKSUMS = 1024;
+	
+	/* Milliseconds to wait before seeding again after a failure, doubled on each failure */
+	private static final long SEED_RETRY_DELAY = 60 * 1000L;
+	private static final long MAX_SEED_RETRY_DELAY = 60 * 60 * 1000L;
+	
+	private final File dir;
+	private final long maxSize;
+	private long size = 0;
+	/* Entry sizes in access order, guarded by this */
+	private final LinkedHashMap<String, Long> entries =
+		new LinkedHashMap<String, Long>(16, 0.75f, true);
+	/* Number of users of each entry, guarded by this */
+	private final HashMap<String, Integer> pins = new HashMap<String, Integer>();
+	private final ConcurrentHashMap<String, Preparation> pending =
+		new ConcurrentHashMap<String, Preparation>();
+	/* Revisions whose output can not be relocated */
+	private final Set<String> uncacheable =
+		Collections.synchronizedSet(new HashSet<String>());
+	/* Download checksums by revision in access order, guarded by itself */
+	private final Map<String, String> checksums =
+		new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> e) {
+				return size() > MAX_CHECKSUMS;
+			}
+		};
+	/* Revisions being seeded or waiting to be seeded again, guarded by itself */
+	private final Map<String, SeedState> seeds = new HashMap<String, SeedState>();
+	
+	private static class SeedState {
+		boolean running = false;
+		int failures = 0;
+		long retryAt = 0;
+	}
+	
+	/**
+	 * @param dir directory to store prepared questions in
+	 * @param maxSize maximum size of the cache in bytes
+	 */
+	public PreparedQuestionCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		dir.mkdirs();
+		
+		/* Remove unfinished builds of previous runs, load the rest oldest first */
+		File [] files = dir.listFiles();
+		if(files != null) {
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File f1, File f2) {
+					long d = f1.lastModified() - f2.lastModified();
+					return d < 0 ? -1 : (d > 0 ? 1 : 0);
+				}
+			});
+			for(File f: files) {
+				if(f.getName().startsWith("."))
+					deleteDirectory(f);
+				else if(f.isDirectory())
+					addEntry(f.getName(), sizeOf(f));
+			}
+			for(File f: files) {
+				String name = f.getName();
+				if(name.endsWith(SEEDED_SUFFIX) && !entries.containsKey(
+						name.substring(0, name.length() - SEEDED_SUFFIX.length())))
+					f.delete();
+			}
+		}
+		synchronized (this) {
+			evict(null);
+		}
+	}
+	
+	public static String key(String baseUrl, String id, String revision) {
+		return md5Hex(baseUrl + "\n" + id + "\n" + revision);
+	}
+	
+	/**
+	 * Find prepared question, building it if necessary. The directory is
+	 * not evicted until it is given to {@link #release(File)}.
+	 * 
+	 * @param q question
+	 * @return directory that must not be modified or null if the question
+	 *         has to be prepared separately for each session
+	 * @throws RuntimeException if the preparation build fails
+	 */
+	public File acquire(OunitQuestion q) {
+		String key = key(q.getBaseUrl(), q.getId(), q.getRevision());
+		while(true) {
+			File d = get(q.getBaseUrl(), q.getId(), q.getRevision(),
+					q.getSrcDir(), Priority.INTERACTIVE);
+			if(d == null || pin(key))
+				return d;
+			/* Evicted before it could be pinned, prepare again */
+		}
+	}
+	
+	/**
+	 * Allow a directory returned by {@link #acquire(OunitQuestion)}
+	 * to be evicted.
+	 * 
+	 * @param prepDir prepared question directory, may be null
+	 */
+	public synchronized void release(File prepDir) {
+		if(prepDir == null)
+			return;
+		
+		String key = prepDir.getName();
+		Integer n = pins.get(key);
+		if(n == null)
+			return;
+		if(n > 1)
+			pins.put(key, n - 1);
+		else
+			pins.remove(key);
+		evict(null);
+	}
+	
+	/**
+	 * Find prepared question revision, building it if necessary.
+	 * 
+	 * @param baseUrl question base URL
+	 * @param id question id
+	 * @param revision question revision
+	 * @param srcDir checked out sources of the revision
+	 * @param priority build priority if the revision has to be prepared
+	 * @return directory that must not be modified or null if the question
+	 *         has to be prepared separately for each session
+	 * @throws RuntimeException if the preparation build fails
+	 */
+	public File get(String baseUrl, final String id, final String revision,
+			final File srcDir, final Priority priority) {
+		final String key = key(baseUrl, id, revision);
+		if(uncacheable.contains(key))
+			return null;
+		
+		File d = new File(dir, key);
+		boolean hit;
+		synchronized (this) {
+			/* get() also moves the entry to the end of eviction order */
+			hit = entries.get(key) != null && d.isDirectory();
+		}
+		Metrics.getInstance().cacheAccess("prepared_question", hit);
+		if(hit) {
+			d.setLastModified(System.currentTimeMillis());
+			return d;
+		}
+		
+		while(true) {
+			Preparation prep = new Preparation(id, revision, srcDir, key, priority);
+			Preparation running = pending.putIfAbsent(key, prep);
+			if(running == null) {
+				running = prep;
+				try {
+					prep.future.run();
+				} finally {
+					pending.remove(key);
+				}
+			} else {
+				/* Do not wait behind other builds for a background preparation */
+				running.raise(priority);
+			}
+			
+			try {
+				return running.future.get();
+			} catch(ExecutionException e) {
+				Throwable t = e.getCause();
+				/* The queue was too full for the other caller, try on our own */
+				if(running != prep && t instanceof RejectedExecutionException)
+					continue;
+				if(t instanceof RuntimeException)
+					throw (RuntimeException) t;
+				throw new RuntimeException(t);
+			} catch(InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	/**
+	 * @return true if the revision has already been prepared
+	 */
+	public boolean isPrepared(String baseUrl, String id, String revision) {
+		String key = key(baseUrl, id, revision);
+		synchronized (this) {
+			if(entries.containsKey(key))
+				return true;
+		}
+		return uncacheable.contains(key);
+	}
+	
+	/**
+	 * Find checksum of the download file of a question revision.
+	 * Every session of a shared revision gets an identical file so the
+	 * checksum is calculated only once. Revisions prepared separately for
+	 * each session may produce different files, their checksum is
+	 * calculated every time.
+	 * 
+	 * @param q question
+	 * @param zipFile download file of a session prepared from the revision
+	 * @return a 32 character hex string
+	 * @throws IOException if the file can not be read
+	 */
+	public String getDownloadChecksum(OunitQuestion q, File zipFile) throws IOException {
+		String key = key(q.getBaseUrl(), q.getId(), q.getRevision());
+		String checksum;
+		synchronized (checksums) {
+			checksum = checksums.get(key);
+		}
+		Metrics.getInstance().cacheAccess("download_checksum", checksum != null);
+		if(checksum != null)
+			return checksum;
+		
+		checksum = zipChecksum(zipFile);
+		/* Holding the lock keeps the entry from being evicted meanwhile */
+		synchronized (this) {
+			if(entries.containsKey(key)) {
+				synchronized (checksums) {
+					checksums.put(key, checksum);
+				}
+			}
+		}
+		
+		return checksum;
+	}
+	
+	/**
+	 * Check if the local repository has been seeded for a question.
+	 * If not, seeding of a prepared revision is started again unless it
+	 * is already running or has failed recently.
+	 * 
+	 * @return true if student builds of the question can run offline
+	 */
+	public boolean isSeeded(OunitQuestion q) {
+		String key = key(q.getBaseUrl(), q.getId(), q.getRevision());
+		if(new File(dir, key + SEEDED_SUFFIX).isFile())
+			return true;
+		
+		if(OFFLINE)
+			reseed(q.getId(), key);
+		return false;
+	}
+	
+	private File prepare(String id, String revision, File qDir, String key,
+			Preparation prep) throws IOException {
+		File tmp = new File(dir, "." + key + "-" + Thread.currentThread().getId());
+		deleteDirectory(tmp);
+		tmp.mkdirs();
+		
+		log.debug("Preparing question {} revision {} into {}",
+				new Object[] { id, revision, tmp });
+		
+		OunitResult r;
+		try {
+			r = OunitApplication.waitForTask(prep.schedule(
+					new OunitExecutionRequest()
+						.setBaseDirectory(qDir)
+						.setOutputDirectory(tmp.getAbsolutePath())
+						.setLogFile(new File(tmp, PREPARE_LOG))
+						.setPhase("prepare")
+						.setQuestion(id)));
+		} catch(RuntimeException e) {
+			deleteDirectory(tmp);
+			throw e;
+		}
+		
+		if(r.hasErrors()) {
+			String errstr = "Failed to prepare question";
+			log.warn(errstr, r.getErrors());
+			deleteDirectory(tmp);
+			throw new RuntimeException(errstr + ": " + r.getErrors());
+		}
+		
+		if(containsString(tmp, tmp.getAbsolutePath())) {
+			log.info("Prepared question {} refers to it's own location, " +
+					"it will be prepared separately for each session", id);
+			uncacheable.add(key);
+			deleteDirectory(tmp);
+			return null;
+		}
+		
+		File d = new File(dir, key);
+		if(!tmp.renameTo(d)) {
+			deleteDirectory(tmp);
+			if(!d.isDirectory())
+				throw new IOException("Unable to create " + d);
+		} else if(OFFLINE) {
+			seed(id, d, key);
+		}
+		
+		synchronized (this) {
+			if(!entries.containsKey(key))
+				addEntry(key, sizeOf(d));
+			evict(key);
+		}
+		
+		return d;
+	}
+	
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+	
+	/**
+	 * Protect an entry from eviction.
+	 * 
+	 * @return false if the entry no longer exists
+	 */
+	private synchronized boolean pin(String key) {
+		if(entries.get(key) == null)
+			return false;
+		
+		Integer n = pins.get(key);
+		pins.put(key, n == null ? 1 : n + 1);
+		return true;
+	}
+	
+	private void addEntry(String key, long entrySize) {
+		entries.put(key, entrySize);
+		size += entrySize;
+	}
+	
+	/**
+	 * Remove least recently used entries that are not in use until
+	 * the cache fits into it's size limit. Must hold the lock.
+	 * 
+	 * @param keep key of an entry that must not be evicted or null
+	 */
+	private void evict(String keep) {
+		Iterator<Map.Entry<String, Long>> i = entries.entrySet().iterator();
+		while(size > maxSize && i.hasNext()) {
+			Map.Entry<String, Long> e = i.next();
+			String key = e.getKey();
+			if(key.equals(keep) || pins.containsKey(key))
+				continue;
+			
+			log.debug("Evicting prepared question {}", key);
+			size -= e.getValue();
+			i.remove();
+			deleteDirectory(new File(dir, key));
+			new File(dir, key + SEEDED_SUFFIX).delete();
+			synchronized (checksums) {
+				checksums.remove(key);
+			}
+			synchronized (seeds) {
+				SeedState state = seeds.get(key);
+				if(state != null && !state.running)
+					seeds.remove(key);
+			}
+		}
+	}
+	
+	private void reseed(String id, String key) {
+		synchronized (seeds) {
+			SeedState state = seeds.get(key);
+			if(state != null && (state.running
+					|| System.currentTimeMillis() < state.retryAt))
+				return;
+		}
+		
+		/* Keep the revision until it has been copied */
+		File d = new File(dir, key);
+		if(!pin(key))
+			return;
+		try {
+			seed(id, d, key);
+		} finally {
+			release(d);
+		}
+	}
+	
+	/**
+	 * Build a copy of a prepared question in the background to fill
+	 * the local repository with everything student builds need.
+	 */
+	private void seed(final String id, File prepDir, final String key) {
+		synchronized (seeds) {
+			SeedState state = seeds.get(key);
+			if(state == null)
+				seeds.put(key, state = new SeedState());
+			else if(state.running)
+				return;
+			state.running = true;
+		}
+		
+		final File tmp = new File(dir, ".seed-" + key);
+		try {
+			deleteDirectory(tmp);
+			copyDirectory(prepDir, tmp);
+			OunitApplication.scheduleTask(new OunitExecutionRequest()
+					.setBaseDirectory(tmp)
+					.setLogFile(new File(tmp, BUILD_LOG))
+					.setPriority(Priority.BACKGROUND)
+					.setPhase("seed")
+					.setQuestion(id),
+					new OunitTaskListener() {
+						public void taskDone(OunitTask task) {
+							boolean ok = false;
+							try {
+								ok = seeded(id, key, task.get());
+							} catch(Exception e) {
+								log.warn("Failed to seed local repository for " + id, e);
+							} finally {
+								deleteDirectory(tmp);
+								seedDone(key, ok);
+							}
+						}
+					});
+		} catch(Exception e) {
+			log.warn("Failed to seed local repository for " + id, e);
+			deleteDirectory(tmp);
+			seedDone(key, false);
+		}
+	}
+	
+	private boolean seeded(String id, String key, OunitResult r) throws IOException {
+		/* Failing tests do not matter, the test plugins were resolved */
+		if(r.isTimedOut() || (r.hasErrors() && !r.hasTestErrors())) {
+			log.warn("Failed to seed local repository for {}, " +
+					"student builds will not run offline: {}", id, r.getErrors());
+			return false;
+		}
+		
+		new File(dir, key + SEEDED_SUFFIX).createNewFile();
+		log.debug("Local repository seeded for question {}", id);
+		return true;
+	}
+	
+	/**
+	 * Forget a finished seed or schedule the next attempt after a failure.
+	 */
+	private void seedDone(String key, boolean ok) {
+		synchronized (seeds) {
+			SeedState state = seeds.get(key);
+			if(ok || state == null) {
+				seeds.remove(key);
+				return;
+			}
+			
+			state.running = false;
+			state.failures++;
+			long delay = SEED_RETRY_DELAY << Math.min(state.failures - 1, 16);
+			state.retryAt = System.currentTimeMillis()
+				+ Math.min(delay, MAX_SEED_RETRY_DELAY);
+		}
+	}
+	
+	/**
+	 * Preparation build of a revision that others can wait for. It is
+	 * queued with the highest priority any of the waiting callers asked
+	 * for, even if they started waiting after it was queued.
+	 */
+	private class Preparation implements Callable<File> {
+		final FutureTask<File> future = new FutureTask<File>(this);
+		private final String id;
+		private final String revision;
+		private final File srcDir;
+		private final String key;
+		/* Guarded by this */
+		private Priority priority;
+		private OunitTask task = null;
+		
+		Preparation(String id, String revision, File srcDir, String key,
+				Priority priority) {
+			this.id = id;
+			this.revision = revision;
+			this.srcDir = srcDir;
+			this.key = key;
+			this.priority = priority;
+		}
+		
+		public File call() throws Exception {
+			return prepare(id, revision, srcDir, key, this);
+		}
+		
+		synchronized OunitTask schedule(OunitExecutionRequest r) {
+			task = OunitApplication.scheduleTask(r.setPriority(priority));
+			return task;
+		}
+		
+		synchronized void raise(Priority p) {
+			if(p.compareTo(priority) >= 0)
+				return;
+			
+			priority = p;
+			if(task != null)
+				OunitApplication.raisePriority(task, p);
+		}
+	}
+	
+	/**
+	 * Check if any file (except logs) in a directory contains a string.
+	 */
+	private static boolean containsString(File dir, String s) throws IOException {
+		String needle = new String(s.getBytes("UTF-8"), "ISO-8859-1");
+		File [] files = dir.listFiles();
+		if(files == null)
+			return false;
+		
+		for(File f: files) {
+			if(f.isDirectory()) {
+				if(containsString(f, s))
+					return true;
+			} else if(!f.getName().endsWith(".log") && f.length() <= MAX_SCAN_SIZE) {
+				byte [] buf = new byte[(int) f.length()];
+				InputStream in = new FileInputStream(f);
+				try {
+					int off = 0, len;
+					while(off < buf.length && (len = in.read(buf, off, buf.length - off)) > 0)
+						off += len;
+				} finally {
+					in.close();
+				}
+				if(new String(buf, "ISO-8859-1").contains(needle))
+					return true;
+			}
+		}
+		
+		return false;
+	}
+}
@@ -27,6 +27,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
@@ -132,6 +133,13 @@ public class ProjectTreeNode implements Serializable, Comparable<ProjectTreeNode
 	public void setFileContents(String text) throws IOException {
 		if(text == null) return;
 		
+		ByteBuffer data = Charset.forName("UTF-8").encode(text);
+		if(data.equals(readContents())) {
+			// Do not touch identical files so they will not be recompiled
+			log.debug("File {} not changed", pathname);
+			return;
+		}
+		
 		log.debug("Writing file {}", pathname);
 		
 		long mtime = pathname.lastModified();
@@ -146,10 +154,27 @@ public class ProjectTreeNode implements Serializable, Comparable<ProjectTreeNode
 		FileOutputStream stream = new FileOutputStream(pathname);
 		try {
 		    FileChannel fc = stream.getChannel();
-			fc.write(Charset.forName("UTF-8").encode(text).asReadOnlyBuffer());
+			fc.write(data);
 		}
 		finally {
 		  stream.close();
 		}
 	}
+	
+	private ByteBuffer readContents() throws IOException {
+		if(!pathname.isFile())
+			return null;
+		
+		FileInputStream stream = new FileInputStream(pathname);
+		try {
+			FileChannel fc = stream.getChannel();
+			ByteBuffer bb = ByteBuffer.allocate((int) fc.size());
+			while(bb.hasRemaining() && fc.read(bb) >= 0);
+			bb.flip();
+			return bb;
+		}
+		finally {
+			stream.close();
+		}
+	}
 }
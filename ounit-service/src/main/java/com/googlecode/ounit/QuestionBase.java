@@ -30,6 +30,8 @@ import java.util.Properties;
 import com.googlecode.ounit.opaque.QuestionInfo;
 
 public abstract class QuestionBase implements OunitQuestion {
+	private static final long serialVersionUID = 1L;
+	
 	protected String id;
 	protected String version;
 	protected String baseURL;
@@ -63,6 +65,21 @@ public abstract class QuestionBase implements OunitQuestion {
 		info.setTitle((String) qprops.get(TITLE_PROPERTY));
 	}
 	
+	/**
+	 * Create a copy that can switch revisions independently of the
+	 * original. Parsed question info is shared.
+	 * 
+	 * @param q question to copy
+	 */
+	protected QuestionBase(QuestionBase q) {
+		this.id = q.id;
+		this.version = q.version;
+		this.baseURL = q.baseURL;
+		this.revision = q.revision;
+		this.info = q.info;
+		this.srcDir = q.srcDir;
+	}
+	
 	@Override
 	public String getId() {
 		return id;
@@ -113,6 +130,16 @@ public abstract class QuestionBase implements OunitQuestion {
 		return srcDir;
 	}
 	
+	/**
+	 * Check if the Question Database has a newer revision
+	 * than the current one.
+	 * 
+	 * @return true if head revision has moved
+	 */
+	public boolean isStale() {
+		return !revision.equals(findHeadRevision());
+	}
+	
 	/**
 	 * Find latest revision for question in Database.
 	 * 
@@ -3,12 +3,20 @@ package com.googlecode.ounit;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.apache.wicket.WicketRuntimeException;
 import org.apache.wicket.extensions.protocol.opaque.IVersionedResource;
 import org.apache.wicket.markup.html.link.ResourceLink;
+import org.apache.wicket.protocol.http.servlet.ServletWebResponse;
+import org.apache.wicket.request.Request;
 import org.apache.wicket.request.Response;
+import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.request.http.WebResponse;
 import org.apache.wicket.request.resource.IResource;
 import org.apache.wicket.request.resource.ResourceReference;
@@ -26,34 +34,189 @@ public class QuestionDownloadLink extends ResourceLink<Void> {
 
 		@Override
 		public void respond(Attributes attributes) {
-			File zipFile = OunitSession.get().getDownloadFile();
+			OunitSession sess = OunitSession.get();
+			File zipFile = sess.getDownloadFile();
 			
 			if(zipFile == null || zipFile.length() <= 0)
 				return;
 
+			long length = zipFile.length();
+			long start = 0;
+			long end = length - 1;
+
 			Response response = attributes.getResponse();
 			if(response instanceof WebResponse) {
 				WebResponse webResponse = (WebResponse) response;
+				String etag = "\"" + sess.getDownloadChecksum() + "\"";
+				webResponse.setHeader("ETag", etag);
+				webResponse.setHeader("Accept-Ranges", "bytes");
+
+				Request request = attributes.getRequest();
+				if(request instanceof WebRequest) {
+					WebRequest webRequest = (WebRequest) request;
+					if(matches(webRequest.getHeader("If-None-Match"), etag)) {
+						webResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+						return;
+					}
+
+					String ifRange = webRequest.getHeader("If-Range");
+					long [] range = null;
+					if(ifRange == null || ifRange.equals(etag))
+						range = parseRange(webRequest.getHeader("Range"), length);
+					if(range != null && range.length == 0) {
+						webResponse.setHeader("Content-Range", "bytes */" + length);
+						webResponse.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return;
+					}
+					if(range != null) {
+						start = range[0];
+						end = range[1];
+						webResponse.setHeader("Content-Range", "bytes " + start + "-"
+								+ end + "/" + length);
+						webResponse.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+					}
+				}
+
 				webResponse.setAttachmentHeader(getVersionedName());
 				webResponse.setContentType("application/octet-stream");
-				webResponse.setContentLength(zipFile.length());
+				webResponse.setContentLength(end - start + 1);
 			}
 			
 			try {
-				byte [] buf = new byte[4096];
-				FileInputStream fin = new FileInputStream(zipFile);
-				int count = 0;
-				while((count = fin.read(buf)) != -1) {
-					if(count == buf.length)
-						response.write(buf);
-					else {
-						response.write(Arrays.copyOf(buf, count));
-					}
+				FileChannel in = new FileInputStream(zipFile).getChannel();
+				try {
+					transfer(in, start, end - start + 1, openChannel(response));
+				} finally {
+					in.close();
 				}
 			} catch(IOException e) {
 				throw new WicketRuntimeException(e);
 			}
 		}
+
+		/**
+		 * Copy a region of the file to the client. The target wraps an
+		 * output stream, so <code>transferTo</code> copies through a buffer
+		 * in user space. It does not avoid the copy, it only saves holding
+		 * the whole file in memory.
+		 */
+		private static void transfer(FileChannel in, long position, long count,
+				WritableByteChannel out) throws IOException {
+			while(count > 0) {
+				long n = in.transferTo(position, count, out);
+				if(n <= 0)
+					break;
+				position += n;
+				count -= n;
+			}
+		}
+
+		private static WritableByteChannel openChannel(Response response) throws IOException {
+			if(response instanceof ServletWebResponse) {
+				Object r = response.getContainerResponse();
+				if(r instanceof HttpServletResponse)
+					return Channels.newChannel(((HttpServletResponse) r).getOutputStream());
+			}
+			return new ResponseChannel(response);
+		}
+
+		/**
+		 * Check an If-None-Match header against our entity tag.
+		 */
+		static boolean matches(String header, String etag) {
+			if(header == null)
+				return false;
+			for(String tag: header.split(",")) {
+				tag = tag.trim();
+				if(tag.startsWith("W/"))
+					tag = tag.substring(2);
+				if(tag.equals("*") || tag.equals(etag))
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Parse a Range header. Only a single byte range is supported,
+		 * anything else is served as a full response.
+		 * 
+		 * @return first and last byte position, an empty array if the range
+		 *         can not be satisfied or null if the whole file must be sent
+		 */
+		static long [] parseRange(String header, long length) {
+			if(header == null || !header.startsWith("bytes="))
+				return null;
+			String spec = header.substring(6).trim();
+			int dash = spec.indexOf('-');
+			if(dash < 0 || spec.indexOf(',') >= 0)
+				return null;
+
+			long start, end;
+			try {
+				String first = spec.substring(0, dash).trim();
+				String last = spec.substring(dash + 1).trim();
+				if(first.length() == 0) {
+					/* Suffix range: the last N bytes */
+					long suffix = Long.parseLong(last);
+					if(suffix <= 0)
+						return new long[0];
+					start = Math.max(0, length - suffix);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(first);
+					end = last.length() == 0 ? length - 1 : Long.parseLong(last);
+					if(start >= length)
+						return new long[0];
+					if(end < start)
+						return null;
+					end = Math.min(end, length - 1);
+				}
+			} catch(NumberFormatException e) {
+				return null;
+			}
+
+			return new long[] { start, end };
+		}
+	}
+
+	/**
+	 * Adapts a Wicket response to a channel. Wicket only accepts whole
+	 * arrays so the chunk buffer is reused whenever the channel hands
+	 * us a full one, which it does for everything but the tail.
+	 */
+	private static class ResponseChannel implements WritableByteChannel {
+		private final Response response;
+		private byte [] buf;
+		private boolean open = true;
+
+		public ResponseChannel(Response response) {
+			this.response = response;
+		}
+
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int n = src.remaining();
+			byte [] b = buf;
+			if(b == null || b.length != n) {
+				b = new byte[n];
+				if(buf == null)
+					buf = b;
+			}
+			src.get(b);
+			response.write(b);
+
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
 	}
 
 	public QuestionDownloadLink(String id) {
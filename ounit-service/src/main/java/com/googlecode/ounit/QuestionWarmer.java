@@ -0,0 +1,172 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.googlecode.ounit.executor.OunitExecutionRequest.Priority;
+
+/**
+ * Prepares questions in the background so students starting a question
+ * do not have to wait for the preparation build.
+ * <p>
+ * Warm-up is triggered whenever a question is fetched (the LMS calls
+ * getQuestionInfo long before the first student starts the question)
+ * and for questions listed in the <code>ounit.prewarm</code> property.
+ * A session that starts while the build is still running waits for it
+ * via {@link PreparedQuestionCache}.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class QuestionWarmer {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	private final QuestionFactory qf;
+	private final PreparedQuestionCache cache;
+	private final ExecutorService executor;
+	/* Warm-ups that are queued or running */
+	private final ConcurrentHashMap<String, Boolean> pending =
+		new ConcurrentHashMap<String, Boolean>();
+	
+	public QuestionWarmer(QuestionFactory qf, PreparedQuestionCache cache,
+			int nThreads) {
+		this.qf = qf;
+		this.cache = cache;
+		this.executor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ounit-warmup");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+	
+	/**
+	 * Fetch and prepare a question in the background.
+	 * 
+	 * @param id question id
+	 * @param version question version
+	 * @param baseUrl question base URL or null for default
+	 */
+	public void warm(final String id, final String version,
+			final String baseUrl) {
+		final String key = "fetch\n" + baseUrl + "\n" + id + "\n" + version;
+		if(pending.putIfAbsent(key, Boolean.TRUE) != null)
+			return;
+		
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					OunitQuestion q = qf.loadQuestion(id, version, baseUrl);
+					prepare(q.getBaseUrl(), q.getId(), q.getRevision(),
+							q.getSrcDir());
+				} catch(Exception e) {
+					log.warn("Failed to warm up question " + id, e);
+				} finally {
+					pending.remove(key);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Prepare head revision of an already fetched question in the
+	 * background.
+	 * 
+	 * @param q question, it is not accessed after this method returns
+	 */
+	public void warm(OunitQuestion q) {
+		if(cache == null)
+			return;
+		
+		final String baseUrl = q.getBaseUrl();
+		final String id = q.getId();
+		final String revision = q.getRevision();
+		if(cache.isPrepared(baseUrl, id, revision))
+			return;
+		
+		final File srcDir = q.getSrcDir();
+		final String key = PreparedQuestionCache.key(baseUrl, id, revision);
+		if(pending.putIfAbsent(key, Boolean.TRUE) != null)
+			return;
+		
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					prepare(baseUrl, id, revision, srcDir);
+				} finally {
+					pending.remove(key);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Warm up questions from a comma separated list of
+	 * <code>id[:version]</code> entries.
+	 * 
+	 * @param list question list
+	 * @param defaultVersion version to use if not specified
+	 */
+	public void warmAll(String list, String defaultVersion) {
+		if(list == null)
+			return;
+		
+		for(String entry: list.split(",")) {
+			entry = entry.trim();
+			if(entry.isEmpty())
+				continue;
+			
+			int i = entry.indexOf(':');
+			if(i < 0)
+				warm(entry, defaultVersion, null);
+			else
+				warm(entry.substring(0, i), entry.substring(i + 1), null);
+		}
+	}
+	
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	private void prepare(String baseUrl, String id, String revision,
+			File srcDir) {
+		if(cache == null)
+			return;
+		
+		long start = System.currentTimeMillis();
+		try {
+			cache.get(baseUrl, id, revision, srcDir, Priority.BACKGROUND);
+			log.debug("Question {} revision {} warmed up in {} ms",
+					new Object[] { id, revision,
+							System.currentTimeMillis() - start });
+		} catch(Exception e) {
+			log.warn("Failed to prepare question " + id, e);
+		}
+	}
+}
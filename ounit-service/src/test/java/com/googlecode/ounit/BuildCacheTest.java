@@ -0,0 +1,175 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import static com.googlecode.ounit.OunitUtil.*;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.googlecode.ounit.opaque.QuestionInfo;
+
+public class BuildCacheTest {
+	static File workDir = new File("target/build-cache-test");
+	static File projDir = new File(workDir, "project");
+	
+	static OunitQuestion question(final String revision) {
+		return new OunitQuestion() {
+			public String getId() { return "q"; }
+			public String getVersion() { return "1.0"; }
+			public String getBaseUrl() { return "file:/questions"; }
+			public QuestionInfo getInfo() { return null; }
+			public String getRevision() { return revision; }
+			public void setRevision(String revision) { }
+			public File getSrcDir() { return null; }
+		};
+	}
+	
+	static void write(File f, String contents) throws IOException {
+		f.getParentFile().mkdirs();
+		FileWriter w = new FileWriter(f);
+		w.write(contents);
+		w.close();
+	}
+	
+	static String read(File f) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		FileReader r = new FileReader(f);
+		try {
+			int c;
+			while((c = r.read()) >= 0)
+				sb.append((char) c);
+		} finally {
+			r.close();
+		}
+		return sb.toString();
+	}
+	
+	@Before
+	public void createProject() throws IOException {
+		deleteDirectory(workDir);
+		write(new File(projDir, OunitConfig.MARKS_FILE), "default=50.00\n");
+		write(new File(projDir, OunitConfig.RESULTS_FILE), "<div/>");
+	}
+	
+	@AfterClass
+	public static void cleanup() {
+		deleteDirectory(workDir);
+	}
+	
+	@Test
+	public void keyDependsOnRevisionAndContents() {
+		Map<String, String> d1 = new HashMap<String, String>();
+		d1.put("main/java/A.java", "1");
+		Map<String, String> d2 = new HashMap<String, String>();
+		d2.put("main/java/A.java", "2");
+		
+		assertEquals(BuildCache.key(question("r1"), d1),
+				BuildCache.key(question("r1"), new HashMap<String, String>(d1)));
+		assertFalse(BuildCache.key(question("r1"), d1).equals(
+				BuildCache.key(question("r2"), d1)));
+		assertFalse(BuildCache.key(question("r1"), d1).equals(
+				BuildCache.key(question("r1"), d2)));
+	}
+	
+	@Test
+	public void storeAndRestore() throws IOException {
+		BuildCache cache = new BuildCache(new File(workDir, "cache"), 1024 * 1024);
+		assertNull(cache.get("k"));
+		cache.put("k", projDir, null);
+		
+		File marks = new File(projDir, OunitConfig.MARKS_FILE);
+		marks.delete();
+		BuildCache.Entry e = cache.get("k");
+		assertNotNull(e);
+		assertFalse(e.hasErrors());
+		e.restore(projDir);
+		assertTrue(marks.isFile());
+		
+		cache.put("e", projDir, "broken");
+		e = cache.get("e");
+		assertTrue(e.hasErrors());
+		assertEquals("broken", e.getErrors());
+		
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		
+		/* Entries survive a restart */
+		cache = new BuildCache(new File(workDir, "cache"), 1024 * 1024);
+		assertEquals(2, cache.getEntryCount());
+	}
+	
+	@Test
+	public void restoredOutputRefersToOwnProject() throws IOException {
+		BuildCache cache = new BuildCache(new File(workDir, "cache"), 1024 * 1024);
+		File results = new File(projDir, OunitConfig.RESULTS_FILE);
+		write(results, "<pre>" + projDir.getAbsolutePath() + "/A.java:1</pre>");
+		cache.put("k", projDir, projDir.getAbsolutePath() + "/A.java:1");
+		
+		File other = new File(workDir, "other");
+		BuildCache.Entry e = cache.get("k");
+		assertEquals(BuildCache.PROJECT_DIR + "/A.java:1", e.getErrors());
+		e.restore(other);
+		assertEquals("<pre>" + other.getAbsolutePath() + "/A.java:1</pre>",
+				read(new File(other, OunitConfig.RESULTS_FILE)));
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		long entrySize = new File(projDir, OunitConfig.MARKS_FILE).length()
+				+ new File(projDir, OunitConfig.RESULTS_FILE).length();
+		BuildCache cache = new BuildCache(new File(workDir, "cache"),
+				entrySize * 2);
+		cache.put("a", projDir, null);
+		cache.put("b", projDir, null);
+		assertNotNull(cache.get("a"));
+		cache.put("c", projDir, null);
+		
+		assertEquals(2, cache.getEntryCount());
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+	}
+	
+	@Test
+	public void entryOutlivesEviction() throws IOException {
+		long entrySize = new File(projDir, OunitConfig.MARKS_FILE).length()
+				+ new File(projDir, OunitConfig.RESULTS_FILE).length();
+		BuildCache cache = new BuildCache(new File(workDir, "cache"), entrySize);
+		cache.put("a", projDir, null);
+		BuildCache.Entry e = cache.get("a");
+		cache.put("b", projDir, null);
+		assertNull(cache.get("a"));
+		
+		File marks = new File(projDir, OunitConfig.MARKS_FILE);
+		e.restore(projDir);
+		assertTrue("Evicted entry removed session outputs", marks.isFile());
+		assertTrue(marks.length() > 0);
+	}
+}
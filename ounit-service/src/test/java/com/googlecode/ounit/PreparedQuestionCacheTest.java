@@ -0,0 +1,109 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import static com.googlecode.ounit.OunitUtil.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class PreparedQuestionCacheTest {
+	static File cacheDir = new File("target/prepared-cache-test");
+	
+	static File createEntry(String revision, long modified) throws IOException {
+		File d = new File(cacheDir, PreparedQuestionCache.key(
+				"file:/questions", "q", revision));
+		d.mkdirs();
+		FileWriter w = new FileWriter(new File(d, "pom.xml"));
+		w.write(new char[100]);
+		w.close();
+		new File(d, "pom.xml").setLastModified(modified);
+		d.setLastModified(modified);
+		new File(d.getPath() + ".seeded").createNewFile();
+		return d;
+	}
+	
+	static File createZip(String name, String contents) throws IOException {
+		File f = new File(cacheDir, name);
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(f));
+		out.putNextEntry(new ZipEntry("A.java"));
+		out.write(contents.getBytes("UTF-8"));
+		out.closeEntry();
+		out.close();
+		return f;
+	}
+	
+	@Before
+	@After
+	public void cleanup() {
+		deleteDirectory(cacheDir);
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsedRevisions() throws IOException {
+		long now = System.currentTimeMillis();
+		File r1 = createEntry("r1", now - 60000);
+		File r2 = createEntry("r2", now);
+		
+		PreparedQuestionCache cache = new PreparedQuestionCache(cacheDir, 150);
+		assertEquals(1, cache.getEntryCount());
+		assertEquals(100, cache.getSize());
+		assertFalse(r1.exists());
+		assertFalse(new File(r1.getPath() + ".seeded").exists());
+		assertTrue(r2.isDirectory());
+		assertTrue(cache.isPrepared("file:/questions", "q", "r2"));
+		assertFalse(cache.isPrepared("file:/questions", "q", "r1"));
+	}
+	
+	@Test
+	public void acquiredRevisionIsReturned() throws IOException {
+		File r1 = createEntry("r1", System.currentTimeMillis());
+		
+		PreparedQuestionCache cache = new PreparedQuestionCache(cacheDir, 1024);
+		File d = cache.acquire(BuildCacheTest.question("r1"));
+		assertEquals(r1.getAbsoluteFile(), d.getAbsoluteFile());
+		cache.release(d);
+		assertEquals(1, cache.getEntryCount());
+	}
+	
+	@Test
+	public void checksumIsSharedOnlyByPreparedRevisions() throws IOException {
+		createEntry("r1", System.currentTimeMillis());
+		PreparedQuestionCache cache = new PreparedQuestionCache(cacheDir, 1024);
+		File z1 = createZip("1.zip", "class A {}");
+		File z2 = createZip("2.zip", "class A { int x; }");
+		
+		String c1 = cache.getDownloadChecksum(BuildCacheTest.question("r1"), z1);
+		assertEquals(c1, cache.getDownloadChecksum(BuildCacheTest.question("r1"), z2));
+		
+		/* Not a shared revision, sessions may get different files */
+		String c2 = cache.getDownloadChecksum(BuildCacheTest.question("r2"), z1);
+		assertFalse(c2.equals(cache.getDownloadChecksum(BuildCacheTest.question("r2"), z2)));
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit;
+
+import static com.googlecode.ounit.QuestionDownloadLink.QuestionDownloadResource.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class QuestionDownloadLinkTest {
+	static final String ETAG = "\"0123456789abcdef0123456789abcdef\"";
+
+	@Test
+	public void entityTagMatching() {
+		assertFalse(matches(null, ETAG));
+		assertTrue(matches(ETAG, ETAG));
+		assertTrue(matches("\"other\", " + ETAG, ETAG));
+		assertTrue(matches("W/" + ETAG, ETAG));
+		assertTrue(matches("*", ETAG));
+		assertFalse(matches("\"other\"", ETAG));
+	}
+
+	@Test
+	public void wholeFileWithoutRange() {
+		assertNull(parseRange(null, 100));
+		assertNull(parseRange("items=0-10", 100));
+		assertNull(parseRange("bytes=0-10,20-30", 100));
+		assertNull(parseRange("bytes=abc-", 100));
+		assertNull(parseRange("bytes=10-5", 100));
+	}
+
+	@Test
+	public void singleRanges() {
+		assertArrayEquals(new long[] { 0, 9 }, parseRange("bytes=0-9", 100));
+		assertArrayEquals(new long[] { 50, 99 }, parseRange("bytes=50-", 100));
+		assertArrayEquals(new long[] { 90, 99 }, parseRange("bytes=-10", 100));
+		assertArrayEquals(new long[] { 0, 99 }, parseRange("bytes=-500", 100));
+		assertArrayEquals(new long[] { 95, 99 }, parseRange("bytes=95-200", 100));
+	}
+
+	@Test
+	public void unsatisfiableRanges() {
+		assertEquals(0, parseRange("bytes=100-", 100).length);
+		assertEquals(0, parseRange("bytes=-0", 100).length);
+	}
+}
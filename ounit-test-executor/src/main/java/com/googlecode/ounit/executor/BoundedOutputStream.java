@@ -0,0 +1,63 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Passes through a limited number of bytes and discards the rest.
+ */
+class BoundedOutputStream extends FilterOutputStream {
+	private final long limit;
+	private long written = 0;
+	private boolean truncated = false;
+	
+	BoundedOutputStream(OutputStream out, long limit) {
+		super(out);
+		this.limit = limit;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if(written < limit)
+			out.write(b);
+		count(1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(written < limit)
+			out.write(b, off, (int) Math.min(len, limit - written));
+		count(len);
+	}
+	
+	private void count(int n) throws IOException {
+		written += n;
+		if(written > limit && !truncated) {
+			truncated = true;
+			out.write(("\n[Output truncated after " + limit + " bytes]\n")
+					.getBytes());
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Build log that is written to disk on a background thread.
+ * <p>
+ * Output is collected into an in-memory buffer and handed to a
+ * shared writer thread so build threads never wait for the disk.
+ * If the writer falls behind and the buffer fills up, the oldest
+ * buffered output is dropped and a notice is written in it's place,
+ * so the log always ends with the most recent output. The last few
+ * kilobytes are kept in memory for showing the progress of a running
+ * build, see {@link #getTail()}.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class BuildLog extends OutputStream {
+	private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(BuildLog.class);
+	
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+	public static final int TAIL_SIZE           = 16 * 1024;
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	
+	private static final ExecutorService writer = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ounit-log-writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	
+	private final File file;
+	private final boolean compress;
+	private final int bufferSize;
+	
+	/* Guarded by this, pending output is a ring buffer that grows up to bufferSize */
+	private byte [] pending;
+	private int pendingStart = 0;
+	private int pendingSize = 0;
+	private long dropped = 0;
+	private boolean scheduled = false;
+	private boolean closed = false;
+	private final byte [] tail = new byte[TAIL_SIZE];
+	private long tailCount = 0;
+	
+	/* Only used by the writer thread until the log is closed */
+	private OutputStream out = null;
+	private boolean failed = false;
+	
+	private final Runnable drain = new Runnable() {
+		public void run() {
+			drain();
+		}
+	};
+	
+	/**
+	 * @param file file to write the log to
+	 * @param compress write the file in gzip format
+	 */
+	public BuildLog(File file, boolean compress) {
+		this(file, compress, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * @param file file to write the log to
+	 * @param compress write the file in gzip format
+	 * @param bufferSize maximum number of bytes waiting to be written
+	 */
+	public BuildLog(File file, boolean compress, int bufferSize) {
+		this.file = file;
+		this.compress = compress;
+		this.bufferSize = bufferSize;
+		this.pending = new byte[Math.min(INITIAL_BUFFER_SIZE, bufferSize)];
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+	
+	@Override
+	public synchronized void write(byte[] b, int off, int len) throws IOException {
+		if(closed)
+			throw new IOException("Build log is closed");
+		
+		append(b, off, len);
+	}
+	
+	@Override
+	public void flush() {
+		synchronized (this) {
+			schedule();
+		}
+	}
+	
+	/**
+	 * Write all buffered output and close the file. Waits for the
+	 * writer thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if(closed)
+				return;
+			closed = true;
+			schedule();
+			try {
+				while(scheduled)
+					wait();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing build log");
+			}
+		}
+		
+		if(out == null && !failed)
+			out = open();
+		if(out != null)
+			out.close();
+	}
+	
+	/**
+	 * @return the last {@link #TAIL_SIZE} bytes of output
+	 */
+	public synchronized String getTail() {
+		int n = (int) Math.min(tailCount, tail.length);
+		int start = (int) ((tailCount - n) % tail.length);
+		byte [] rv = new byte[n];
+		int first = Math.min(n, tail.length - start);
+		System.arraycopy(tail, start, rv, 0, first);
+		System.arraycopy(tail, 0, rv, first, n - first);
+		
+		return new String(rv);
+	}
+	
+	private void append(byte[] b, int off, int len) {
+		/* Make room by dropping the oldest output */
+		if(len >= bufferSize) {
+			dropped += pendingSize + len - bufferSize;
+			off += len - bufferSize;
+			len = bufferSize;
+			pendingStart = pendingSize = 0;
+		} else if(pendingSize + len > bufferSize) {
+			int n = pendingSize + len - bufferSize;
+			dropped += n;
+			pendingStart = (pendingStart + n) % pending.length;
+			pendingSize -= n;
+		}
+		
+		if(pendingSize + len > pending.length) {
+			byte [] grown = new byte[Math.min(bufferSize,
+					Math.max(pending.length * 2, pendingSize + len))];
+			copyPending(grown);
+			pending = grown;
+			pendingStart = 0;
+		}
+		
+		int end = (pendingStart + pendingSize) % pending.length;
+		int first = Math.min(len, pending.length - end);
+		System.arraycopy(b, off, pending, end, first);
+		System.arraycopy(b, off + first, pending, 0, len - first);
+		pendingSize += len;
+		
+		/* Only the last tail.length bytes matter */
+		int skip = Math.max(0, len - tail.length);
+		tailCount += skip;
+		for(int i = off + skip; i < off + len; i++)
+			tail[(int) (tailCount++ % tail.length)] = b[i];
+		
+		schedule();
+	}
+	
+	private void schedule() {
+		if(scheduled)
+			return;
+		scheduled = true;
+		writer.execute(drain);
+	}
+	
+	private void drain() {
+		while(true) {
+			byte [] notice = null;
+			byte [] buf;
+			synchronized (this) {
+				if(pendingSize == 0 && dropped == 0) {
+					scheduled = false;
+					notifyAll();
+					return;
+				}
+				if(dropped > 0) {
+					notice = ("\n[" + dropped + " bytes of output dropped]\n").getBytes();
+					dropped = 0;
+				}
+				buf = new byte[pendingSize];
+				copyPending(buf);
+				pendingStart = pendingSize = 0;
+			}
+			
+			if(failed)
+				continue;
+			try {
+				if(out == null)
+					out = open();
+				if(notice != null)
+					out.write(notice);
+				out.write(buf);
+			} catch(IOException e) {
+				log.warn("Failed to write build log " + file, e);
+				failed = true;
+			}
+		}
+	}
+	
+	/* Copy pending output in order to the start of an array */
+	private void copyPending(byte [] dst) {
+		int first = Math.min(pendingSize, pending.length - pendingStart);
+		System.arraycopy(pending, pendingStart, dst, 0, first);
+		System.arraycopy(pending, 0, dst, first, pendingSize - first);
+	}
+	
+	private OutputStream open() throws IOException {
+		OutputStream os = new FileOutputStream(file);
+		return compress ? new GZIPOutputStream(os) : os;
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces time limits of a single build.
+ * <p>
+ * The watchdog checks the wall clock and the CPU time of the build once a
+ * second. CPU time is that of the build thread plus all processes forked
+ * for the build, such as the surefire JVM running student code. When a
+ * limit is exceeded or the build is aborted, the build thread is
+ * interrupted and the forked processes are killed. Forked processes are
+ * recognized by their working directory or command line pointing into the
+ * project, which requires <code>/proc</code>; elsewhere only the build
+ * thread is measured and interrupted. Each check inspects only processes
+ * that were not there on the previous one. Fast path tests are limited by
+ * {@link FastPathRunner} in the worker JVM.
+ * </p>
+ */
+class BuildWatchdog implements Runnable {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	private static final ScheduledExecutorService timer =
+		Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ounit-watchdog");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	
+	/* Unit of times in /proc/[pid]/stat, USER_HZ is 100 on all Linux ports */
+	private static final long CLOCK_TICKS = 100;
+	
+	/* Process id of this JVM */
+	private static final String SELF;
+	static {
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		SELF = name.substring(0, Math.max(0, name.indexOf('@')));
+	}
+	
+	private final OunitExecutionRequest request;
+	private final Thread thread;
+	private final long start = System.currentTimeMillis();
+	private final long startCpu;
+	private ScheduledFuture<?> check = null;
+	private volatile String reason = null;
+	/* Most CPU ticks seen per forked process, kept after it exits */
+	private final Map<String, Long> forkedTicks = new HashMap<String, Long>();
+	/* Running processes of the build and those known not to be, guarded by forkedTicks */
+	private final Set<String> processes = new HashSet<String>();
+	private final Set<String> others = new HashSet<String>();
+	
+	BuildWatchdog(OunitExecutionRequest request, Thread thread) {
+		this.request = request;
+		this.thread = thread;
+		this.startCpu = getThreadCpuTime();
+	}
+	
+	synchronized void start() {
+		if(request.getTimeout() > 0 || request.getCpuTimeLimit() > 0)
+			check = timer.scheduleWithFixedDelay(this, 1, 1, TimeUnit.SECONDS);
+	}
+	
+	synchronized void stop() {
+		if(check != null)
+			check.cancel(false);
+		check = null;
+	}
+	
+	/**
+	 * @return true if the build has been aborted
+	 */
+	boolean isTriggered() {
+		return reason != null;
+	}
+	
+	/**
+	 * @return result to report for an aborted build
+	 */
+	OunitResult getResult() {
+		File dir = request.getOutputDirectory() != null
+			? new File(request.getOutputDirectory())
+			: new File(request.getBaseDirectory(), "target");
+		return new OunitResult(dir.getAbsolutePath(), reason + "\n",
+				false, false, true);
+	}
+	
+	public void run() {
+		int timeout = request.getTimeout();
+		if(timeout > 0 && System.currentTimeMillis() - start > timeout * 1000L) {
+			abort("Build did not complete in " + timeout + " seconds");
+			return;
+		}
+		
+		int cpuLimit = request.getCpuTimeLimit();
+		if(cpuLimit > 0 && getCpuTime() > cpuLimit * 1000000000L)
+			abort("Build used more than " + cpuLimit + " seconds of CPU time");
+	}
+	
+	/**
+	 * Abort the build.
+	 * 
+	 * @param reason message reported as the build error
+	 */
+	void abort(String reason) {
+		synchronized (this) {
+			if(this.reason != null)
+				return;
+			this.reason = reason;
+		}
+		stop();
+		
+		log.info("Aborting build of {}: {}", request.getBaseDirectory(), reason);
+		thread.interrupt();
+		killProcesses();
+	}
+	
+	/**
+	 * @return nanoseconds of CPU time used by the build so far
+	 */
+	long getCpuTime() {
+		long rv = Math.max(0, getThreadCpuTime() - startCpu);
+		
+		long ticks = 0;
+		synchronized (forkedTicks) {
+			for(String pid: findProcesses()) {
+				long t = readCpuTicks(pid);
+				Long seen = forkedTicks.get(pid);
+				if(seen == null || t > seen)
+					forkedTicks.put(pid, t);
+			}
+			for(long t: forkedTicks.values())
+				ticks += t;
+		}
+		
+		return rv + ticks * (1000000000L / CLOCK_TICKS);
+	}
+	
+	private long getThreadCpuTime() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if(!mx.isThreadCpuTimeSupported() || !mx.isThreadCpuTimeEnabled())
+			return 0;
+		return Math.max(0, mx.getThreadCpuTime(thread.getId()));
+	}
+	
+	/**
+	 * Read the CPU time a process and its finished children have used.
+	 * 
+	 * @return clock ticks, 0 if the process is gone
+	 */
+	static long readCpuTicks(String pid) {
+		String stat;
+		try {
+			stat = readCommandLine(new File("/proc/" + pid + "/stat"));
+		} catch(IOException e) {
+			return 0;
+		}
+		
+		/* Command name may contain spaces, fields are counted from the state */
+		String [] f = stat.substring(stat.lastIndexOf(')') + 1).trim().split(" +");
+		long rv = 0;
+		/* utime, stime, cutime and cstime are fields 14 to 17 */
+		for(int i = 11; i <= 14 && i < f.length; i++) {
+			try {
+				rv += Long.parseLong(f[i]);
+			} catch(NumberFormatException e) {
+			}
+		}
+		return rv;
+	}
+	
+	private List<String> getMarkers() {
+		List<String> markers = new ArrayList<String>();
+		markers.add(request.getBaseDirectory().getAbsolutePath());
+		if(request.getOutputDirectory() != null)
+			markers.add(new File(request.getOutputDirectory()).getAbsolutePath());
+		return markers;
+	}
+	
+	private void killProcesses() {
+		for(String pid: findProcesses()) {
+			log.debug("Killing process {}", pid);
+			try {
+				new ProcessBuilder("kill", "-9", pid).start().waitFor();
+			} catch(Exception e) {
+				log.warn("Unable to kill process " + pid, e);
+			}
+		}
+	}
+	
+	/**
+	 * Find processes running in or referring to the project directories.
+	 * Only processes started since the previous call are inspected, the
+	 * others are remembered until they exit. Children of this JVM and of
+	 * build processes are inspected again as they may not have executed
+	 * their command yet.
+	 */
+	private List<String> findProcesses() {
+		List<String> rv = new ArrayList<String>();
+		String [] pids = new File("/proc").list();
+		if(pids == null)
+			return rv;
+		
+		List<String> markers = getMarkers();
+		synchronized (forkedTicks) {
+			Set<String> alive = new HashSet<String>(Arrays.asList(pids));
+			processes.retainAll(alive);
+			others.retainAll(alive);
+			
+			for(String pid: pids) {
+				if(processes.contains(pid)) {
+					rv.add(pid);
+				} else if(!others.contains(pid) && pid.matches("[0-9]+")
+						&& !pid.equals(SELF)) {
+					if(belongsTo(new File("/proc", pid), markers)) {
+						processes.add(pid);
+						rv.add(pid);
+					} else {
+						String parent = readParent(pid);
+						if(parent != null && !parent.equals(SELF)
+								&& !processes.contains(parent))
+							others.add(pid);
+					}
+				}
+			}
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Check if a process is running in or refers to any of the directories.
+	 * 
+	 * @param p <code>/proc</code> entry of the process
+	 */
+	static boolean belongsTo(File p, List<String> markers) {
+		String cwd = null;
+		String cmd;
+		try {
+			cwd = new File(p, "cwd").getCanonicalPath();
+		} catch(IOException e) {
+			/* Not our process */
+		}
+		try {
+			cmd = readCommandLine(new File(p, "cmdline"));
+		} catch(IOException e) {
+			return false;
+		}
+		
+		for(String m: markers) {
+			if((cwd != null && (cwd.equals(m) || cwd.startsWith(m + "/")))
+					|| refersTo(cmd, m))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return id of the parent process or null if the process is gone
+	 */
+	private static String readParent(String pid) {
+		try {
+			String stat = readCommandLine(new File("/proc/" + pid + "/stat"));
+			String [] f = stat.substring(stat.lastIndexOf(')') + 1).trim().split(" +");
+			return f.length > 1 ? f[1] : null;
+		} catch(IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Check if a command line mentions a directory or a file in it.
+	 * A directory whose name merely starts with the same characters
+	 * does not count.
+	 */
+	static boolean refersTo(String cmd, String dir) {
+		for(int i = cmd.indexOf(dir); i >= 0; i = cmd.indexOf(dir, i + 1)) {
+			int end = i + dir.length();
+			if(end == cmd.length())
+				return true;
+			char c = cmd.charAt(end);
+			if(c == '/' || c == ' ' || c == File.pathSeparatorChar)
+				return true;
+		}
+		return false;
+	}
+	
+	private static String readCommandLine(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while((c = in.read()) >= 0)
+				sb.append(c == 0 ? ' ' : (char) c);
+			return sb.toString();
+		} finally {
+			in.close();
+		}
+	}
+}
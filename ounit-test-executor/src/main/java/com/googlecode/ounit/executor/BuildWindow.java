@@ -0,0 +1,99 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Durations of builds that finished during the last few minutes.
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+class BuildWindow {
+	private final long length;
+	private final long created;
+	/* Pairs of finish time and duration, oldest first. Guarded by this */
+	private final ArrayDeque<long []> builds = new ArrayDeque<long []>();
+	
+	/**
+	 * @param length window length in milliseconds
+	 */
+	BuildWindow(long length) {
+		this(length, System.currentTimeMillis());
+	}
+	
+	BuildWindow(long length, long now) {
+		this.length = length;
+		this.created = now;
+	}
+	
+	synchronized void add(long now, long duration) {
+		builds.addLast(new long [] { now, duration });
+		expire(now);
+	}
+	
+	synchronized int getCount(long now) {
+		expire(now);
+		return builds.size();
+	}
+	
+	/**
+	 * @return builds finished per minute, averaged over the window or
+	 *         the time since creation if that is shorter
+	 */
+	synchronized double getRate(long now) {
+		expire(now);
+		long span = Math.max(1, Math.min(length, now - created));
+		return builds.size() * 60000.0 / span;
+	}
+	
+	/**
+	 * @param p percentile between 0 and 1
+	 * @return build duration in milliseconds or -1 if nothing
+	 *         finished during the window
+	 */
+	synchronized long getPercentile(long now, double p) {
+		expire(now);
+		if(builds.isEmpty())
+			return -1;
+		
+		long [] d = new long[builds.size()];
+		int i = 0;
+		for(long [] b: builds)
+			d[i++] = b[1];
+		Arrays.sort(d);
+		
+		int rank = (int) Math.ceil(p * d.length) - 1;
+		return d[Math.max(0, Math.min(rank, d.length - 1))];
+	}
+	
+	private void expire(long now) {
+		for(Iterator<long []> it = builds.iterator(); it.hasNext(); ) {
+			if(it.next()[0] > now - length)
+				break;
+			it.remove();
+		}
+	}
+}
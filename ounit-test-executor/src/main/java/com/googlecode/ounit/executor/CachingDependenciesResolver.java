@@ -0,0 +1,190 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Exclusion;
+import org.apache.maven.project.DefaultDependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionException;
+import org.apache.maven.project.DependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionResult;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectDependenciesResolver;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.graph.DependencyNode;
+import org.sonatype.aether.repository.RemoteRepository;
+
+/**
+ * Remembers resolved dependency graphs of projects. Student builds of
+ * a question have identical dependencies so the graph only has to be
+ * collected and resolved once.
+ * <p>
+ * Graphs are keyed by the dependency related parts of the effective
+ * model. A graph is resolved for all scopes at once and shared by all
+ * requests of the project. Maven filters the graph by scope when it
+ * creates project artifacts so a broader graph is harmless.
+ * Graphs containing snapshots or files that have disappeared
+ * from the local repository are resolved again.
+ * </p>
+ */
+class CachingDependenciesResolver implements ProjectDependenciesResolver {
+	static final int DEFAULT_MAX_ENTRIES = 64;
+	
+	/**
+	 * Graph storage that can be shared by resolvers of several engines.
+	 */
+	static class Cache {
+		private final Map<String, DependencyResolutionResult> graphs;
+		/* Projects whose graph can not be resolved for all scopes */
+		private final Set<String> uncacheable = new HashSet<String>();
+		
+		Cache(final int maxEntries) {
+			graphs = new LinkedHashMap<String, DependencyResolutionResult>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, DependencyResolutionResult> e) {
+					return size() > maxEntries;
+				}
+			};
+		}
+		
+		synchronized DependencyResolutionResult get(String key) {
+			return graphs.get(key);
+		}
+		
+		synchronized void put(String key, DependencyResolutionResult r) {
+			graphs.put(key, r);
+		}
+		
+		synchronized boolean isUncacheable(String key) {
+			return uncacheable.contains(key);
+		}
+		
+		synchronized void setUncacheable(String key) {
+			uncacheable.add(key);
+		}
+		
+		synchronized int size() {
+			return graphs.size();
+		}
+		
+		synchronized void clear() {
+			graphs.clear();
+			uncacheable.clear();
+		}
+	}
+	
+	private final ProjectDependenciesResolver delegate;
+	private final Cache cache;
+	
+	CachingDependenciesResolver(ProjectDependenciesResolver delegate, Cache cache) {
+		this.delegate = delegate;
+		this.cache = cache;
+	}
+	
+	public DependencyResolutionResult resolve(DependencyResolutionRequest request)
+			throws DependencyResolutionException {
+		String key = key(request.getMavenProject(), request.getRepositorySession());
+		if(cache.isUncacheable(key))
+			return delegate.resolve(request);
+		
+		DependencyResolutionResult rv = cache.get(key);
+		boolean hit = rv != null && isValid(rv.getDependencyGraph());
+		Metrics.getInstance().cacheAccess("dependency_graph", hit);
+		if(hit)
+			return rv;
+		
+		try {
+			rv = delegate.resolve(new DefaultDependencyResolutionRequest(
+					request.getMavenProject(), request.getRepositorySession()));
+		} catch(DependencyResolutionException e) {
+			/* Some scope can not be resolved, let Maven deal with it */
+			cache.setUncacheable(key);
+			return delegate.resolve(request);
+		}
+		
+		if(!hasSnapshots(rv.getDependencyGraph()))
+			cache.put(key, rv);
+		
+		return rv;
+	}
+	
+	private static boolean isValid(DependencyNode node) {
+		if(node == null)
+			return false;
+		
+		for(DependencyNode n: node.getChildren()) {
+			Artifact a = n.getDependency().getArtifact();
+			File f = a.getFile();
+			if(f == null || !f.exists() || !isValid(n))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean hasSnapshots(DependencyNode node) {
+		if(node == null)
+			return true;
+		
+		for(DependencyNode n: node.getChildren())
+			if(n.getDependency().getArtifact().isSnapshot() || hasSnapshots(n))
+				return true;
+		return false;
+	}
+	
+	static String key(MavenProject p, RepositorySystemSession session) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(p.getId()).append('\n');
+		append(sb, p.getDependencies());
+		if(p.getDependencyManagement() != null)
+			append(sb, p.getDependencyManagement().getDependencies());
+		if(p.getRemoteProjectRepositories() != null)
+			for(RemoteRepository r: p.getRemoteProjectRepositories())
+				sb.append(r.getId()).append('=').append(r.getUrl()).append('\n');
+		sb.append(session.getLocalRepository().getBasedir().getAbsolutePath());
+		sb.append('\n').append(session.isOffline());
+		
+		return sb.toString();
+	}
+	
+	private static void append(StringBuilder sb, List<Dependency> deps) {
+		for(Dependency d: deps) {
+			sb.append(d.getManagementKey()).append(':').append(d.getVersion())
+				.append(':').append(d.getScope()).append(':').append(d.isOptional())
+				.append(':').append(d.getSystemPath());
+			for(Exclusion e: d.getExclusions())
+				sb.append(" -").append(e.getGroupId()).append(':').append(e.getArtifactId());
+			sb.append('\n');
+		}
+		sb.append('\n');
+	}
+}
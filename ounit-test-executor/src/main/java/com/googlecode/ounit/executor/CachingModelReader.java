@@ -0,0 +1,156 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.DefaultModelReader;
+import org.apache.maven.model.io.ModelParseException;
+import org.apache.maven.model.io.ModelReader;
+
+/**
+ * Keeps parsed POM files in memory. Student builds of a question read
+ * the same POM and the same parents over and over again.
+ * <p>
+ * Models are cached by the content of the POM, so copies of a POM in
+ * different session directories share one entry. Callers get a copy
+ * because model building modifies the models it reads. Input locations
+ * of a shared model refer to the file it was first parsed from, Maven
+ * uses them for diagnostics only.
+ * </p>
+ */
+class CachingModelReader implements ModelReader {
+	static final int DEFAULT_MAX_ENTRIES = 256;
+	
+	private final ModelReader delegate;
+	private final Map<String, Model> cache;
+	
+	CachingModelReader() {
+		this(new DefaultModelReader(), DEFAULT_MAX_ENTRIES);
+	}
+	
+	CachingModelReader(ModelReader delegate, final int maxEntries) {
+		this.delegate = delegate;
+		this.cache = new LinkedHashMap<String, Model>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Model> e) {
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	public Model read(File input, Map<String, ?> options) throws IOException,
+			ModelParseException {
+		Model m = read(new FileInputStream(input), options);
+		m.setPomFile(input);
+		return m;
+	}
+
+	public Model read(Reader input, Map<String, ?> options) throws IOException,
+			ModelParseException {
+		StringBuilder sb = new StringBuilder();
+		try {
+			char [] buf = new char[8192];
+			int n;
+			while((n = input.read(buf)) > 0)
+				sb.append(buf, 0, n);
+		} finally {
+			input.close();
+		}
+		
+		String content = sb.toString();
+		String key = key(content.getBytes("UTF-8"), options);
+		Model m = get(key);
+		if(m == null) {
+			m = delegate.read(new StringReader(content), options);
+			put(key, m);
+		}
+		return m.clone();
+	}
+
+	public Model read(InputStream input, Map<String, ?> options)
+			throws IOException, ModelParseException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			byte [] buf = new byte[8192];
+			int n;
+			while((n = input.read(buf)) > 0)
+				out.write(buf, 0, n);
+		} finally {
+			input.close();
+		}
+		
+		byte [] content = out.toByteArray();
+		String key = key(content, options);
+		Model m = get(key);
+		if(m == null) {
+			m = delegate.read(new ByteArrayInputStream(content), options);
+			put(key, m);
+		}
+		return m.clone();
+	}
+	
+	private Model get(String key) {
+		Model m;
+		synchronized (this) {
+			m = cache.get(key);
+		}
+		Metrics.getInstance().cacheAccess("pom", m != null);
+		return m;
+	}
+	
+	private synchronized void put(String key, Model m) {
+		cache.put(key, m.clone());
+	}
+	
+	private static String key(byte [] content, Map<String, ?> options) {
+		boolean strict = options == null || options.get(IS_STRICT) == null
+				|| Boolean.parseBoolean(options.get(IS_STRICT).toString());
+		boolean locations = options != null && options.get(INPUT_SOURCE) != null;
+		
+		byte [] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1").digest(content);
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		StringBuilder sb = new StringBuilder();
+		for(byte b: digest)
+			sb.append(String.format("%02x", b & 0xff));
+		
+		return sb + "\n" + strict + "\n" + locations;
+	}
+}
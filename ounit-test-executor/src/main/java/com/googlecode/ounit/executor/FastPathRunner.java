@@ -0,0 +1,899 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.net.URL;
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+import java.security.URIParameter;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.TimeoutException;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.cli.PrintStreamLogger;
+import org.apache.maven.cli.PrintStreamLogger2.Provider;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import com.googlecode.ounit.maven.FailureDetail;
+import com.googlecode.ounit.maven.ResultsGenerator;
+import com.googlecode.ounit.maven.SetupStudentMojo;
+import com.googlecode.ounit.maven.TestResults;
+import com.googlecode.ounit.maven.TestSuite;
+
+/**
+ * Builds plain Java questions without going through the Maven lifecycle.
+ * <p>
+ * Student sources are compiled in memory with the <code>javax.tools</code>
+ * compiler and the teacher tests are run by JUnit in an isolated class loader
+ * on a separate thread. Student code runs in a protection domain that only
+ * has the permissions granted by <code>tests.policy</code>. The reports are
+ * generated by the same code that backs the <code>generate-results</code>
+ * goal of the OUnit Maven plugin.
+ * </p>
+ * <p>
+ * Enforcing the protection domain requires a JVM wide security manager
+ * and a test that does not finish can only be stopped by ending the JVM.
+ * Therefore projects are only built by a runner that owns it's JVM, see
+ * {@link #setForked(boolean)} and {@link ForkedTestWorker}.
+ * </p>
+ * <p>
+ * Projects using anything beyond the basic layout (parent POMs, profiles,
+ * custom plugins, student tests, dependencies that are not in the local
+ * repository, compilers or compiler options that can not be reproduced)
+ * are rejected so the caller can fall back to Maven.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class FastPathRunner {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+	public static final int DEFAULT_TEST_TIMEOUT = 300;
+	/* How often the CPU time of the test thread is checked */
+	static final long CPU_CHECK_INTERVAL = 200;
+
+	static final String TEACHER_CLASSES   = "bin/teacher-test-classes";
+	static final String STUDENT_SOURCES   = "src/main/java";
+	static final String STUDENT_RESOURCES = "src/main/resources";
+	static final String STUDENT_TESTS     = "src/test/java";
+	static final String STUDENT_CLASSES   = "classes";
+	static final String REPORTS           = "ounit-reports";
+	static final String POLICY_FILE       = "tests.policy";
+
+	/* Plugins whose default behavior is replicated by this class */
+	private static final List<String> SUPPORTED_PLUGINS = Arrays.asList(
+			new String [] { "maven-ounit-plugin", "maven-compiler-plugin",
+					"maven-resources-plugin", "maven-surefire-plugin",
+					"maven-failsafe-plugin", "maven-jar-plugin",
+					"maven-install-plugin", "maven-deploy-plugin" });
+
+	/* Defaults of maven-compiler-plugin */
+	static final String DEFAULT_SOURCE    = "1.5";
+	static final String DEFAULT_TARGET    = "1.5";
+
+	/* Same as failsafe includes in teacher-tests lifecycle */
+	private static final String TEST_CLASS_PATTERN =
+		"^(Test.*|.*Test|.*TestCase|IT.*|.*IT|.*ITCase)$";
+
+	private static boolean sandboxInstalled = false;
+
+	private final Provider logProvider;
+	private File localRepository;
+	private int testTimeout = DEFAULT_TEST_TIMEOUT;
+	private int cpuTimeLimit = 0;
+	private boolean forked = false;
+
+	public FastPathRunner(Provider logProvider) {
+		this.logProvider = logProvider;
+		this.localRepository = new File(System.getProperty("maven.repo.local",
+				System.getProperty("user.home") + "/.m2/repository"));
+	}
+
+	public File getLocalRepository() {
+		return localRepository;
+	}
+
+	public void setLocalRepository(File localRepository) {
+		this.localRepository = localRepository;
+	}
+
+	public int getTestTimeout() {
+		return testTimeout;
+	}
+
+	/**
+	 * @param testTimeout maximum time in seconds the tests may run
+	 */
+	public void setTestTimeout(int testTimeout) {
+		this.testTimeout = testTimeout;
+	}
+
+	public int getCpuTimeLimit() {
+		return cpuTimeLimit;
+	}
+
+	/**
+	 * @param cpuTimeLimit maximum CPU time in seconds the test thread may
+	 *        use, 0 for no limit
+	 */
+	public void setCpuTimeLimit(int cpuTimeLimit) {
+		this.cpuTimeLimit = cpuTimeLimit;
+	}
+
+	public boolean isForked() {
+		return forked;
+	}
+
+	/**
+	 * Allow the runner to take over the JVM. Student code is only run
+	 * by a forked runner because the sandbox is installed for the whole
+	 * JVM and the JVM must exit after every build. All projects are
+	 * rejected otherwise.
+	 * 
+	 * @param forked true if the runner is alone in a worker JVM
+	 */
+	public void setForked(boolean forked) {
+		this.forked = forked;
+	}
+
+	/**
+	 * Build a project.
+	 * 
+	 * @param baseDirectory project directory
+	 * @param outputDirectory build directory, null for default
+	 * @return results of the build or null if the project is not supported
+	 */
+	public OunitResult execute(File baseDirectory, String outputDirectory) {
+		return execute(baseDirectory, outputDirectory,
+				OunitExecutionRequest.LOG_INFO);
+	}
+
+	/**
+	 * Build a project.
+	 * 
+	 * @param baseDirectory project directory
+	 * @param outputDirectory build directory, null for default
+	 * @param logLevel minimum level of logged messages
+	 * @return results of the build or null if the project is not supported
+	 */
+	public OunitResult execute(File baseDirectory, String outputDirectory,
+			int logLevel) {
+		if(!forked) {
+			log.debug("Fast path builds only run in a worker JVM");
+			return null;
+		}
+		
+		baseDirectory = baseDirectory.getAbsoluteFile();
+		File buildDir = (outputDirectory == null)
+				? new File(baseDirectory, "target")
+				: new File(outputDirectory).getAbsoluteFile();
+
+		Project p;
+		try {
+			p = inspect(baseDirectory);
+		} catch(Exception e) {
+			log.debug("Unable to inspect " + baseDirectory, e);
+			return null;
+		}
+		if(p == null)
+			return null;
+		
+		PrintStreamLogger logger = new PrintStreamLogger(logProvider);
+		logger.setThreshold(logLevel);
+		Log mlog = new DefaultLog(logger);
+		String buildDirName = buildDir.getAbsolutePath();
+		
+		try {
+			File reportDir = new File(buildDir, REPORTS);
+			SetupStudentMojo.deleteDirectory(reportDir);
+			
+			/* Compile */
+			List<File> sources = listFiles(new File(baseDirectory,
+					STUDENT_SOURCES), ".java");
+			mlog.info("Compiling " + sources.size() + " source files in memory");
+			Map<String, byte[]> classes = new HashMap<String, byte[]>();
+			String errors;
+			try {
+				errors = compile(p, sources, classes);
+			} catch(IllegalArgumentException e) {
+				/* Source or target not supported by this compiler */
+				unsupported(baseDirectory, e.getMessage());
+				return null;
+			}
+			if(errors != null) {
+				mlog.error(errors);
+				return new OunitResult(buildDirName, errors, true);
+			}
+
+			/* Test */
+			mlog.info("Running teacher tests in-process");
+			TestResults results;
+			try {
+				results = runTests(p, buildDir, classes);
+			} catch(TimeoutException e) {
+				mlog.error(e.getMessage());
+				return new OunitResult(buildDirName, e.getMessage() + "\n",
+						false, false, true);
+			} catch(Exception e) {
+				/* Student code broke the test run, like a crashed surefire fork */
+				mlog.error(e);
+				return new OunitResult(buildDirName, e.getClass()
+						.getCanonicalName() + ": " + e.getMessage() + "\n",
+						false, true);
+			}
+
+			/* Report */
+			TestSuite suite = new TestSuite(ResultsGenerator.LABEL_TEACHER,
+					new ArrayList<File>());
+			suite.setResults(results);
+			List<TestSuite> suites = new ArrayList<TestSuite>(1);
+			suites.add(suite);
+			ResultsGenerator gen = new ResultsGenerator(mlog, buildDir, false,
+					suites);
+			
+			reportDir.mkdirs();
+			PrintStream fstream = new PrintStream(new File(reportDir,
+					"results.html"));
+			fstream.println(gen.generateHtmlReport());
+			fstream.close();
+			for (String l : gen.generateTextReport().split("\n"))
+				mlog.info(l);
+
+			Properties marks = gen.generateMarks();
+			OutputStream mstream = new FileOutputStream(new File(reportDir,
+					"marks.properties"));
+			marks.store(mstream, "");
+			mstream.close();
+			mlog.info("Total Score: " + marks.getProperty("default") + " %");
+			
+			return new OunitResult(buildDirName, null, false);
+		} catch(Exception e) {
+			mlog.error(e);
+			return new OunitResult(buildDirName, e.getClass()
+					.getCanonicalName() + ": " + e.getMessage() + "\n", false);
+		}
+	}
+
+	/**
+	 * Load and exercise the compiler so the first build does not
+	 * pay for it.
+	 */
+	void warmUp() throws IOException {
+		JavaCompiler compiler = getCompiler(null);
+		if(compiler == null)
+			return;
+		
+		StandardJavaFileManager sfm = compiler.getStandardFileManager(
+				null, Locale.getDefault(), null);
+		MemoryFileManager fm = new MemoryFileManager(sfm);
+		JavaFileObject src = new SimpleJavaFileObject(
+				URI.create("mem:///Warm.java"), Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return "class Warm { }";
+			}
+		};
+		compiler.getTask(null, fm, null, Arrays.asList("-proc:none"), null,
+				Arrays.asList(src)).call();
+		fm.close();
+	}
+
+	/**
+	 * Check if a project can be built without Maven and resolve
+	 * it's class path.
+	 * 
+	 * @param baseDirectory project directory
+	 * @return project description or null if project is not supported
+	 * @throws Exception
+	 */
+	private Project inspect(File baseDirectory) throws Exception {
+		File pom = new File(baseDirectory, "pom.xml");
+		if(!pom.isFile())
+			return unsupported(baseDirectory, "no pom.xml");
+		
+		Model model = new MavenXpp3Reader().read(ReaderFactory
+				.newXmlReader(pom));
+		
+		if(model.getParent() != null)
+			return unsupported(baseDirectory, "parent POM");
+		if(model.getPackaging() != null && !model.getPackaging().equals("jar"))
+			return unsupported(baseDirectory, "packaging " + model.getPackaging());
+		if(!model.getProfiles().isEmpty())
+			return unsupported(baseDirectory, "profiles");
+		if(model.getBuild() != null) {
+			if(model.getBuild().getSourceDirectory() != null
+					|| !model.getBuild().getResources().isEmpty())
+				return unsupported(baseDirectory, "custom source directories");
+			for(Plugin plugin: model.getBuild().getPlugins())
+				if(!SUPPORTED_PLUGINS.contains(plugin.getArtifactId()))
+					return unsupported(baseDirectory, plugin.getArtifactId());
+			if(getCompilerSetting(model, "compilerArgument") != null
+					|| getCompilerSetting(model, "compilerArguments") != null)
+				return unsupported(baseDirectory, "compiler arguments");
+		}
+		if(new File(baseDirectory, STUDENT_TESTS).exists())
+			return unsupported(baseDirectory, "student tests");
+		
+		Project p = new Project();
+		p.baseDirectory = baseDirectory;
+		p.teacherClasses = new File(baseDirectory, TEACHER_CLASSES);
+		if(!p.teacherClasses.isDirectory())
+			return unsupported(baseDirectory, "no compiled teacher tests");
+		
+		p.encoding = model.getProperties().getProperty(
+				"project.build.sourceEncoding", "UTF-8");
+		
+		/* Compile the same way maven-compiler-plugin would */
+		String compilerId = getCompilerSetting(model, "compilerId");
+		p.compiler = getCompiler(compilerId);
+		if(p.compiler == null)
+			return unsupported(baseDirectory, "compiler " + compilerId);
+		p.source = getCompilerSetting(model, "source");
+		if(p.source == null)
+			p.source = model.getProperties().getProperty(
+					"maven.compiler.source", DEFAULT_SOURCE);
+		p.target = getCompilerSetting(model, "target");
+		if(p.target == null)
+			p.target = model.getProperties().getProperty(
+					"maven.compiler.target", DEFAULT_TARGET);
+		if(p.source.contains("$") || p.target.contains("$"))
+			return unsupported(baseDirectory, "unresolved source or target");
+		
+		Set<String> seen = new HashSet<String>();
+		for(Dependency d: model.getDependencies()) {
+			String scope = d.getScope();
+			boolean test = "test".equals(scope) || "runtime".equals(scope);
+			if(!resolve(d, test ? p.testClasspath : p.compileClasspath, seen))
+				return unsupported(baseDirectory, "dependency " + d.getManagementKey());
+		}
+		if(!seen.contains("junit:junit"))
+			return unsupported(baseDirectory, "no JUnit");
+		
+		return p;
+	}
+	
+	/**
+	 * Find a configuration parameter of maven-compiler-plugin. Plugin
+	 * configuration takes precedence over plugin management.
+	 * Simple property references are resolved from the POM.
+	 * 
+	 * @return parameter value or null if it is not set
+	 */
+	private static String getCompilerSetting(Model model, String name) {
+		if(model.getBuild() == null)
+			return null;
+		
+		List<Plugin> plugins = new ArrayList<Plugin>(model.getBuild().getPlugins());
+		if(model.getBuild().getPluginManagement() != null)
+			plugins.addAll(model.getBuild().getPluginManagement().getPlugins());
+		
+		for(Plugin plugin: plugins) {
+			if(!plugin.getArtifactId().equals("maven-compiler-plugin"))
+				continue;
+			Xpp3Dom conf = (Xpp3Dom) plugin.getConfiguration();
+			Xpp3Dom child = (conf == null) ? null : conf.getChild(name);
+			if(child == null)
+				continue;
+			
+			String v = child.getValue();
+			if(v == null)
+				return child.getChildCount() > 0 ? "" : null;
+			v = v.trim();
+			if(v.startsWith("${") && v.endsWith("}"))
+				v = model.getProperties().getProperty(
+						v.substring(2, v.length() - 1), v);
+			return v;
+		}
+		
+		return null;
+	}
+	
+	private Project unsupported(File baseDirectory, String reason) {
+		log.debug("Project {} is not supported by fast path: {}",
+				baseDirectory, reason);
+		return null;
+	}
+
+	/**
+	 * Find artifact of a dependency and all it's compile and runtime
+	 * dependencies from the local repository.
+	 * 
+	 * @return false if the dependency can not be resolved
+	 */
+	private boolean resolve(Dependency d, List<File> classpath,
+			Set<String> seen) throws Exception {
+		String v = d.getVersion();
+		if(v == null || v.contains("$") || v.contains("[") || v.contains("("))
+			return false;
+		if(d.getType() != null && !d.getType().equals("jar"))
+			return false;
+		if(!seen.add(d.getGroupId() + ":" + d.getArtifactId()))
+			return true;
+
+		if("system".equals(d.getScope())) {
+			if(d.getSystemPath() == null)
+				return false;
+			File f = new File(d.getSystemPath());
+			classpath.add(f);
+			return f.isFile();
+		}
+		
+		File dir = new File(localRepository, d.getGroupId().replace('.', '/')
+				+ "/" + d.getArtifactId() + "/" + v);
+		String name = d.getArtifactId() + "-" + v;
+		String classifier = d.getClassifier() == null ? ""
+				: "-" + d.getClassifier();
+		File jar = new File(dir, name + classifier + ".jar");
+		File pom = new File(dir, name + ".pom");
+		if(!jar.isFile() || !pom.isFile())
+			return false;
+		classpath.add(jar);
+		
+		Model model = new MavenXpp3Reader().read(ReaderFactory
+				.newXmlReader(pom));
+		for(Dependency t: model.getDependencies()) {
+			String scope = t.getScope();
+			if(t.isOptional() || (scope != null && !scope.equals("compile")
+					&& !scope.equals("runtime")))
+				continue;
+			if(!resolve(t, classpath, seen))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Find a compiler matching a plexus compiler id.
+	 * 
+	 * @param compilerId <code>javac</code>, <code>eclipse</code> or null
+	 *        for the default
+	 * @return the compiler or null if it is not available
+	 */
+	private static JavaCompiler getCompiler(String compilerId) {
+		if(compilerId == null || compilerId.equals("javac")) {
+			JavaCompiler c = ToolProvider.getSystemJavaCompiler();
+			if(c != null || compilerId != null)
+				return c;
+		} else if(!compilerId.equals("eclipse")) {
+			return null;
+		}
+		
+		for(JavaCompiler i: ServiceLoader.load(JavaCompiler.class)) {
+			boolean ecj = i.getClass().getName().startsWith("org.eclipse.");
+			if(compilerId == null || ecj)
+				return i;
+		}
+		return null;
+	}
+	
+	/**
+	 * Compile sources into memory.
+	 * 
+	 * @param classes a map to store the compiled classes
+	 * @return compiler error messages or null if compilation succeeded
+	 */
+	private String compile(Project p, List<File> sources,
+			Map<String, byte[]> classes) throws IOException {
+		
+		JavaCompiler compiler = p.compiler;
+		DiagnosticCollector<JavaFileObject> diagnostics =
+			new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager sfm = compiler.getStandardFileManager(
+				diagnostics, Locale.getDefault(), null);
+		MemoryFileManager fm = new MemoryFileManager(sfm);
+		
+		List<String> options = new ArrayList<String>();
+		options.add("-encoding");
+		options.add(p.encoding);
+		options.add("-source");
+		options.add(p.source);
+		options.add("-target");
+		options.add(p.target);
+		options.add("-classpath");
+		options.add(toPath(p.compileClasspath));
+		options.add("-proc:none");
+		options.add("-g");
+		options.add("-nowarn");
+		
+		boolean ok = sources.isEmpty() || compiler.getTask(null, fm,
+				diagnostics, options, null,
+				sfm.getJavaFileObjectsFromFiles(sources)).call();
+		fm.close();
+		
+		if(ok) {
+			for(Map.Entry<String, ByteArrayOutputStream> e: fm.classes.entrySet())
+				classes.put(e.getKey(), e.getValue().toByteArray());
+			return null;
+		}
+
+		StringBuilder sb = new StringBuilder("Compilation failure\n");
+		for(Diagnostic<? extends JavaFileObject> d: diagnostics.getDiagnostics()) {
+			if(d.getKind() != Diagnostic.Kind.ERROR)
+				continue;
+			if(d.getSource() != null)
+				sb.append(d.getSource().toUri().getPath()).append(":[")
+					.append(d.getLineNumber()).append(",")
+					.append(d.getColumnNumber()).append("] ");
+			sb.append(d.getMessage(Locale.getDefault())).append("\n");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Run teacher tests on a separate thread.
+	 * 
+	 * @return test results
+	 * @throws TimeoutException if the tests exceeded a time limit
+	 */
+	private TestResults runTests(Project p, File buildDir,
+			Map<String, byte[]> classes) throws Exception {
+		
+		ensureSandbox();
+		
+		List<URL> urls = new ArrayList<URL>();
+		urls.add(p.teacherClasses.toURI().toURL());
+		File resources = new File(p.baseDirectory, STUDENT_RESOURCES);
+		if(resources.isDirectory())
+			urls.add(resources.toURI().toURL());
+		for(File f: p.compileClasspath)
+			urls.add(f.toURI().toURL());
+		for(File f: p.testClasspath)
+			urls.add(f.toURI().toURL());
+		
+		CodeSource cs = new CodeSource(new File(buildDir, STUDENT_CLASSES)
+				.toURI().toURL(), (Certificate []) null);
+		ProtectionDomain domain = new ProtectionDomain(cs,
+				getStudentPermissions(p, cs));
+		
+		final TestClassLoader loader = new TestClassLoader(
+				urls.toArray(new URL[urls.size()]), classes, domain);
+		final List<String> testClasses = findTestClasses(p.teacherClasses);
+		final TestResults [] results = new TestResults[1];
+		final Exception [] error = new Exception[1];
+
+		Thread t = new Thread("ounit-fastpath-tests") {
+			@Override
+			public void run() {
+				try {
+					results[0] = runJUnit(loader, testClasses);
+				} catch(Exception e) {
+					error[0] = e;
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.setContextClassLoader(loader);
+		t.start();
+		
+		String reason = waitForTests(t);
+		if(reason != null) {
+			/* The worker JVM exits after the build, taking the thread with it */
+			t.interrupt();
+			throw new TimeoutException(reason);
+		}
+		if(error[0] != null)
+			throw error[0];
+
+		return results[0];
+	}
+
+	/**
+	 * Wait for the test thread, watching the wall clock and the CPU time
+	 * the thread has used.
+	 * 
+	 * @return the limit that was exceeded or null if the tests completed
+	 */
+	private String waitForTests(Thread t) throws InterruptedException {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		boolean checkCpu = cpuTimeLimit > 0 && mx.isThreadCpuTimeSupported()
+				&& mx.isThreadCpuTimeEnabled();
+		long deadline = System.currentTimeMillis() + testTimeout * 1000L;
+		
+		while(t.isAlive()) {
+			long left = deadline - System.currentTimeMillis();
+			if(left <= 0)
+				return "Teacher tests did not complete in "
+						+ testTimeout + " seconds";
+			t.join(checkCpu ? Math.min(left, CPU_CHECK_INTERVAL) : left);
+			if(checkCpu && mx.getThreadCpuTime(t.getId()) > cpuTimeLimit * 1000000000L)
+				return "Teacher tests used more than " + cpuTimeLimit
+						+ " seconds of CPU time";
+		}
+		
+		return null;
+	}
+
+	/**
+	 * Run tests using JUnit that was loaded by the test class loader.
+	 */
+	private static TestResults runJUnit(ClassLoader loader,
+			List<String> testClasses) throws Exception {
+		
+		List<Class<?>> tests = new ArrayList<Class<?>>();
+		for(String name: testClasses) {
+			Class<?> c = Class.forName(name, false, loader);
+			if(isTestClass(c, loader))
+				tests.add(c);
+		}
+		
+		Class<?> core = loader.loadClass("org.junit.runner.JUnitCore");
+		Object result = core.getMethod("runClasses", Class[].class).invoke(
+				null, (Object) tests.toArray(new Class<?>[tests.size()]));
+		Class<?> rc = result.getClass();
+		
+		int run = (Integer) rc.getMethod("getRunCount").invoke(result);
+		int ignored = (Integer) rc.getMethod("getIgnoreCount").invoke(result);
+		long time = (Long) rc.getMethod("getRunTime").invoke(result);
+		List<?> failureList = (List<?>) rc.getMethod("getFailures").invoke(result);
+		
+		TestResults rv = new TestResults();
+		int failures = 0, errors = 0, classErrors = 0;
+		for(Object f: failureList) {
+			Class<?> fc = f.getClass();
+			Throwable e = (Throwable) fc.getMethod("getException").invoke(f);
+			Object desc = fc.getMethod("getDescription").invoke(f);
+			String display = (String) desc.getClass()
+					.getMethod("getDisplayName").invoke(desc);
+			
+			/* Display name is method(class) or just class for failures
+			 * that happened before any test was run */
+			String name = display, className = display;
+			int i = display.indexOf('(');
+			if(i > 0 && display.endsWith(")")) {
+				name = display.substring(0, i);
+				className = display.substring(i + 1, display.length() - 1);
+			} else {
+				classErrors++;
+			}
+			
+			if(e instanceof AssertionError)
+				failures++;
+			else
+				errors++;
+			
+			rv.addFailure(new FailureDetail(name, className,
+					e.getClass().getName(), e.getMessage()));
+		}
+		
+		rv.setTotalTests(run + ignored + classErrors);
+		rv.setTotalFailures(failures);
+		rv.setTotalErrors(errors);
+		rv.setTotalSkipped(ignored);
+		rv.setTotalElapsedTime(time / 1000.0);
+		
+		return rv;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static boolean isTestClass(Class<?> c, ClassLoader loader) {
+		int m = c.getModifiers();
+		if(!Modifier.isPublic(m) || Modifier.isAbstract(m) || c.isInterface())
+			return false;
+		
+		try {
+			if(loader.loadClass("junit.framework.Test").isAssignableFrom(c))
+				return true;
+			
+			if(c.isAnnotationPresent((Class<? extends Annotation>) loader
+					.loadClass("org.junit.runner.RunWith")))
+				return true;
+			
+			Class<? extends Annotation> test = (Class<? extends Annotation>)
+					loader.loadClass("org.junit.Test");
+			for(Method method: c.getMethods())
+				if(method.isAnnotationPresent(test))
+					return true;
+		} catch(ClassNotFoundException e) {
+			// Fall through
+		}
+		
+		return false;
+	}
+	
+	private List<String> findTestClasses(File dir) {
+		List<String> rv = new ArrayList<String>();
+		String base = dir.getAbsolutePath() + File.separator;
+		
+		for(File f: listFiles(dir, ".class")) {
+			String name = f.getAbsolutePath().substring(base.length());
+			name = name.substring(0, name.length() - 6)
+				.replace(File.separatorChar, '.');
+			String simpleName = name.substring(name.lastIndexOf('.') + 1);
+			if(!simpleName.contains("$")
+					&& simpleName.matches(TEST_CLASS_PATTERN))
+				rv.add(name);
+		}
+		
+		return rv;
+	}
+	
+	/**
+	 * Determine what student code may do. Permissions are read from
+	 * <code>tests.policy</code> in the project directory the same way
+	 * the forked test JVM would do.
+	 */
+	private PermissionCollection getStudentPermissions(Project p,
+			CodeSource cs) {
+		File policyFile = new File(p.baseDirectory, POLICY_FILE);
+		if(policyFile.isFile()) {
+			try {
+				Policy policy = Policy.getInstance("JavaPolicy",
+						new URIParameter(policyFile.toURI()));
+				PermissionCollection rv = policy.getPermissions(cs);
+				if(rv != Policy.UNSUPPORTED_EMPTY_COLLECTION)
+					return rv;
+			} catch(Exception e) {
+				log.warn("Unable to load " + policyFile, e);
+			}
+		}
+		
+		return new Permissions();
+	}
+	
+	/**
+	 * Student code is confined by the static permissions of it's
+	 * protection domain. That is only enforced if a security manager
+	 * is present, so install one along with a policy that does not
+	 * restrict any other code. Only ever called in a worker JVM.
+	 */
+	private static synchronized void ensureSandbox() {
+		if(sandboxInstalled || System.getSecurityManager() != null)
+			return;
+		
+		Policy.setPolicy(new Policy() {
+			@Override
+			public PermissionCollection getPermissions(CodeSource codesource) {
+				Permissions p = new Permissions();
+				p.add(new AllPermission());
+				return p;
+			}
+			
+			@Override
+			public PermissionCollection getPermissions(ProtectionDomain domain) {
+				return getPermissions(domain.getCodeSource());
+			}
+			
+			@Override
+			public boolean implies(ProtectionDomain domain,
+					java.security.Permission permission) {
+				return true;
+			}
+		});
+		System.setSecurityManager(new SecurityManager());
+		sandboxInstalled = true;
+	}
+	
+	private static List<File> listFiles(File dir, final String suffix) {
+		List<File> rv = new ArrayList<File>();
+		File [] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return f.isDirectory() || f.getName().endsWith(suffix);
+			}
+		});
+		if(files == null)
+			return rv;
+		
+		for(File f: files) {
+			if(f.isDirectory())
+				rv.addAll(listFiles(f, suffix));
+			else
+				rv.add(f);
+		}
+		
+		return rv;
+	}
+	
+	private static String toPath(List<File> files) {
+		StringBuilder sb = new StringBuilder();
+		for(File f: files) {
+			if(sb.length() > 0)
+				sb.append(File.pathSeparator);
+			sb.append(f.getAbsolutePath());
+		}
+		return sb.toString();
+	}
+	
+	private static class Project {
+		File baseDirectory;
+		File teacherClasses;
+		String encoding;
+		String source;
+		String target;
+		JavaCompiler compiler;
+		List<File> compileClasspath = new ArrayList<File>();
+		List<File> testClasspath = new ArrayList<File>();
+	}
+	
+	/**
+	 * Keeps compiler output in memory.
+	 */
+	private static class MemoryFileManager
+			extends ForwardingJavaFileManager<JavaFileManager> {
+		final Map<String, ByteArrayOutputStream> classes =
+			new HashMap<String, ByteArrayOutputStream>();
+		
+		MemoryFileManager(JavaFileManager fileManager) {
+			super(fileManager);
+		}
+		
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location,
+				final String className, Kind kind, FileObject sibling) {
+			return new SimpleJavaFileObject(URI.create("mem:///"
+					+ className.replace('.', '/') + kind.extension), kind) {
+				@Override
+				public OutputStream openOutputStream() {
+					ByteArrayOutputStream os = new ByteArrayOutputStream();
+					classes.put(className, os);
+					return os;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Properties;
+
+import org.apache.maven.cli.PrintStreamLogger2.Provider;
+
+/**
+ * Entry point of a worker JVM started by {@link WarmJvmPool}.
+ * <p>
+ * The worker warms up the compiler and then blocks reading a job from
+ * standard input. The job is executed by {@link FastPathRunner} in the
+ * same sandbox as in-process builds, the result is written to standard
+ * output after {@link #RESULT_MARKER} and the JVM exits.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class ForkedTestWorker {
+	public static final String RESULT_MARKER = "#ounit-result";
+	
+	static final String BASE_DIRECTORY   = "baseDirectory";
+	static final String OUTPUT_DIRECTORY = "outputDirectory";
+	static final String LOG_FILE         = "logFile";
+	static final String TEST_TIMEOUT     = "testTimeout";
+	static final String CPU_TIME_LIMIT   = "cpuTimeLimit";
+	
+	static final String STATUS           = "status";
+	static final String STATUS_DONE      = "done";
+	static final String STATUS_UNSUPPORTED = "unsupported";
+	static final String ERRORS           = "errors";
+	static final String COMPILE_ERRORS   = "compileErrors";
+	static final String TEST_ERRORS      = "testErrors";
+	static final String TIMED_OUT        = "timedOut";
+	
+	public static void main(String[] args) throws Exception {
+		final PrintStream out = System.out;
+		final PrintStream[] log = new PrintStream[] { System.err };
+		
+		FastPathRunner runner = new FastPathRunner(new Provider() {
+			public PrintStream getStream() {
+				return log[0];
+			}
+		});
+		runner.setForked(true);
+		runner.warmUp();
+		
+		Properties job = new Properties();
+		job.load(System.in);
+		
+		String logFile = job.getProperty(LOG_FILE);
+		if(logFile != null)
+			log[0] = new PrintStream(new FileOutputStream(logFile, true));
+		
+		/* Student code must not be able to forge the result */
+		System.setOut(log[0]);
+		System.setErr(log[0]);
+		
+		runner.setTestTimeout(Integer.parseInt(job.getProperty(TEST_TIMEOUT,
+				String.valueOf(FastPathRunner.DEFAULT_TEST_TIMEOUT))));
+		runner.setCpuTimeLimit(Integer.parseInt(job.getProperty(CPU_TIME_LIMIT, "0")));
+		OunitResult r = runner.execute(
+				new File(job.getProperty(BASE_DIRECTORY)),
+				job.getProperty(OUTPUT_DIRECTORY));
+		log[0].flush();
+		
+		Properties rv = new Properties();
+		if(r == null) {
+			rv.setProperty(STATUS, STATUS_UNSUPPORTED);
+		} else {
+			rv.setProperty(STATUS, STATUS_DONE);
+			rv.setProperty(OUTPUT_DIRECTORY, r.getOutputDirectory());
+			rv.setProperty(COMPILE_ERRORS, String.valueOf(r.hasCompileErrors()));
+			rv.setProperty(TEST_ERRORS, String.valueOf(r.hasTestErrors()));
+			rv.setProperty(TIMED_OUT, String.valueOf(r.isTimedOut()));
+			if(r.getErrors() != null)
+				rv.setProperty(ERRORS, r.getErrors());
+		}
+		
+		out.println();
+		out.println(RESULT_MARKER);
+		rv.store(out, null);
+		out.flush();
+		
+		/* Tests may have left non-daemon threads behind */
+		System.exit(0);
+	}
+}
@@ -49,6 +49,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 
@@ -63,7 +64,11 @@ import org.apache.maven.execution.MavenExecutionResult;
 import org.apache.maven.model.Activation;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.apache.maven.model.RepositoryPolicy;
 import org.apache.maven.model.building.ModelProcessor;
+import org.apache.maven.model.io.ModelReader;
+import org.apache.maven.project.ProjectDependenciesResolver;
 import org.apache.maven.properties.internal.EnvironmentUtils;
 import org.codehaus.plexus.ContainerConfiguration;
 import org.codehaus.plexus.DefaultContainerConfiguration;
@@ -81,6 +86,16 @@ import org.sonatype.aether.transfer.TransferListener;
  */
 public class MavenRunner {
 	public static final List<String> DEFAULT_GOAL = null;
+	
+	/* Properties referenced by baseProfiles.xml */
+	public static final String FORK_TIMEOUT_PROPERTY = "ounit.forkTimeout";
+	public static final String FORK_ARGS_PROPERTY    = "ounit.forkArgs";
+	public static final String DEFAULT_FORK_TIMEOUT  = "300";
+	
+	/* Same as in the super POM of Maven 3.0 */
+	private static final String CENTRAL_ID  = "central";
+	private static final String CENTRAL_URL = "http://repo1.maven.org/maven2";
+	private static final String UPDATE_POLICY_NEVER = "never";
 
 	private int logLevel = MavenExecutionRequest.LOGGING_LEVEL_INFO;
 	private Properties systemProperties;
@@ -91,9 +106,24 @@ public class MavenRunner {
     private ModelProcessor modelProcessor;
 	private PrintStreamLogger logger;
 	private List<Profile> baseProfiles;
+	private int buildCount = 0;
+	private File localRepository = null;
+	private boolean offline = false;
 	
 	private static ClassWorld world = null;
 	
+	/* Shared by all engines, see initialize() */
+	private static final CachingModelReader modelReader = new CachingModelReader();
+	private static final CachingDependenciesResolver.Cache dependencyGraphs =
+		new CachingDependenciesResolver.Cache(CachingDependenciesResolver.DEFAULT_MAX_ENTRIES);
+	
+	private static synchronized ClassWorld getWorld() {
+		if(world == null)
+			world = new ClassWorld( "plexus.core", Thread.currentThread().getContextClassLoader() );
+		
+		return world;
+	}
+	
 	MavenRunner() throws PlexusContainerException, ComponentLookupException,
 			IOException {
 		logger = new PrintStreamLogger( System.out );
@@ -111,10 +141,8 @@ public class MavenRunner {
 
 		logger.setThreshold( logLevel );
 		
-		if(world == null)
-			world = new ClassWorld( "plexus.core", Thread.currentThread().getContextClassLoader() );
         ContainerConfiguration cc = new DefaultContainerConfiguration()
-            .setClassWorld( world )
+            .setClassWorld( getWorld() )
             .setName( "maven" );
 		container = new DefaultPlexusContainer( cc );
 		executionListener = new ExecutionEventLogger( logger );
@@ -122,6 +150,17 @@ public class MavenRunner {
 		container.setLoggerManager( new MavenLoggerManager( logger ) );
 		
         Thread.currentThread().setContextClassLoader( container.getContainerRealm() );
+        
+        /*
+         * Builds of one question share POMs and dependencies. Replace
+         * the components reading POMs and resolving project dependencies
+         * with caching ones before anything looks them up.
+         * Plugin realms are already cached by the container itself.
+         */
+        container.addComponent( modelReader, ModelReader.class, "default" );
+        container.addComponent( new CachingDependenciesResolver(
+        		container.lookup( ProjectDependenciesResolver.class ), dependencyGraphs ),
+        		ProjectDependenciesResolver.class, "default" );
 
 		maven = container.lookup( Maven.class );
 		modelProcessor = container.lookup( ModelProcessor.class );
@@ -141,6 +180,24 @@ public class MavenRunner {
 
 	public MavenExecutionResult execute(File baseDirectory, List<String> goals,
 			String outputDirectory) {
+		return execute(baseDirectory, goals, outputDirectory, new Properties());
+	}
+	
+	/**
+	 * Execute a build.
+	 * 
+	 * @param baseDirectory project directory
+	 * @param goals goals to execute
+	 * @param outputDirectory build directory, null for default
+	 * @param userProperties properties overriding the defaults,
+	 *        see {@link #FORK_TIMEOUT_PROPERTY} and {@link #FORK_ARGS_PROPERTY}
+	 */
+	public MavenExecutionResult execute(File baseDirectory, List<String> goals,
+			String outputDirectory, Properties userProperties) {
+		Properties up = new Properties();
+		up.setProperty(FORK_TIMEOUT_PROPERTY, DEFAULT_FORK_TIMEOUT);
+		up.setProperty(FORK_ARGS_PROPERTY, "");
+		up.putAll(userProperties);
 
 		baseDirectory = baseDirectory.getAbsoluteFile();
 		File pom = modelProcessor.locatePom( baseDirectory );
@@ -152,17 +209,30 @@ public class MavenRunner {
             .setExecutionListener( executionListener )
             .setTransferListener( transferListener )
             .setSystemProperties( systemProperties )
-            //.setUserProperties( userProperties )
+            .setUserProperties( up )
             .setLoggingLevel( logLevel )
             .setInteractiveMode( false )
-            //.setOffline( true )
+            .setOffline( offline )
             .setCacheNotFound( true )
             .setCacheTransferError( false )
             .setGoals( goals );
 
         /* Apply base profiles */
-        for(Profile p: baseProfiles)
-        	request.addProfile( p.clone() );
+        for(Profile p: baseProfiles) {
+        	p = p.clone();
+        	if(localRepository != null)
+        		neverUpdate(p);
+        	request.addProfile( p );
+        }
+        
+        /*
+         * A dedicated repository is seeded once, do not waste time
+         * on checking for updates of artifacts that are already there.
+         */
+        if(localRepository != null) {
+        	request.setLocalRepositoryPath( localRepository );
+        	request.addProfile( newCentralProfile() );
+        }
 
 		// TODO: Implement system specific settings.xml file
 
@@ -181,9 +251,100 @@ public class MavenRunner {
 
         container.getLoggerManager().setThresholds( request.getLoggingLevel() );
         
-        MavenExecutionResult r = maven.execute(request);
-        
-		return r;
+        /* Several engines may live in a single JVM, make sure we use ours */
+        Thread t = Thread.currentThread();
+        ClassLoader oldLoader = t.getContextClassLoader();
+        t.setContextClassLoader( container.getContainerRealm() );
+        try {
+        	buildCount++;
+        	return maven.execute(request);
+        } finally {
+        	t.setContextClassLoader( oldLoader );
+        }
+	}
+
+	/**
+	 * Turn off update checks of all repositories in a profile.
+	 */
+	private static void neverUpdate(Profile p) {
+		for(Repository r: p.getRepositories())
+			neverUpdate(r);
+		for(Repository r: p.getPluginRepositories())
+			neverUpdate(r);
+	}
+	
+	private static void neverUpdate(Repository r) {
+		if(r.getReleases() == null)
+			r.setReleases(new RepositoryPolicy());
+		if(r.getSnapshots() == null)
+			r.setSnapshots(new RepositoryPolicy());
+		r.getReleases().setUpdatePolicy(UPDATE_POLICY_NEVER);
+		r.getSnapshots().setUpdatePolicy(UPDATE_POLICY_NEVER);
+	}
+	
+	/**
+	 * Create a profile that overrides central repository of the
+	 * super POM with one that is never checked for updates.
+	 */
+	private static Profile newCentralProfile() {
+		Profile p = new Profile();
+		p.setId("ounitExecutorCentralRepositoryProfile");
+		Activation a = new Activation();
+		a.setActiveByDefault(true);
+		p.setActivation(a);
+		
+		Repository r = new Repository();
+		r.setId(CENTRAL_ID);
+		r.setName("Central Repository");
+		r.setUrl(CENTRAL_URL);
+		r.setSnapshots(new RepositoryPolicy());
+		r.getSnapshots().setEnabled(false);
+		neverUpdate(r);
+		p.addRepository(r);
+		p.addPluginRepository(r.clone());
+		
+		return p;
+	}
+
+	/**
+	 * @return number of builds executed by this engine
+	 */
+	public int getBuildCount() {
+		return buildCount;
+	}
+
+	/**
+	 * Release the Plexus container. The runner can not be used afterwards.
+	 */
+	public void dispose() {
+		container.dispose();
+	}
+
+	public File getLocalRepository() {
+		return localRepository;
+	}
+
+	/**
+	 * Use a dedicated local repository. Repositories of a
+	 * dedicated local repository are never checked for updates.
+	 * 
+	 * @param localRepository repository directory, null for
+	 *        the Maven default
+	 */
+	public void setLocalRepository(File localRepository) {
+		this.localRepository = localRepository;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Do not access remote repositories. All plugins and
+	 * dependencies must already be in the local repository.
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
 	}
 
 	protected PrintStreamLogger getLogger() {
@@ -242,8 +403,11 @@ public class MavenRunner {
 	}
 	
 	public Properties getModelProperties(File dir) throws IOException  {
-		return modelProcessor.read(
-				new FileInputStream(new File(dir, "pom.xml")), null)
-				.getProperties();
+		InputStream in = new FileInputStream(new File(dir, "pom.xml"));
+		try {
+			return modelProcessor.read(in, null).getProperties();
+		} finally {
+			in.close();
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.LinkedList;
+
+import org.apache.maven.cli.PrintStreamLogger;
+import org.apache.maven.cli.PrintStreamLogger2.Provider;
+
+/**
+ * A bounded pool of pre-initialized Maven engines.
+ * <p>
+ * Every engine has a Plexus container of it's own so concurrent builds
+ * do not contend on shared container state. An engine is checked out
+ * for the duration of a single build and retired after it has executed
+ * a configured number of builds or when the heap is filling up.
+ * Retired engines are replaced in the background.
+ * </p>
+ *
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class MavenRunnerPool {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+
+	public static final int    DEFAULT_MAX_BUILDS     = 200;
+	public static final double DEFAULT_MAX_HEAP_USAGE = 0.75;
+
+	private final Provider logProvider;
+	private final LinkedList<MavenRunner> idle = new LinkedList<MavenRunner>();
+	private int capacity = 1;
+	private int created = 0;
+	private int maxBuilds = DEFAULT_MAX_BUILDS;
+	private double maxHeapUsage = DEFAULT_MAX_HEAP_USAGE;
+	private boolean warming = false;
+
+	public MavenRunnerPool(Provider logProvider) {
+		this.logProvider = logProvider;
+	}
+
+	/**
+	 * Check out an engine. Blocks if all engines are busy.
+	 *
+	 * @return an engine that is not used by any other thread
+	 * @throws Exception if a new engine could not be created
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public MavenRunner acquire() throws Exception {
+		synchronized (this) {
+			while (idle.isEmpty() && created >= capacity)
+				wait();
+
+			if (!idle.isEmpty())
+				return idle.removeFirst();
+
+			created++;
+		}
+
+		/* Nothing idle, pay the boot cost on the calling thread */
+		try {
+			return newRunner();
+		} catch (Exception e) {
+			synchronized (this) {
+				created--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Return an engine to the pool. Worn out engines are disposed of
+	 * and replaced.
+	 *
+	 * @param runner an engine obtained from {@link #acquire()}
+	 */
+	public void release(MavenRunner runner) {
+		if (runner.getBuildCount() >= maxBuilds || isHeapFull()) {
+			log.debug("Retiring Maven engine after {} builds", runner.getBuildCount());
+			try {
+				runner.dispose();
+			} catch (Exception e) {
+				log.warn("Failed to dispose Maven engine", e);
+			}
+			synchronized (this) {
+				created--;
+				notifyAll();
+			}
+			warmUpAsync();
+			return;
+		}
+
+		synchronized (this) {
+			/* LIFO to keep the hottest engines busy */
+			idle.addFirst(runner);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Create engines until the pool is full.
+	 *
+	 * @throws Exception if creating an engine fails
+	 */
+	public void warmUp() throws Exception {
+		while (true) {
+			synchronized (this) {
+				if (created >= capacity)
+					return;
+				created++;
+			}
+
+			MavenRunner runner;
+			try {
+				runner = newRunner();
+			} catch (Exception e) {
+				synchronized (this) {
+					created--;
+					notifyAll();
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				idle.addLast(runner);
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Fill the pool on a background thread.
+	 */
+	public void warmUpAsync() {
+		synchronized (this) {
+			if (warming || created >= capacity)
+				return;
+			warming = true;
+		}
+
+		Thread t = new Thread("ounit-engine-warmup") {
+			@Override
+			public void run() {
+				try {
+					warmUp();
+					log.debug("Maven engine pool is warm");
+				} catch (Exception e) {
+					log.warn("Failed to warm up Maven engines", e);
+				} finally {
+					synchronized (MavenRunnerPool.this) {
+						warming = false;
+					}
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Make sure the pool can hold at least <code>n</code> engines.
+	 * The pool never shrinks.
+	 *
+	 * @param n minimum number of engines
+	 */
+	public synchronized void ensureCapacity(int n) {
+		if (n > capacity) {
+			capacity = n;
+			notifyAll();
+		}
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	public synchronized void setMaxBuilds(int maxBuilds) {
+		this.maxBuilds = maxBuilds;
+	}
+
+	public synchronized void setMaxHeapUsage(double maxHeapUsage) {
+		this.maxHeapUsage = maxHeapUsage;
+	}
+
+	private MavenRunner newRunner() throws Exception {
+		long start = System.currentTimeMillis();
+		MavenRunner runner = new MavenRunner(new PrintStreamLogger(logProvider));
+		log.debug("Started Maven engine in {} ms", System.currentTimeMillis() - start);
+
+		return runner;
+	}
+
+	/**
+	 * Check heap usage after the last garbage collection. Looking at the
+	 * current usage would be meaningless because it includes garbage.
+	 */
+	private boolean isHeapFull() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() != MemoryType.HEAP)
+				continue;
+			MemoryUsage u = pool.getCollectionUsage();
+			if (u == null || u.getMax() <= 0)
+				continue;
+			if ((double) u.getUsed() / u.getMax() > maxHeapUsage)
+				return true;
+		}
+		return false;
+	}
+}
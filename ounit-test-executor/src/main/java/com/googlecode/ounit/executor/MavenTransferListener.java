@@ -69,7 +69,7 @@ public class MavenTransferListener
     {
         String message = event.getRequestType() == TransferEvent.RequestType.PUT ? "Uploading" : "Downloading";
 
-        log.info( message + ": " + event.getResource().getRepositoryUrl() + event.getResource().getResourceName() );
+        log.debug( message + ": " + event.getResource().getRepositoryUrl() + event.getResource().getResourceName() );
     }
 
     @Override
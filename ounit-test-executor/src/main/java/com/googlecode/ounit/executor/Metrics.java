@@ -0,0 +1,332 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of runtime statistics.
+ * <p>
+ * Metrics are identified by a name and optional labels in the form
+ * <code>name{label="value",...}</code>, see {@link #name(String, String...)}.
+ * The registry can be dumped as plain text in the Prometheus exposition
+ * format and is available through JMX as
+ * <code>com.googlecode.ounit:type=Metrics</code>. Histograms are updated
+ * in milliseconds and reported in seconds.
+ * All methods are thread safe and updates do not lock.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class Metrics {
+	public static final String OBJECT_NAME = "com.googlecode.ounit:type=Metrics";
+	
+	private static final Metrics instance = new Metrics();
+	
+	/**
+	 * A value that is read when metrics are collected.
+	 */
+	public interface Gauge {
+		long getValue();
+	}
+	
+	public static class Counter {
+		private final AtomicLong value = new AtomicLong();
+		
+		public void inc() {
+			value.incrementAndGet();
+		}
+		
+		public void add(long n) {
+			value.addAndGet(n);
+		}
+		
+		public long get() {
+			return value.get();
+		}
+	}
+	
+	/**
+	 * Distribution of durations in fixed buckets.
+	 * All values are in milliseconds.
+	 */
+	public static class Histogram {
+		/* Upper bounds of the buckets in milliseconds */
+		static final long [] BOUNDS = { 10, 25, 50, 100, 250, 500, 1000, 2500,
+			5000, 10000, 25000, 60000, 120000, 300000, 600000 };
+		
+		private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		
+		public void update(long ms) {
+			int i = 0;
+			while(i < BOUNDS.length && ms > BOUNDS[i])
+				i++;
+			buckets.incrementAndGet(i);
+			count.incrementAndGet();
+			sum.addAndGet(ms);
+			
+			long m;
+			while(ms > (m = max.get()) && !max.compareAndSet(m, ms));
+		}
+		
+		public long getCount() {
+			return count.get();
+		}
+		
+		public long getSum() {
+			return sum.get();
+		}
+		
+		public long getMax() {
+			return max.get();
+		}
+		
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : (double) sum.get() / n;
+		}
+		
+		/**
+		 * Estimate a percentile.
+		 * 
+		 * @param p percentile between 0 and 1
+		 * @return upper bound of the bucket the percentile falls in,
+		 *         the maximum for the last bucket
+		 */
+		public long getPercentile(double p) {
+			long n = count.get();
+			if(n == 0)
+				return 0;
+			
+			long rank = (long) Math.ceil(p * n);
+			long seen = 0;
+			for(int i = 0; i < BOUNDS.length; i++) {
+				seen += buckets.get(i);
+				if(seen >= rank)
+					return Math.min(BOUNDS[i], max.get());
+			}
+			return max.get();
+		}
+		
+		long getBucket(int i) {
+			return buckets.get(i);
+		}
+	}
+	
+	private final ConcurrentHashMap<String, Counter> counters =
+		new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentHashMap<String, Histogram> histograms =
+		new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentHashMap<String, Gauge> gauges =
+		new ConcurrentHashMap<String, Gauge>();
+	
+	public static Metrics getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Build a metric name.
+	 * 
+	 * @param base metric name
+	 * @param labels alternating label names and values
+	 * @return name with labels
+	 */
+	public static String name(String base, String... labels) {
+		if(labels.length == 0)
+			return base;
+		
+		StringBuilder sb = new StringBuilder(base).append('{');
+		for(int i = 0; i + 1 < labels.length; i += 2) {
+			if(i > 0)
+				sb.append(',');
+			sb.append(labels[i]).append("=\"");
+			String v = labels[i + 1] == null ? "" : labels[i + 1];
+			sb.append(v.replace("\\", "\\\\").replace("\"", "\\\"")
+					.replace("\n", "\\n"));
+			sb.append('"');
+		}
+		return sb.append('}').toString();
+	}
+	
+	public Counter counter(String name) {
+		Counter c = counters.get(name);
+		if(c == null) {
+			Counter n = new Counter();
+			c = counters.putIfAbsent(name, n);
+			if(c == null)
+				c = n;
+		}
+		return c;
+	}
+	
+	public Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if(h == null) {
+			Histogram n = new Histogram();
+			h = histograms.putIfAbsent(name, n);
+			if(h == null)
+				h = n;
+		}
+		return h;
+	}
+	
+	/**
+	 * Register a gauge, replacing any previous one with the same name.
+	 */
+	public void register(String name, Gauge g) {
+		gauges.put(name, g);
+	}
+	
+	/**
+	 * Count a lookup in one of the caches.
+	 * 
+	 * @param cache name of the cache
+	 * @param hit true if the lookup was served from the cache
+	 */
+	public void cacheAccess(String cache, boolean hit) {
+		counter(name("ounit_cache_requests_total", "cache", cache,
+				"result", hit ? "hit" : "miss")).inc();
+	}
+	
+	/**
+	 * @return current values of counters and gauges and summaries of
+	 *         histograms (count, mean, 95th percentile and maximum in seconds)
+	 */
+	public Map<String, Number> getValues() {
+		Map<String, Number> rv = new TreeMap<String, Number>();
+		for(Map.Entry<String, Counter> e: counters.entrySet())
+			rv.put(e.getKey(), e.getValue().get());
+		for(Map.Entry<String, Gauge> e: gauges.entrySet())
+			rv.put(e.getKey(), e.getValue().getValue());
+		for(Map.Entry<String, Histogram> e: histograms.entrySet()) {
+			Histogram h = e.getValue();
+			rv.put(suffix(e.getKey(), "_count"), h.getCount());
+			rv.put(suffix(e.getKey(), "_mean"), h.getMean() / 1000.0);
+			rv.put(suffix(e.getKey(), "_p95"), h.getPercentile(0.95) / 1000.0);
+			rv.put(suffix(e.getKey(), "_max"), h.getMax() / 1000.0);
+		}
+		return rv;
+	}
+	
+	/**
+	 * Write all metrics in the Prometheus text format.
+	 */
+	public void writeText(PrintWriter out) {
+		for(Map.Entry<String, Map<String, Counter>> f: byFamily(counters).entrySet()) {
+			out.println("# TYPE " + f.getKey() + " counter");
+			for(Map.Entry<String, Counter> e: f.getValue().entrySet())
+				out.println(e.getKey() + " " + e.getValue().get());
+		}
+		for(Map.Entry<String, Map<String, Gauge>> f: byFamily(gauges).entrySet()) {
+			out.println("# TYPE " + f.getKey() + " gauge");
+			for(Map.Entry<String, Gauge> e: f.getValue().entrySet())
+				out.println(e.getKey() + " " + e.getValue().getValue());
+		}
+		for(Map.Entry<String, Map<String, Histogram>> f: byFamily(histograms).entrySet()) {
+			out.println("# TYPE " + f.getKey() + " histogram");
+			for(Map.Entry<String, Histogram> e: f.getValue().entrySet()) {
+				String n = e.getKey();
+				Histogram h = e.getValue();
+				long cumulative = 0;
+				for(int i = 0; i <= Histogram.BOUNDS.length; i++) {
+					cumulative += h.getBucket(i);
+					String le = i < Histogram.BOUNDS.length
+						? seconds(Histogram.BOUNDS[i]) : "+Inf";
+					out.println(label(suffix(n, "_bucket"), "le", le) + " " + cumulative);
+				}
+				out.println(suffix(n, "_sum") + " " + seconds(h.getSum()));
+				out.println(suffix(n, "_count") + " " + h.getCount());
+			}
+		}
+		out.flush();
+	}
+	
+	public String toText() {
+		StringWriter sw = new StringWriter();
+		writeText(new PrintWriter(sw));
+		return sw.toString();
+	}
+	
+	/**
+	 * Make the metrics available through the platform MBean server.
+	 * Does nothing if they are already registered.
+	 */
+	public void registerMBean() {
+		try {
+			MBeanServer s = ManagementFactory.getPlatformMBeanServer();
+			s.registerMBean(new MetricsMBean(this), new ObjectName(OBJECT_NAME));
+		} catch(InstanceAlreadyExistsException e) {
+		} catch(Exception e) {
+			throw new RuntimeException("Unable to register metrics MBean", e);
+		}
+	}
+	
+	/* Group metrics by name without labels, sorted */
+	private static <T> Map<String, Map<String, T>> byFamily(Map<String, T> metrics) {
+		Map<String, Map<String, T>> rv = new TreeMap<String, Map<String, T>>();
+		for(Map.Entry<String, T> e: metrics.entrySet()) {
+			int i = e.getKey().indexOf('{');
+			String family = i < 0 ? e.getKey() : e.getKey().substring(0, i);
+			Map<String, T> m = rv.get(family);
+			if(m == null)
+				rv.put(family, m = new TreeMap<String, T>());
+			m.put(e.getKey(), e.getValue());
+		}
+		return rv;
+	}
+	
+	/* Format milliseconds as seconds */
+	private static String seconds(long ms) {
+		return BigDecimal.valueOf(ms, 3).stripTrailingZeros().toPlainString();
+	}
+	
+	/* Add a suffix to the name part of a metric */
+	private static String suffix(String name, String suffix) {
+		int i = name.indexOf('{');
+		return i < 0 ? name + suffix
+				: name.substring(0, i) + suffix + name.substring(i);
+	}
+	
+	/* Add a label to a metric name */
+	private static String label(String name, String label, String value) {
+		String l = label + "=\"" + value + "\"";
+		return name.endsWith("}")
+			? name.substring(0, name.length() - 1) + "," + l + "}"
+			: name + "{" + l + "}";
+	}
+}
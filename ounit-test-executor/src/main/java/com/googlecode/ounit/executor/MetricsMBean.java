@@ -0,0 +1,101 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read only JMX view of {@link Metrics}. Every metric is exposed as an
+ * attribute, so the set of attributes grows as new metrics are recorded.
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+class MetricsMBean implements DynamicMBean {
+	private final Metrics metrics;
+	
+	MetricsMBean(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Number v = metrics.getValues().get(attribute);
+		if(v == null)
+			throw new AttributeNotFoundException(attribute);
+		return v;
+	}
+	
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Number> values = metrics.getValues();
+		AttributeList rv = new AttributeList();
+		for(String a: attributes) {
+			if(values.containsKey(a))
+				rv.add(new Attribute(a, values.get(a)));
+		}
+		return rv;
+	}
+	
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+		for(Map.Entry<String, Number> e: metrics.getValues().entrySet()) {
+			attrs.add(new MBeanAttributeInfo(e.getKey(),
+					e.getValue().getClass().getName(), e.getKey(),
+					true, false, false));
+		}
+		
+		return new MBeanInfo(Metrics.class.getName(), "OUnit runtime metrics",
+				attrs.toArray(new MBeanAttributeInfo[attrs.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+	
+	@Override
+	public Object invoke(String actionName, Object[] params, String[] signature)
+			throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+	
+	@Override
+	public void setAttribute(Attribute attribute)
+			throws AttributeNotFoundException {
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+	
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+}
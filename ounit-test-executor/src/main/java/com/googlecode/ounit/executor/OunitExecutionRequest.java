@@ -23,10 +23,36 @@ package com.googlecode.ounit.executor;
 
 import java.io.File;
 
+import org.apache.maven.execution.MavenExecutionRequest;
+
 public class OunitExecutionRequest {
+	/* Build log levels */
+	public static final int LOG_DEBUG = MavenExecutionRequest.LOGGING_LEVEL_DEBUG;
+	public static final int LOG_INFO  = MavenExecutionRequest.LOGGING_LEVEL_INFO;
+	public static final int LOG_WARN  = MavenExecutionRequest.LOGGING_LEVEL_WARN;
+	public static final int LOG_ERROR = MavenExecutionRequest.LOGGING_LEVEL_ERROR;
+	
+	/**
+	 * Scheduling priority. Builds a student is waiting for always
+	 * run before background work.
+	 */
+	public enum Priority { INTERACTIVE, BACKGROUND }
+	
 	private File baseDirectory = null;
 	private String outputDirectory = null;
 	private File logFile = null;
+	private boolean fastPath = false;
+	private Priority priority = Priority.INTERACTIVE;
+	private String owner = null;
+	private int timeout = 0;
+	private int cpuTimeLimit = 0;
+	private int maxMemory = 0;
+	private long maxOutput = 0;
+	private boolean offline = false;
+	private int logLevel = LOG_INFO;
+	private boolean compressLog = false;
+	private String phase = null;
+	private String question = null;
 
 	public File getBaseDirectory() {
 		return baseDirectory;
@@ -57,4 +83,182 @@ public class OunitExecutionRequest {
 		
 		return this;
 	}
+
+	public boolean isFastPath() {
+		return fastPath;
+	}
+
+	/**
+	 * Allow the build to bypass Maven if the project is simple enough.
+	 * 
+	 * @see FastPathRunner
+	 */
+	public OunitExecutionRequest setFastPath(boolean fastPath) {
+		this.fastPath = fastPath;
+		
+		return this;
+	}
+	
+	public Priority getPriority() {
+		return priority;
+	}
+
+	public OunitExecutionRequest setPriority(Priority priority) {
+		this.priority = priority;
+		
+		return this;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Set the party (typically a session) the build is run for.
+	 * Queued builds of an owner are interleaved with builds of
+	 * other owners so nobody can monopolize the executor.
+	 */
+	public OunitExecutionRequest setOwner(String owner) {
+		this.owner = owner;
+		
+		return this;
+	}
+	
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Limit the wall clock time of the build. Builds exceeding the
+	 * limit are aborted and their forked processes killed.
+	 * 
+	 * @param timeout limit in seconds, 0 for none
+	 */
+	public OunitExecutionRequest setTimeout(int timeout) {
+		this.timeout = timeout;
+		
+		return this;
+	}
+
+	public int getCpuTimeLimit() {
+		return cpuTimeLimit;
+	}
+
+	/**
+	 * Limit the CPU time used by the build thread.
+	 * 
+	 * @param cpuTimeLimit limit in seconds, 0 for none
+	 */
+	public OunitExecutionRequest setCpuTimeLimit(int cpuTimeLimit) {
+		this.cpuTimeLimit = cpuTimeLimit;
+		
+		return this;
+	}
+
+	public int getMaxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Limit the heap of JVMs forked to run tests.
+	 * 
+	 * @param maxMemory limit in megabytes, 0 for JVM default
+	 */
+	public OunitExecutionRequest setMaxMemory(int maxMemory) {
+		this.maxMemory = maxMemory;
+		
+		return this;
+	}
+
+	public long getMaxOutput() {
+		return maxOutput;
+	}
+
+	/**
+	 * Limit the size of the build log. Output over the limit
+	 * is discarded.
+	 * 
+	 * @param maxOutput limit in bytes, 0 for none
+	 */
+	public OunitExecutionRequest setMaxOutput(long maxOutput) {
+		this.maxOutput = maxOutput;
+		
+		return this;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Build without accessing remote repositories. Everything the
+	 * build needs must already be in the local repository.
+	 * 
+	 * @see OunitWorker#setLocalRepository(File)
+	 */
+	public OunitExecutionRequest setOffline(boolean offline) {
+		this.offline = offline;
+		
+		return this;
+	}
+
+	public int getLogLevel() {
+		return logLevel;
+	}
+
+	/**
+	 * Set the minimum level of messages written to the build log.
+	 * 
+	 * @param logLevel one of <code>LOG_*</code> constants
+	 */
+	public OunitExecutionRequest setLogLevel(int logLevel) {
+		this.logLevel = logLevel;
+		
+		return this;
+	}
+
+	public boolean isCompressLog() {
+		return compressLog;
+	}
+
+	/**
+	 * Write the build log in gzip format.
+	 */
+	public OunitExecutionRequest setCompressLog(boolean compressLog) {
+		this.compressLog = compressLog;
+		
+		return this;
+	}
+
+	public String getPhase() {
+		return phase;
+	}
+
+	/**
+	 * Label used to group build statistics, for example
+	 * <code>prepare</code> or <code>build</code>.
+	 * 
+	 * @see Metrics
+	 */
+	public OunitExecutionRequest setPhase(String phase) {
+		this.phase = phase;
+		
+		return this;
+	}
+
+	public String getQuestion() {
+		return question;
+	}
+
+	/**
+	 * Identifier of the question being built, used to group
+	 * build statistics.
+	 * 
+	 * @see Metrics
+	 */
+	public OunitExecutionRequest setQuestion(String question) {
+		this.question = question;
+		
+		return this;
+	}
 }
@@ -22,38 +22,388 @@
 package com.googlecode.ounit.executor;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.googlecode.ounit.executor.Metrics.Gauge;
+import com.googlecode.ounit.executor.OunitExecutionRequest.Priority;
 
+import static com.googlecode.ounit.executor.Metrics.name;
+
+/**
+ * Schedules builds on a fixed number of threads.
+ * <p>
+ * Waiting builds are ordered by priority and owner so that background
+ * work never delays students and a single student can not starve the
+ * others. The number of waiting builds is bounded, submissions over the
+ * limit are rejected immediately instead of timing out later. Background
+ * builds are rejected once the queue is half full.
+ * </p>
+ * <p>
+ * Queue depth, slot usage, waiting and execution times and build
+ * outcomes are recorded in {@link Metrics}.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
 public class OunitExecutor {
-	ExecutorService executor;
-	MavenRunner parser = null;
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+	/* Rough heap footprint of a single in-process build */
+	public static final long BUILD_MEMORY = 128L * 1024 * 1024;
+	/* Builds finished during this many milliseconds are used for load figures */
+	public static final long STATS_WINDOW = 5 * 60 * 1000L;
+	/* Number of parsed POMs to keep in memory */
+	public static final int MAX_MODELS = 256;
+	
+	final ThreadPoolExecutor executor;
+	final int maxQueued;
+	volatile MavenRunner parser = null;
+	private final Metrics metrics = Metrics.getInstance();
+	private final BuildWindow window = new BuildWindow(STATS_WINDOW);
+	
+	/* Guarded by this */
+	private int queued = 0;
+	private long seq = 0;
+	private final Map<String, Integer> ownerQueued = new HashMap<String, Integer>();
+	
+	/* Parsed POM properties keyed by POM path, access ordered, guarded by itself */
+	private final Map<String, ModelEntry> models =
+		new LinkedHashMap<String, ModelEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ModelEntry> e) {
+				return size() > MAX_MODELS;
+			}
+		};
+	
+	private static class ModelEntry {
+		final long lastModified;
+		final long length;
+		final Properties properties;
+		
+		ModelEntry(long lastModified, long length, Properties properties) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.properties = properties;
+		}
+	}
 
 	public OunitExecutor() {
-		executor = Executors.newFixedThreadPool(5);
+		this(defaultThreads());
 	}
 	
 	public OunitExecutor(int nThreads) {
-		executor = Executors.newFixedThreadPool(nThreads);
+		this(nThreads, DEFAULT_QUEUE_SIZE);
 	}
+	
+	/**
+	 * Create an executor and start warming up one Maven engine
+	 * per thread in the background.
+	 * 
+	 * @param nThreads number of builds that can run concurrently
+	 * @param maxQueued number of builds that can wait for a thread
+	 */
+	public OunitExecutor(int nThreads, int maxQueued) {
+		this.maxQueued = maxQueued;
+		executor = new ThreadPoolExecutor(nThreads, nThreads, 0L,
+				TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>()) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r) {
+				dequeued((OunitTask) r);
+				started((OunitTask) r);
+			}
+			
+			@Override
+			protected void afterExecute(Runnable r, Throwable t) {
+				finished((OunitTask) r);
+			}
+		};
+		
+		metrics.register("ounit_queue_depth", new Gauge() {
+			public long getValue() {
+				return getQueueLength();
+			}
+		});
+		metrics.register("ounit_slots", new Gauge() {
+			public long getValue() {
+				return getThreadCount();
+			}
+		});
+		metrics.register("ounit_slots_active", new Gauge() {
+			public long getValue() {
+				return getRunningCount();
+			}
+		});
 
+		MavenRunnerPool pool = OunitWorker.getInstance().getPool();
+		pool.ensureCapacity(nThreads);
+		pool.warmUpAsync();
+	}
+	
+	/**
+	 * Number of concurrent builds this machine can handle: one per
+	 * processor as long as the heap has room for it.
+	 */
+	public static int defaultThreads() {
+		Runtime rt = Runtime.getRuntime();
+		long byMemory = rt.maxMemory() / BUILD_MEMORY;
+		
+		return (int) Math.max(1, Math.min(rt.availableProcessors(), byMemory));
+	}
+
+	/**
+	 * Queue a build.
+	 * 
+	 * @param request build request
+	 * @return the scheduled task
+	 * @throws RejectedExecutionException if the queue is full
+	 */
 	public OunitTask submit(OunitExecutionRequest request) {
 		OunitTask task = new OunitTask( request );
-		executor.submit( task );
+		enqueue( task );
 
 		return task;
 	}
+	
+	/**
+	 * Submit a request and get notified when it completes.
+	 * The listener is registered before the task is queued
+	 * so it will never miss the completion.
+	 * 
+	 * @param request build request
+	 * @param listener completion callback
+	 * @return the scheduled task
+	 */
+	public OunitTask submit(OunitExecutionRequest request,
+			OunitTaskListener listener) {
+		OunitTask task = new OunitTask( request );
+		task.addListener( listener );
+		enqueue( task );
+
+		return task;
+	}
+
+	/**
+	 * Move a queued build ahead of builds with lower priority. Used when
+	 * someone starts waiting for a build that was queued in the background.
+	 *
+	 * @param task queued build
+	 * @param priority new priority, ignored if lower than the current one
+	 * @return false if the build is no longer waiting in the queue
+	 */
+	public boolean raisePriority(OunitTask task, Priority priority) {
+		OunitExecutionRequest r = task.getRequest();
+		if(r.getPriority().compareTo(priority) <= 0)
+			return true;
+
+		/* The queue is ordered on insertion, so the task has to be re-added */
+		BlockingQueue<Runnable> q = executor.getQueue();
+		if(!q.remove(task))
+			return false;
+		r.setPriority(priority);
+		q.add(task);
+
+		return true;
+	}
+
+	/**
+	 * @return number of builds waiting for a thread
+	 */
+	public synchronized int getQueueLength() {
+		return queued;
+	}
+	
+	public int getThreadCount() {
+		return executor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * @return number of builds currently running
+	 */
+	public int getRunningCount() {
+		return executor.getActiveCount();
+	}
+	
+	/**
+	 * Build latency over the last {@link #STATS_WINDOW} milliseconds.
+	 * 
+	 * @param p percentile between 0 and 1
+	 * @return execution time in milliseconds or -1 if no builds
+	 *         have finished recently
+	 */
+	public long getRecentLatency(double p) {
+		return window.getPercentile(System.currentTimeMillis(), p);
+	}
+	
+	/**
+	 * @return builds finished per minute over the last
+	 *         {@link #STATS_WINDOW} milliseconds
+	 */
+	public double getRecentThroughput() {
+		return window.getRate(System.currentTimeMillis());
+	}
+	
+	/**
+	 * An executor is saturated when every thread is busy and the
+	 * waiting builds are enough to keep them busy for another round.
+	 * New builds should preferably be sent elsewhere.
+	 */
+	public boolean isSaturated() {
+		int threads = getThreadCount();
+		return getRunningCount() >= threads && getQueueLength() >= threads;
+	}
+	
+	private void enqueue(OunitTask task) {
+		OunitExecutionRequest r = task.getRequest();
+		synchronized (this) {
+			int limit = r.getPriority() == Priority.BACKGROUND
+				? maxQueued / 2 : maxQueued;
+			if(queued >= limit) {
+				metrics.counter(name("ounit_builds_rejected_total",
+						"priority", priorityLabel(r))).inc();
+				throw new RejectedExecutionException("Server is busy: "
+						+ queued + " builds are waiting, please try again later");
+			}
+			
+			Integer n = ownerQueued.get(r.getOwner());
+			task.rank = n == null ? 0 : n.intValue();
+			task.seq = seq++;
+			task.submitted = System.currentTimeMillis();
+			ownerQueued.put(r.getOwner(), task.rank + 1);
+			queued++;
+		}
+		
+		try {
+			executor.execute( task );
+		} catch(RejectedExecutionException e) {
+			dequeued( task );
+			throw e;
+		}
+	}
+	
+	private synchronized void dequeued(OunitTask task) {
+		String owner = task.getRequest().getOwner();
+		Integer n = ownerQueued.get(owner);
+		if(n == null || n.intValue() <= 1)
+			ownerQueued.remove(owner);
+		else
+			ownerQueued.put(owner, n - 1);
+		queued--;
+	}
+	
+	private void started(OunitTask task) {
+		task.started = System.currentTimeMillis();
+		metrics.histogram(name("ounit_queue_wait_seconds", "priority",
+				priorityLabel(task.getRequest())))
+				.update(task.started - task.submitted);
+	}
+	
+	private void finished(OunitTask task) {
+		OunitExecutionRequest r = task.getRequest();
+		String phase = r.getPhase() == null ? "build" : r.getPhase();
+		long now = System.currentTimeMillis();
+		long time = now - task.started;
+		window.add(now, time);
+		
+		metrics.histogram(name("ounit_build_time_seconds", "phase", phase))
+			.update(time);
+		if(r.getQuestion() != null)
+			metrics.histogram(name("ounit_question_build_time_seconds",
+					"phase", phase, "question", r.getQuestion())).update(time);
+		metrics.counter(name("ounit_builds_total", "phase", phase,
+				"outcome", outcome(task))).inc();
+	}
+	
+	/* Only called after the task has completed, so get() does not block */
+	private static String outcome(OunitTask task) {
+		if(task.isCancelled())
+			return "cancelled";
+		
+		OunitResult res;
+		try {
+			res = task.get();
+		} catch (ExecutionException e) {
+			return "failure";
+		} catch (Exception e) {
+			return "cancelled";
+		}
+		
+		if(res.isTimedOut())
+			return "timeout";
+		if(res.hasCompileErrors())
+			return "compile_error";
+		if(res.hasTestErrors())
+			return "test_failure";
+		if(res.hasErrors())
+			return "error";
+		return "success";
+	}
+	
+	private static String priorityLabel(OunitExecutionRequest r) {
+		return r.getPriority().name().toLowerCase();
+	}
 
 	public void shutdown() {
 		executor.shutdown();
 	}
 	
+	/**
+	 * Read properties from <code>pom.xml</code> in a directory.
+	 * Parsed properties are cached until the POM is modified, only the
+	 * {@link #MAX_MODELS} most recently used POMs are kept.
+	 * This method is thread safe and does not lock while parsing.
+	 * 
+	 * @param dir project directory
+	 * @return a private copy of model properties
+	 * @throws Exception if the POM can not be parsed
+	 */
 	public Properties getModelProperties(File dir) throws Exception  {
-		if(parser == null)
-			parser = new MavenRunner();
+		File pom = new File(dir, "pom.xml");
+		String key = pom.getAbsolutePath();
+		long lastModified = pom.lastModified();
+		long length = pom.length();
+		
+		ModelEntry e;
+		synchronized (models) {
+			e = models.get(key);
+		}
+		boolean hit = e != null && e.lastModified == lastModified && e.length == length;
+		metrics.cacheAccess("pom_properties", hit);
+		if(!hit) {
+			e = new ModelEntry(lastModified, length,
+					getParser().getModelProperties(dir));
+			synchronized (models) {
+				models.put(key, e);
+			}
+		}
+		
+		Properties rv = new Properties();
+		rv.putAll(e.properties);
+		
+		return rv;
+	}
+	
+	/* The model processor is stateless, one instance serves all threads */
+	private MavenRunner getParser() throws Exception {
+		MavenRunner p = parser;
+		if(p == null) {
+			synchronized (this) {
+				p = parser;
+				if(p == null)
+					parser = p = new MavenRunner();
+			}
+		}
 		
-		return parser.getModelProperties(dir);
+		return p;
 	}
 }
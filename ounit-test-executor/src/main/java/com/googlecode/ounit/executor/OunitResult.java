@@ -27,48 +27,131 @@ import org.apache.maven.plugin.MojoFailureException;
 
 //import com.googlecode.ounit.reports.TestResultsParser;
 
+/**
+ * Outcome of a build. All information is extracted when the result
+ * is created so results do not hold on to Maven internals.
+ */
 public class OunitResult {
-	private MavenExecutionResult r;
+	private boolean errors;
+	private boolean compileErrors;
+	private boolean testErrors;
+	private String errorText;
+	private String outputDirectory;
+	private boolean timedOut;
 	
 	public OunitResult(MavenExecutionResult r) {
-		this.r = r;
+		errors = r.hasExceptions();
+		if(errors) {
+			compileErrors = hasCompileErrors(r);
+			testErrors = hasTestErrors(r);
+			errorText = getErrors(r);
+		}
+		
+		try {
+			outputDirectory = r.getProject().getBuild().getDirectory();
+		} catch(NullPointerException e) {
+			outputDirectory = null;
+		}
+	}
+	
+	/**
+	 * Create a result of a build that was not executed by Maven.
+	 * 
+	 * @param outputDirectory build directory
+	 * @param errorText error messages or null if build succeeded
+	 * @param compileErrors true if the errors were caused by the compiler
+	 */
+	public OunitResult(String outputDirectory, String errorText,
+			boolean compileErrors) {
+		this(outputDirectory, errorText, compileErrors, false);
+	}
+	
+	/**
+	 * Create a result of a build that was not executed by Maven.
+	 * 
+	 * @param outputDirectory build directory
+	 * @param errorText error messages or null if build succeeded
+	 * @param compileErrors true if the errors were caused by the compiler
+	 * @param testErrors true if the errors were caused by failing tests
+	 */
+	public OunitResult(String outputDirectory, String errorText,
+			boolean compileErrors, boolean testErrors) {
+		this(outputDirectory, errorText, compileErrors, testErrors, false);
+	}
+	
+	/**
+	 * Create a result of a build that was not executed by Maven.
+	 * 
+	 * @param outputDirectory build directory
+	 * @param errorText error messages or null if build succeeded
+	 * @param compileErrors true if the errors were caused by the compiler
+	 * @param testErrors true if the errors were caused by failing tests
+	 * @param timedOut true if the build was aborted for exceeding a limit
+	 */
+	public OunitResult(String outputDirectory, String errorText,
+			boolean compileErrors, boolean testErrors, boolean timedOut) {
+		this.timedOut = timedOut;
+		this.outputDirectory = outputDirectory;
+		this.errorText = errorText;
+		this.errors = errorText != null;
+		this.compileErrors = errors && compileErrors;
+		this.testErrors = errors && testErrors;
 	}
 
 	public boolean hasErrors() {
-		return r.hasExceptions();
+		return errors;
 	}
 	
 	public boolean hasCompileErrors() {
-		if(r.hasExceptions()) {
-			for(Throwable t: r.getExceptions()) {
-				if(t.getCause() != null) {
-					t = t.getCause();
-					String s = t.getClass().getCanonicalName();
-					if(s.contains("CompilationFailureException"))
-						return true;	
-				}
+		return compileErrors;
+	}
+	
+	public boolean hasTestErrors() {
+		return testErrors;
+	}
+	
+	/**
+	 * @return true if the build was aborted because it exceeded
+	 *         a time limit or was cancelled
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	public String getErrors() {
+		return errorText;
+	}
+
+	public String getOutputDirectory() {
+		return outputDirectory;
+	}
+	
+	private static boolean hasCompileErrors(MavenExecutionResult r) {
+		for(Throwable t: r.getExceptions()) {
+			if(t.getCause() != null) {
+				t = t.getCause();
+				String s = t.getClass().getCanonicalName();
+				if(s.contains("CompilationFailureException"))
+					return true;	
 			}
 		}
 		return false;
 	}
 	
-	public boolean hasTestErrors() {
-		if(r.hasExceptions()) {
-			for(Throwable t: r.getExceptions()) {
-				if(t.getCause() != null)
-					t = t.getCause();
-				if(t instanceof MojoFailureException) {
-					String s = t.getMessage();
-					if(s != null && s.contains("test failures"))
-						return true;
-				}
+	private static boolean hasTestErrors(MavenExecutionResult r) {
+		for(Throwable t: r.getExceptions()) {
+			if(t.getCause() != null)
+				t = t.getCause();
+			if(t instanceof MojoFailureException) {
+				String s = t.getMessage();
+				if(s != null && s.contains("test failures"))
+					return true;
 			}
 		}
 		return false;
 	}
 	
-	public String getErrors() {
-		if(!hasErrors()) return null;
+	private static String getErrors(MavenExecutionResult r) {
 		String rv = "";
 		
 		for(Throwable t: r.getExceptions()) {
@@ -85,12 +168,4 @@ public class OunitResult {
 		}	
 		return rv;
 	}
-
-	public String getOutputDirectory() {
-		try {
-			return r.getProject().getBuild().getDirectory();
-		} catch(NullPointerException e) {
-			return null;
-		}
-	}
 }
@@ -21,10 +21,24 @@
 
 package com.googlecode.ounit.executor;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.FutureTask;
 
-public class OunitTask extends FutureTask<OunitResult> {
+public class OunitTask extends FutureTask<OunitResult>
+		implements Comparable<OunitTask> {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	private List<OunitTaskListener> listeners = new ArrayList<OunitTaskListener>();
+	private final OunitExecutionRequest request;
+	
+	/* Queue position, assigned by the executor */
+	int rank;
+	long seq;
+	/* Timestamps for statistics, assigned by the executor */
+	long submitted;
+	long started;
+
 	public OunitTask(final OunitExecutionRequest r) {
 		super(new Callable<OunitResult>() {
 			public OunitResult call() throws Exception {
@@ -32,5 +46,86 @@ public class OunitTask extends FutureTask<OunitResult> {
 				return e.execute(r);
 			}
 		});
+		this.request = r;
+	}
+	
+	public OunitExecutionRequest getRequest() {
+		return request;
+	}
+	
+	/**
+	 * @return latest output of the build or null if it is not running
+	 * @see OunitWorker#getLogTail(OunitExecutionRequest)
+	 */
+	public String getLogTail() {
+		return OunitWorker.getInstance().getLogTail(request);
+	}
+	
+	/**
+	 * Order by priority, then by number of builds the same owner
+	 * had queued at submission and finally by submission order.
+	 */
+	public int compareTo(OunitTask o) {
+		int c = request.getPriority().compareTo(o.request.getPriority());
+		if(c != 0)
+			return c;
+		if(rank != o.rank)
+			return rank < o.rank ? -1 : 1;
+		if(seq != o.seq)
+			return seq < o.seq ? -1 : 1;
+		return 0;
+	}
+	
+	/**
+	 * Register a listener to be notified when the task completes.
+	 * If the task has already completed the listener is called
+	 * immediately from the current thread.
+	 * 
+	 * @param l listener
+	 * @return this task for chaining
+	 */
+	public OunitTask addListener(OunitTaskListener l) {
+		synchronized (this) {
+			if(listeners != null) {
+				listeners.add(l);
+				return this;
+			}
+		}
+		fire(l);
+		
+		return this;
+	}
+	
+	/**
+	 * Cancel the task. If the build is already running and
+	 * <code>mayInterruptIfRunning</code> is set it is aborted
+	 * along with any processes it has forked.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean rv = super.cancel(mayInterruptIfRunning);
+		if(rv && mayInterruptIfRunning)
+			OunitWorker.getInstance().abort(request, "Build was cancelled");
+		
+		return rv;
+	}
+	
+	@Override
+	protected void done() {
+		List<OunitTaskListener> l;
+		synchronized (this) {
+			l = listeners;
+			listeners = null;
+		}
+		for(OunitTaskListener i: l)
+			fire(i);
+	}
+	
+	private void fire(OunitTaskListener l) {
+		try {
+			l.taskDone(this);
+		} catch(RuntimeException e) {
+			log.warn("Task listener failed", e);
+		}
 	}
 }
@@ -22,26 +22,48 @@
 package com.googlecode.ounit.executor;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.maven.cli.PrintStreamLogger;
 import org.apache.maven.cli.PrintStreamLogger2.Provider;
 
 /**
  * Implements a thread safe worker object factory 
- * that can be used to execute the test requests. 
+ * that can be used to execute the test requests.
+ * Builds are executed by engines checked out from a
+ * {@link MavenRunnerPool} so concurrent requests never share
+ * a Plexus container.
  * 
  * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
  *
  */
 public class OunitWorker implements Provider {
+	private static final org.slf4j.Logger slog = org.slf4j.LoggerFactory.getLogger(OunitWorker.class);
 	private static OunitWorker instance = null;
-	private MavenRunner mvn;
+	private MavenRunnerPool pool;
+	private FastPathRunner fastPath;
+	private volatile WarmJvmPool jvmPool = null;
+	/* Heap limit of worker JVMs in megabytes, guarded by this */
+	private int jvmMemory = 0;
+	private volatile RemoteWorkerPool remotePool = null;
+	private volatile File localRepository = null;
+	private final ConcurrentHashMap<OunitExecutionRequest, BuildWatchdog> running =
+		new ConcurrentHashMap<OunitExecutionRequest, BuildWatchdog>();
+	private final ConcurrentHashMap<OunitExecutionRequest, BuildLog> logs =
+		new ConcurrentHashMap<OunitExecutionRequest, BuildLog>();
 	private ThreadLocal<PrintStream> log;
 	
-	private OunitWorker() throws Exception {
-		mvn = new MavenRunner( new PrintStreamLogger( this ) );
+	private OunitWorker() {
+		pool = new MavenRunnerPool( this );
+		fastPath = new FastPathRunner( this );
 		log = new ThreadLocal<PrintStream>() {
 			@Override
 			protected PrintStream initialValue() {
@@ -54,26 +76,274 @@ public class OunitWorker implements Provider {
 		return log.get();
 	}
 
-	public static OunitWorker getInstance() throws Exception {
+	public static synchronized OunitWorker getInstance() {
 		if(instance == null)
 			instance = new OunitWorker();
 		
 		return instance;
 	}
 	
-	public OunitResult execute(OunitExecutionRequest r) throws FileNotFoundException {
-		File logFile = r.getLogFile();
-		if(logFile != null)
-			log.set( new PrintStream(logFile) );
+	public MavenRunnerPool getPool() {
+		return pool;
+	}
+	
+	public FastPathRunner getFastPath() {
+		return fastPath;
+	}
+	
+	public File getLocalRepository() {
+		return localRepository;
+	}
+	
+	/**
+	 * Use a dedicated local repository for all builds. Call before
+	 * {@link #setForkedJvms(int)} as worker JVMs keep the repository
+	 * they were started with.
+	 * 
+	 * @param localRepository repository directory, null for the
+	 *        Maven default
+	 * @see OunitExecutionRequest#setOffline(boolean)
+	 */
+	public void setLocalRepository(File localRepository) {
+		this.localRepository = localRepository;
+		if(localRepository != null) {
+			localRepository.mkdirs();
+			fastPath.setLocalRepository(localRepository);
+		}
+	}
+	
+	/**
+	 * Run fast path builds in pre-started worker JVMs. Without them
+	 * fast path builds go through Maven.
+	 * 
+	 * @param n number of idle worker JVMs to keep ready, 0 disables
+	 * @see WarmJvmPool
+	 */
+	public void setForkedJvms(int n) {
+		setForkedJvms(n, 0);
+	}
+	
+	/**
+	 * Run fast path builds in pre-started worker JVMs with a limited heap.
+	 * Builds requesting a different limit go through Maven.
+	 * 
+	 * @param n number of idle worker JVMs to keep ready, 0 disables
+	 * @param maxMemory maximum heap of worker JVMs in megabytes,
+	 *        0 for the JVM default
+	 * @see OunitExecutionRequest#setMaxMemory(int)
+	 */
+	public synchronized void setForkedJvms(int n, int maxMemory) {
+		if(jvmPool != null) {
+			jvmPool.shutdown();
+			jvmPool = null;
+		}
 		
-		OunitResult res = new OunitResult(mvn.execute(r.getBaseDirectory(),
-				MavenRunner.DEFAULT_GOAL, r.getOutputDirectory()));
+		if(n > 0) {
+			List<String> args = new ArrayList<String>(
+					Arrays.asList("-Xshare:auto", "-XX:+UseSerialGC"));
+			if(maxMemory > 0)
+				args.add("-Xmx" + maxMemory + "m");
+			WarmJvmPool p = new WarmJvmPool(n, fastPath.getLocalRepository(),
+					args);
+			p.setTestTimeout(fastPath.getTestTimeout());
+			p.fill();
+			jvmMemory = maxMemory;
+			jvmPool = p;
+		}
+	}
+	
+	public WarmJvmPool getJvmPool() {
+		return jvmPool;
+	}
+	
+	/**
+	 * Dispatch builds to remote workers. Builds run locally if no
+	 * worker is able to take them.
+	 * 
+	 * @param addresses worker addresses in <code>host:port</code> form,
+	 *        empty list disables remote builds
+	 * @param secret secret shared with the workers
+	 * @see RemoteWorkerServer
+	 */
+	public synchronized void setRemoteWorkers(List<String> addresses,
+			String secret) {
+		if(remotePool != null) {
+			remotePool.shutdown();
+			remotePool = null;
+		}
 		
+		if(!addresses.isEmpty()) {
+			RemoteWorkerPool p = new RemoteWorkerPool(addresses, secret);
+			p.startHealthChecks(RemoteWorkerPool.DEFAULT_CHECK_INTERVAL);
+			remotePool = p;
+		}
+	}
+	
+	public RemoteWorkerPool getRemotePool() {
+		return remotePool;
+	}
+	
+	/**
+	 * Execute a build on the current thread.
+	 * 
+	 * @param r build request
+	 * @return result of the build, a timed out result if the build
+	 *         exceeded it's limits or was aborted
+	 * @throws Exception if the build could not be executed
+	 */
+	public OunitResult execute(OunitExecutionRequest r) throws Exception {
+		File logFile = r.getLogFile();
 		if(logFile != null) {
-			log.get().close();
-			log.set( System.out );
+			BuildLog buildLog = new BuildLog(logFile, r.isCompressLog());
+			OutputStream os = buildLog;
+			if(r.getMaxOutput() > 0)
+				os = new BoundedOutputStream(os, r.getMaxOutput());
+			log.set( new PrintStream(os) );
+			logs.put(r, buildLog);
+		}
+		
+		BuildWatchdog dog = new BuildWatchdog(r, Thread.currentThread());
+		running.put(r, dog);
+		dog.start();
+		try {
+			OunitResult rv = build(r, dog);
+			return dog.isTriggered() ? dog.getResult() : rv;
+		} catch(Exception e) {
+			if(dog.isTriggered())
+				return dog.getResult();
+			throw e;
+		} finally {
+			dog.stop();
+			running.remove(r);
+			/* Do not leak the interrupt of an aborted build to the pool */
+			if(dog.isTriggered())
+				Thread.interrupted();
+			
+			if(logFile != null) {
+				log.get().close();
+				log.set( System.out );
+				logs.remove(r);
+			}
+		}
+	}
+	
+	/**
+	 * Abort a running build, killing any processes it has forked.
+	 * 
+	 * @param r request of the build
+	 * @param reason message to report as the build error
+	 */
+	public void abort(OunitExecutionRequest r, String reason) {
+		BuildWatchdog dog = running.get(r);
+		if(dog != null)
+			dog.abort(reason);
+	}
+	
+	/**
+	 * Get the latest output of a running build.
+	 * 
+	 * @param r request of the build
+	 * @return end of the build log or null if the build is not running
+	 *         or does not have a log file
+	 */
+	public String getLogTail(OunitExecutionRequest r) {
+		BuildLog l = logs.get(r);
+		return (l == null) ? null : l.getTail();
+	}
+	
+	private OunitResult build(OunitExecutionRequest r, BuildWatchdog dog)
+			throws Exception {
+		RemoteWorkerPool remote = remotePool;
+		if(remote != null) {
+			try {
+				return remote.execute(r, log.get());
+			} catch(IOException e) {
+				if(dog.isTriggered())
+					throw e;
+				slog.warn("Remote build failed, building locally", e);
+			}
+		}
+		
+		if(r.isFastPath()) {
+			OunitResult rv = executeFastPath(r);
+			if(rv != null || dog.isTriggered())
+				return rv;
+		}
+		
+		MavenRunner mvn = pool.acquire();
+		try {
+			mvn.setLocalRepository(localRepository);
+			mvn.setOffline(r.isOffline());
+			mvn.setLogLevel(r.getLogLevel());
+			return new OunitResult(mvn.execute(r.getBaseDirectory(),
+					MavenRunner.DEFAULT_GOAL, r.getOutputDirectory(), getUserProperties(r)));
+		} finally {
+			pool.release(mvn);
+		}
+	}
+	
+	/**
+	 * Pass limits to the plugins forking processes.
+	 * See <code>baseProfiles.xml</code>.
+	 */
+	private static Properties getUserProperties(OunitExecutionRequest r) {
+		Properties p = new Properties();
+		if(r.getTimeout() > 0)
+			p.setProperty(MavenRunner.FORK_TIMEOUT_PROPERTY,
+					String.valueOf(r.getTimeout()));
+		if(r.getMaxMemory() > 0)
+			p.setProperty(MavenRunner.FORK_ARGS_PROPERTY,
+					"-Xmx" + r.getMaxMemory() + "m");
+		return p;
+	}
+	
+	private OunitResult executeFastPath(OunitExecutionRequest r) {
+		WarmJvmPool p;
+		int memory;
+		synchronized (this) {
+			p = jvmPool;
+			memory = jvmMemory;
+		}
+		if(p == null)
+			/* Student code is never run in the server JVM */
+			return null;
+		if(r.getMaxMemory() != memory)
+			/* Maven forks the tests with the requested heap limit */
+			return null;
+		
+		/* Worker JVM writes a file of it's own, it is copied to our log */
+		File jvmLog = (r.getLogFile() == null) ? null
+				: new File(r.getLogFile().getPath() + ".jvm");
+		try {
+			return p.execute(r.getBaseDirectory(), r.getOutputDirectory(),
+					jvmLog, r.getCpuTimeLimit());
+		} catch(IOException e) {
+			slog.warn("Worker JVM failed, falling back to Maven", e);
+			return null;
+		} finally {
+			if(jvmLog != null) {
+				copyLog(jvmLog, log.get());
+				jvmLog.delete();
+			}
+		}
+	}
+	
+	private static void copyLog(File f, PrintStream out) {
+		if(!f.isFile())
+			return;
+		
+		try {
+			InputStream in = new FileInputStream(f);
+			try {
+				byte [] buf = new byte[8192];
+				int n;
+				while((n = in.read(buf)) > 0)
+					out.write(buf, 0, n);
+			} finally {
+				in.close();
+			}
+		} catch(IOException e) {
+			slog.warn("Failed to copy worker JVM log " + f, e);
 		}
-
-		return res;
 	}
 }
@@ -0,0 +1,225 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Wire format shared by {@link RemoteWorkerServer} and
+ * {@link RemoteWorkerPool}.
+ * <p>
+ * Every connection starts with a challenge: the worker sends a random
+ * nonce and the client must answer with its HMAC keyed by the shared
+ * secret. The connection then carries a single command. <code>PING</code>
+ * is answered with the number of running builds and the capacity of the
+ * worker. <code>BUILD</code> is followed by the request properties and a
+ * zip of the project. The worker answers with a stream of frames: a start
+ * frame once the build has a slot, log output while the build is running
+ * (empty frames keep an idle connection alive), then the result properties
+ * and a zip of the build output.
+ * </p>
+ */
+final class RemoteProtocol {
+	static final String PING  = "PING";
+	static final String BUILD = "BUILD";
+	
+	static final byte FRAME_START  = 'S';
+	static final byte FRAME_LOG    = 'L';
+	static final byte FRAME_RESULT = 'R';
+	static final byte FRAME_OUTPUT = 'Z';
+	
+	static final String FAST_PATH        = "fastPath";
+	static final String HAS_OUTPUT_DIR   = "hasOutputDirectory";
+	static final String ERRORS           = "errors";
+	static final String COMPILE_ERRORS   = "compileErrors";
+	static final String TEST_ERRORS      = "testErrors";
+	static final String TIMED_OUT        = "timedOut";
+	static final String TIMEOUT          = "timeout";
+	static final String CPU_TIME_LIMIT   = "cpuTimeLimit";
+	static final String MAX_MEMORY       = "maxMemory";
+	static final String MAX_OUTPUT       = "maxOutput";
+	static final String LOG_LEVEL        = "logLevel";
+	
+	static final int NONCE_LENGTH = 16;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	
+	/* Directories that are never shipped with a project */
+	private static final String [] EXCLUDES = { "target", ".git" };
+	
+	private RemoteProtocol() {
+	}
+	
+	/**
+	 * Answer to an authentication challenge.
+	 * 
+	 * @param secret secret shared by the workers and their clients
+	 * @param nonce challenge sent by the worker
+	 */
+	static byte [] sign(String secret, byte [] nonce) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret.getBytes("UTF-8"), MAC_ALGORITHM));
+			return mac.doFinal(nonce);
+		} catch(GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		} catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	static void writeProperties(DataOutputStream out, Properties p)
+			throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		p.store(os, null);
+		writeBytes(out, os.toByteArray());
+	}
+	
+	static Properties readProperties(DataInputStream in) throws IOException {
+		Properties p = new Properties();
+		p.load(new ByteArrayInputStream(readBytes(in)));
+		return p;
+	}
+	
+	static void writeBytes(DataOutputStream out, byte [] b)
+			throws IOException {
+		out.writeInt(b.length);
+		out.write(b);
+	}
+	
+	static byte [] readBytes(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if(n < 0)
+			throw new IOException("Corrupt frame");
+		byte [] b = new byte[n];
+		in.readFully(b);
+		return b;
+	}
+	
+	/**
+	 * Zip a directory.
+	 * 
+	 * @param dir directory, may be missing
+	 * @param excludeBuild skip build output and SCM metadata
+	 */
+	static byte [] zip(File dir, boolean excludeBuild) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		ZipOutputStream zip = new ZipOutputStream(os);
+		if(dir.isDirectory())
+			zip(zip, dir, "", excludeBuild);
+		zip.close();
+		
+		return os.toByteArray();
+	}
+	
+	private static void zip(ZipOutputStream zip, File dir, String prefix,
+			boolean excludeBuild) throws IOException {
+		File [] files = dir.listFiles();
+		if(files == null)
+			return;
+		
+		for(File f: files) {
+			String name = prefix + f.getName();
+			if(f.isDirectory()) {
+				if(excludeBuild && prefix.isEmpty() && isExcluded(f.getName()))
+					continue;
+				zip.putNextEntry(new ZipEntry(name + "/"));
+				zip.closeEntry();
+				zip(zip, f, name + "/", excludeBuild);
+			} else {
+				ZipEntry e = new ZipEntry(name);
+				e.setTime(f.lastModified());
+				zip.putNextEntry(e);
+				InputStream in = new FileInputStream(f);
+				try {
+					copy(in, zip);
+				} finally {
+					in.close();
+				}
+				zip.closeEntry();
+			}
+		}
+	}
+	
+	private static boolean isExcluded(String name) {
+		for(String s: EXCLUDES)
+			if(s.equals(name))
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Extract a zip into a directory.
+	 * 
+	 * @throws IOException if an entry points outside of the directory
+	 */
+	static void unzip(byte [] data, File dir) throws IOException {
+		String root = dir.getCanonicalPath() + File.separator;
+		ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(data));
+		ZipEntry e;
+		while((e = zip.getNextEntry()) != null) {
+			File f = new File(dir, e.getName());
+			if(!(f.getCanonicalPath() + File.separator).startsWith(root))
+				throw new IOException("Illegal zip entry " + e.getName());
+			
+			if(e.isDirectory()) {
+				f.mkdirs();
+				continue;
+			}
+			
+			f.getParentFile().mkdirs();
+			OutputStream out = new FileOutputStream(f);
+			try {
+				copy(zip, out);
+			} finally {
+				out.close();
+			}
+			if(e.getTime() > 0)
+				f.setLastModified(e.getTime());
+		}
+		zip.close();
+	}
+	
+	private static void copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte [] buf = new byte[8192];
+		int n;
+		while((n = in.read(buf)) >= 0)
+			out.write(buf, 0, n);
+	}
+}
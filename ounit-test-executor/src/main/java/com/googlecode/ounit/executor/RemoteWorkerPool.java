@@ -0,0 +1,343 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static com.googlecode.ounit.executor.RemoteProtocol.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dispatches builds to {@link RemoteWorkerServer}s on other hosts.
+ * <p>
+ * A build goes to the healthy worker with the lowest load, as reported by
+ * the last health check plus the builds this pool has sent it since.
+ * Workers that fail to answer are taken out of rotation until a health
+ * check succeeds again. A build is re-dispatched to another worker only if
+ * it never started, a build lost after it has started is reported as
+ * failed rather than run twice.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class RemoteWorkerPool {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	public static final int CONNECT_TIMEOUT = 5000;
+	public static final int DEFAULT_READ_TIMEOUT = 600000;
+	public static final long DEFAULT_CHECK_INTERVAL = 10000;
+	
+	static class Worker {
+		final String host;
+		final int port;
+		final AtomicInteger inFlight = new AtomicInteger();
+		volatile boolean healthy = true;
+		volatile int active = 0;
+		volatile int capacity = 1;
+		
+		Worker(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+		
+		double getLoad() {
+			return (double) (active + inFlight.get()) / capacity;
+		}
+		
+		@Override
+		public String toString() {
+			return host + ":" + port;
+		}
+	}
+	
+	private final List<Worker> workers = new ArrayList<Worker>();
+	private final String secret;
+	private int readTimeout = DEFAULT_READ_TIMEOUT;
+	private volatile Thread checker = null;
+	
+	/**
+	 * @param addresses worker addresses in <code>host:port</code> form
+	 * @param secret secret shared with the workers
+	 */
+	public RemoteWorkerPool(List<String> addresses, String secret) {
+		if(secret == null || secret.isEmpty())
+			throw new IllegalArgumentException("Remote workers require a shared secret");
+		this.secret = secret;
+		
+		for(String a: addresses) {
+			int i = a.lastIndexOf(':');
+			if(i < 0)
+				throw new IllegalArgumentException("Worker address "
+						+ a + " does not specify a port");
+			workers.add(new Worker(a.substring(0, i).trim(),
+					Integer.parseInt(a.substring(i + 1).trim())));
+		}
+	}
+	
+	/**
+	 * @param readTimeout milliseconds a worker may stay silent before
+	 *        it is considered dead
+	 */
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+	
+	/**
+	 * Check all workers periodically on a background thread.
+	 * 
+	 * @param interval milliseconds between checks
+	 */
+	public synchronized void startHealthChecks(final long interval) {
+		if(checker != null)
+			return;
+		
+		checker = new Thread("ounit-worker-health") {
+			@Override
+			public void run() {
+				while(checker == this) {
+					checkAll();
+					try {
+						Thread.sleep(interval);
+					} catch(InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		checker.setDaemon(true);
+		checker.start();
+	}
+	
+	public synchronized void shutdown() {
+		if(checker != null) {
+			checker.interrupt();
+			checker = null;
+		}
+	}
+	
+	/**
+	 * Ping all workers and update their health and load.
+	 */
+	public void checkAll() {
+		for(Worker w: workers)
+			ping(w);
+	}
+	
+	/**
+	 * @return number of workers that answered the last health check
+	 */
+	public int getHealthyCount() {
+		int n = 0;
+		for(Worker w: workers)
+			if(w.healthy)
+				n++;
+		return n;
+	}
+	
+	/**
+	 * Run a build on a remote worker. The project is shipped without
+	 * it's build directory and the build output is unpacked over the
+	 * local one.
+	 * 
+	 * @param r build request
+	 * @param buildLog stream to copy the build log to
+	 * @return result of the build, a failure if the worker was lost
+	 *         while building
+	 * @throws IOException if no worker was able to start the build
+	 */
+	public OunitResult execute(OunitExecutionRequest r, PrintStream buildLog)
+			throws IOException {
+		byte [] project = zip(r.getBaseDirectory(), true);
+		File outDir = r.getOutputDirectory() != null
+				? new File(r.getOutputDirectory())
+				: new File(r.getBaseDirectory(), "target");
+		
+		Set<Worker> tried = new HashSet<Worker>();
+		IOException last = null;
+		Worker w;
+		while((w = pick(tried)) != null) {
+			tried.add(w);
+			w.inFlight.incrementAndGet();
+			try {
+				return dispatch(w, r, project, outDir, buildLog);
+			} catch(IOException e) {
+				log.warn("Worker {} failed, re-dispatching build: {}", w,
+						e.getMessage());
+				w.healthy = false;
+				last = e;
+			} finally {
+				w.inFlight.decrementAndGet();
+			}
+		}
+		
+		throw new IOException("No remote worker was able to run the build", last);
+	}
+	
+	private Worker pick(Set<Worker> tried) {
+		Worker rv = null;
+		for(Worker w: workers) {
+			if(!w.healthy || tried.contains(w))
+				continue;
+			if(rv == null || w.getLoad() < rv.getLoad())
+				rv = w;
+		}
+		return rv;
+	}
+	
+	/* Connect and answer the challenge of a worker */
+	private Socket connect(Worker w) throws IOException {
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(w.host, w.port), CONNECT_TIMEOUT);
+			s.setSoTimeout(CONNECT_TIMEOUT);
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			byte [] nonce = new byte[NONCE_LENGTH];
+			in.readFully(nonce);
+			s.getOutputStream().write(sign(secret, nonce));
+		} catch(IOException e) {
+			s.close();
+			throw e;
+		}
+		return s;
+	}
+	
+	private boolean ping(Worker w) {
+		Socket s = null;
+		try {
+			s = connect(w);
+			DataOutputStream out = new DataOutputStream(s.getOutputStream());
+			out.writeUTF(PING);
+			out.flush();
+			DataInputStream in = new DataInputStream(s.getInputStream());
+			w.active = in.readInt();
+			w.capacity = Math.max(1, in.readInt());
+			if(!w.healthy)
+				log.info("Worker {} is back", w);
+			w.healthy = true;
+		} catch(IOException e) {
+			if(w.healthy)
+				log.warn("Worker {} is not responding: {}", w, e.getMessage());
+			w.healthy = false;
+		} finally {
+			try {
+				if(s != null)
+					s.close();
+			} catch(IOException e) {
+			}
+		}
+		return w.healthy;
+	}
+	
+	private OunitResult dispatch(Worker w, OunitExecutionRequest r,
+			byte [] project, File outDir, PrintStream buildLog)
+			throws IOException {
+		log.debug("Dispatching build of {} to {}", r.getBaseDirectory(), w);
+		
+		Socket s = connect(w);
+		try {
+			s.setSoTimeout(readTimeout);
+			DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(s.getOutputStream()));
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(s.getInputStream()));
+			
+			Properties p = new Properties();
+			p.setProperty(FAST_PATH, String.valueOf(r.isFastPath()));
+			p.setProperty(HAS_OUTPUT_DIR,
+					String.valueOf(r.getOutputDirectory() != null));
+			p.setProperty(TIMEOUT, String.valueOf(r.getTimeout()));
+			p.setProperty(CPU_TIME_LIMIT, String.valueOf(r.getCpuTimeLimit()));
+			p.setProperty(MAX_MEMORY, String.valueOf(r.getMaxMemory()));
+			p.setProperty(MAX_OUTPUT, String.valueOf(r.getMaxOutput()));
+			p.setProperty(LOG_LEVEL, String.valueOf(r.getLogLevel()));
+			out.writeUTF(BUILD);
+			writeProperties(out, p);
+			writeBytes(out, project);
+			out.flush();
+			
+			if(in.readByte() != FRAME_START)
+				throw new IOException("Worker did not start the build");
+			
+			/* The build is running, sending it elsewhere would run it twice */
+			try {
+				return receive(in, outDir, buildLog);
+			} catch(IOException e) {
+				log.warn("Lost build of {} on worker {}: {}", new Object[] {
+						r.getBaseDirectory(), w, e.getMessage() });
+				return new OunitResult(outDir.getAbsolutePath(),
+						"Connection to build worker " + w + " was lost: "
+						+ e.getMessage() + "\n", false);
+			}
+		} finally {
+			try {
+				s.close();
+			} catch(IOException e) {
+			}
+		}
+	}
+	
+	private static OunitResult receive(DataInputStream in, File outDir,
+			PrintStream buildLog) throws IOException {
+		Properties rv = null;
+		while(true) {
+			byte type = in.readByte();
+			if(type == FRAME_LOG) {
+				byte [] b = readBytes(in);
+				if(buildLog != null)
+					buildLog.write(b, 0, b.length);
+			} else if(type == FRAME_RESULT) {
+				rv = readProperties(in);
+			} else if(type == FRAME_OUTPUT) {
+				byte [] b = readBytes(in);
+				if(rv == null)
+					throw new IOException("Build output without result");
+				outDir.mkdirs();
+				unzip(b, outDir);
+				break;
+			} else {
+				throw new IOException("Unknown frame " + type);
+			}
+		}
+		if(buildLog != null)
+			buildLog.flush();
+		
+		return new OunitResult(outDir.getAbsolutePath(),
+				rv.getProperty(ERRORS),
+				Boolean.parseBoolean(rv.getProperty(COMPILE_ERRORS)),
+				Boolean.parseBoolean(rv.getProperty(TEST_ERRORS)),
+				Boolean.parseBoolean(rv.getProperty(TIMED_OUT)));
+	}
+}
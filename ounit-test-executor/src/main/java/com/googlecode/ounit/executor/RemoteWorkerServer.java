@@ -0,0 +1,389 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static com.googlecode.ounit.executor.RemoteProtocol.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.googlecode.ounit.maven.SetupStudentMojo;
+
+/**
+ * Executes builds on behalf of a {@link RemoteWorkerPool}.
+ * <p>
+ * Every job is unpacked into a private directory, built by the local
+ * {@link OunitWorker} and removed afterwards. Build log is streamed back
+ * while the build is running. The worker accepts arbitrary builds, so it
+ * listens on the loopback interface unless told otherwise and only serves
+ * clients that prove knowledge of the shared secret.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class RemoteWorkerServer {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	public static final String SECRET_PROPERTY = "ounit.workersecret";
+	public static final String BIND_PROPERTY = "ounit.workerbind";
+	public static final String MEMORY_PROPERTY = "ounit.buildmemory";
+	
+	/* How often the build log is checked for new output */
+	static final long LOG_POLL_INTERVAL = 200;
+	/* Idle connections are kept alive this often */
+	static final long HEARTBEAT_INTERVAL = 10000;
+	/* Milliseconds a client has to answer the challenge */
+	static final int AUTH_TIMEOUT = 5000;
+	
+	private final ServerSocket socket;
+	private final String secret;
+	private final SecureRandom random = new SecureRandom();
+	private final File workDir;
+	private final int capacity;
+	private final Semaphore slots;
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong jobs = new AtomicLong();
+	private final ExecutorService connections = Executors.newCachedThreadPool();
+	private volatile boolean running = true;
+	
+	/**
+	 * Listen on the loopback interface.
+	 * 
+	 * @see #RemoteWorkerServer(InetAddress, int, int, File, String)
+	 */
+	public RemoteWorkerServer(int port, int capacity, File workDir,
+			String secret) throws IOException {
+		this(InetAddress.getByName(null), port, capacity, workDir, secret);
+	}
+	
+	/**
+	 * @param bindAddress address to listen on
+	 * @param port TCP port to listen on, 0 for any free port
+	 * @param capacity number of builds to run concurrently
+	 * @param workDir directory for job workspaces
+	 * @param secret secret shared with the clients
+	 */
+	public RemoteWorkerServer(InetAddress bindAddress, int port, int capacity,
+			File workDir, String secret) throws IOException {
+		if(secret == null || secret.isEmpty())
+			throw new IllegalArgumentException("Remote workers require a shared secret");
+		
+		this.socket = new ServerSocket(port, 0, bindAddress);
+		this.secret = secret;
+		this.capacity = capacity;
+		this.slots = new Semaphore(capacity, true);
+		this.workDir = workDir;
+		workDir.mkdirs();
+		
+		MavenRunnerPool pool = OunitWorker.getInstance().getPool();
+		pool.ensureCapacity(capacity);
+		pool.warmUpAsync();
+	}
+	
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+	
+	public int getActiveCount() {
+		return active.get();
+	}
+	
+	/**
+	 * Accept connections on a background thread.
+	 */
+	public void start() {
+		Thread t = new Thread("ounit-remote-worker") {
+			@Override
+			public void run() {
+				serve();
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * Accept connections until {@link #stop()} is called.
+	 */
+	public void serve() {
+		log.info("Accepting builds on {}", socket.getLocalSocketAddress());
+		while(running) {
+			final Socket s;
+			try {
+				s = socket.accept();
+			} catch(IOException e) {
+				if(running)
+					log.warn("Failed to accept connection", e);
+				continue;
+			}
+			
+			connections.execute(new Runnable() {
+				public void run() {
+					try {
+						handle(s);
+					} catch(Exception e) {
+						log.warn("Failed to serve " + s.getRemoteSocketAddress(), e);
+					} finally {
+						try {
+							s.close();
+						} catch(IOException e) {
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	public void stop() {
+		running = false;
+		try {
+			socket.close();
+		} catch(IOException e) {
+		}
+		connections.shutdownNow();
+	}
+	
+	private void handle(Socket s) throws Exception {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(s.getInputStream()));
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(s.getOutputStream()));
+		
+		byte [] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+		out.write(nonce);
+		out.flush();
+		
+		byte [] expected = sign(secret, nonce);
+		byte [] answer = new byte[expected.length];
+		s.setSoTimeout(AUTH_TIMEOUT);
+		in.readFully(answer);
+		if(!MessageDigest.isEqual(expected, answer))
+			throw new IOException("Authentication failed");
+		s.setSoTimeout(0);
+		
+		String cmd = in.readUTF();
+		if(PING.equals(cmd)) {
+			out.writeInt(active.get());
+			out.writeInt(capacity);
+			out.flush();
+		} else if(BUILD.equals(cmd)) {
+			Properties p = readProperties(in);
+			byte [] project = readBytes(in);
+			
+			slots.acquire();
+			active.incrementAndGet();
+			try {
+				build(p, project, out);
+			} finally {
+				active.decrementAndGet();
+				slots.release();
+			}
+		} else {
+			throw new IOException("Unknown command " + cmd);
+		}
+	}
+	
+	private void build(Properties p, byte [] project, DataOutputStream out)
+			throws Exception {
+		File ws = new File(workDir, "job-" + jobs.incrementAndGet());
+		File base = new File(ws, "base");
+		File outDir = new File(ws, "out");
+		File logFile = new File(ws, "build.log");
+		boolean hasOutputDir = Boolean.parseBoolean(p.getProperty(HAS_OUTPUT_DIR));
+		
+		final OunitExecutionRequest r = new OunitExecutionRequest()
+			.setBaseDirectory(base)
+			.setLogFile(logFile)
+			.setFastPath(Boolean.parseBoolean(p.getProperty(FAST_PATH)))
+			.setTimeout(Integer.parseInt(p.getProperty(TIMEOUT, "0")))
+			.setCpuTimeLimit(Integer.parseInt(p.getProperty(CPU_TIME_LIMIT, "0")))
+			.setMaxMemory(Integer.parseInt(p.getProperty(MAX_MEMORY, "0")))
+			.setMaxOutput(Long.parseLong(p.getProperty(MAX_OUTPUT, "0")))
+			.setLogLevel(Integer.parseInt(p.getProperty(LOG_LEVEL,
+					String.valueOf(OunitExecutionRequest.LOG_INFO))));
+		if(hasOutputDir)
+			r.setOutputDirectory(outDir.getAbsolutePath());
+		
+		Thread t = null;
+		try {
+			SetupStudentMojo.deleteDirectory(ws);
+			base.mkdirs();
+			unzip(project, base);
+			
+			/* Tell the client the build is running and must not be re-sent */
+			out.writeByte(FRAME_START);
+			out.flush();
+			
+			FutureTask<OunitResult> task = new FutureTask<OunitResult>(
+					new Callable<OunitResult>() {
+				public OunitResult call() throws Exception {
+					return OunitWorker.getInstance().execute(r);
+				}
+			});
+			t = new Thread(task, "ounit-remote-build");
+			t.setDaemon(true);
+			t.start();
+			
+			/* Stream the log while the build is running */
+			long offset = 0;
+			long lastSent = System.currentTimeMillis();
+			while(true) {
+				boolean done = task.isDone();
+				long n = sendLog(logFile, offset, out);
+				long now = System.currentTimeMillis();
+				if(n > offset) {
+					offset = n;
+					lastSent = now;
+				} else if(now - lastSent >= HEARTBEAT_INTERVAL) {
+					out.writeByte(FRAME_LOG);
+					out.writeInt(0);
+					out.flush();
+					lastSent = now;
+				}
+				if(done)
+					break;
+				try {
+					task.get(LOG_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+				} catch(TimeoutException e) {
+				} catch(ExecutionException e) {
+				}
+			}
+			
+			Properties rv = new Properties();
+			try {
+				OunitResult result = task.get();
+				if(result.getErrors() != null)
+					rv.setProperty(ERRORS, result.getErrors());
+				rv.setProperty(COMPILE_ERRORS, String.valueOf(result.hasCompileErrors()));
+				rv.setProperty(TEST_ERRORS, String.valueOf(result.hasTestErrors()));
+				rv.setProperty(TIMED_OUT, String.valueOf(result.isTimedOut()));
+			} catch(ExecutionException e) {
+				Throwable c = e.getCause();
+				rv.setProperty(ERRORS, c.getClass().getCanonicalName() + ": "
+						+ c.getMessage() + "\n");
+			}
+			out.writeByte(FRAME_RESULT);
+			writeProperties(out, rv);
+			
+			out.writeByte(FRAME_OUTPUT);
+			writeBytes(out, zip(hasOutputDir ? outDir
+					: new File(base, "target"), false));
+			out.flush();
+		} finally {
+			if(t != null)
+				awaitBuild(r, t);
+			SetupStudentMojo.deleteDirectory(ws);
+		}
+	}
+	
+	/**
+	 * Wait for the build thread to let go of the workspace. A build still
+	 * running at this point has lost its client and is aborted.
+	 */
+	private static void awaitBuild(OunitExecutionRequest r, Thread t) {
+		boolean interrupted = false;
+		while(t.isAlive()) {
+			/* Repeated since the build may not have registered itself yet */
+			OunitWorker.getInstance().abort(r, "Connection to the client was lost");
+			try {
+				t.join(LOG_POLL_INTERVAL);
+			} catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private static long sendLog(File logFile, long offset,
+			DataOutputStream out) throws IOException {
+		if(!logFile.isFile() || logFile.length() <= offset)
+			return offset;
+		
+		InputStream in = new FileInputStream(logFile);
+		try {
+			in.skip(offset);
+			byte [] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) > 0) {
+				out.writeByte(FRAME_LOG);
+				out.writeInt(n);
+				out.write(buf, 0, n);
+				offset += n;
+			}
+		} finally {
+			in.close();
+		}
+		out.flush();
+		
+		return offset;
+	}
+	
+	/**
+	 * Start a worker. Arguments: port [capacity [work directory]]
+	 * <p>
+	 * The shared secret is read from the <code>ounit.workersecret</code>
+	 * system property. Set <code>ounit.workerbind</code> to an address
+	 * reachable from the OUnit servers, the default is loopback.
+	 * Set <code>ounit.buildmemory</code> to the same value as on the
+	 * servers, otherwise fast path builds go through Maven.
+	 * </p>
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = Integer.parseInt(args[0]);
+		int capacity = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		File dir = new File(args.length > 2 ? args[2]
+				: System.getProperty("java.io.tmpdir") + "/ounit-worker-" + port);
+		
+		/* Fast path builds only run in worker JVMs */
+		OunitWorker.getInstance().setForkedJvms(capacity,
+				Integer.getInteger(MEMORY_PROPERTY, 0));
+		new RemoteWorkerServer(
+				InetAddress.getByName(System.getProperty(BIND_PROPERTY)),
+				port, capacity, dir, System.getProperty(SECRET_PROPERTY)).serve();
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.ProtectionDomain;
+import java.util.Map;
+
+/**
+ * Class loader for running tests in-process. Classes compiled in memory
+ * are defined in a protection domain of their own, everything else is
+ * loaded from the given URLs. The loader does not delegate to the
+ * application class path so tests can not see the server classes.
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+class TestClassLoader extends URLClassLoader {
+	private final Map<String, byte[]> classes;
+	private final ProtectionDomain domain;
+
+	TestClassLoader(URL[] urls, Map<String, byte[]> classes,
+			ProtectionDomain domain) {
+		super(urls, ClassLoader.getSystemClassLoader().getParent());
+		this.classes = classes;
+		this.domain = domain;
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		byte[] b = classes.get(name);
+		if(b != null)
+			return defineClass(name, b, 0, b.length, domain);
+
+		return super.findClass(name);
+	}
+}
@@ -0,0 +1,325 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static com.googlecode.ounit.executor.ForkedTestWorker.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A pool of pre-started worker JVMs running {@link ForkedTestWorker}.
+ * <p>
+ * Fast path builds executed in a worker JVM do not share the heap,
+ * threads or security manager of the server. Starting a JVM and loading
+ * the compiler takes seconds, so workers are started ahead of time and
+ * wait for a job. Every worker executes a single job and is replaced in
+ * the background, so no state leaks from one student to another.
+ * </p>
+ * 
+ * @author <a href="mailto:anttix@users.sourceforge.net">Antti Andreimann</a>
+ *
+ */
+public class WarmJvmPool {
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	
+	/* Extra time given to the worker on top of the test timeout */
+	public static final int TIMEOUT_MARGIN = 30;
+	
+	private final int size;
+	private final LinkedList<Process> idle = new LinkedList<Process>();
+	private final List<String> command;
+	private int starting = 0;
+	private boolean shutdown = false;
+	private int testTimeout = FastPathRunner.DEFAULT_TEST_TIMEOUT;
+	
+	/**
+	 * @param size number of idle workers to keep ready
+	 * @param localRepository Maven repository dependencies are taken from
+	 * @param jvmArgs extra arguments for worker JVMs
+	 */
+	public WarmJvmPool(int size, File localRepository, List<String> jvmArgs) {
+		this.size = size;
+		
+		command = new ArrayList<String>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"),
+				"java").getPath());
+		command.addAll(jvmArgs);
+		command.add("-Dmaven.repo.local=" + localRepository.getAbsolutePath());
+		command.add("-cp");
+		command.add(classPath());
+		command.add(ForkedTestWorker.class.getName());
+	}
+	
+	/**
+	 * @param testTimeout maximum time in seconds the tests may run
+	 */
+	public synchronized void setTestTimeout(int testTimeout) {
+		this.testTimeout = testTimeout;
+	}
+	
+	/**
+	 * Start workers until there are enough idle ones.
+	 */
+	public void fill() {
+		while(true) {
+			synchronized (this) {
+				if(shutdown || idle.size() + starting >= size)
+					return;
+				starting++;
+			}
+			
+			startAsync();
+		}
+	}
+	
+	/**
+	 * Run a fast path build in a worker JVM.
+	 * 
+	 * @param baseDirectory project directory
+	 * @param outputDirectory build directory, null for default
+	 * @param logFile file to append the build log to or null
+	 * @return results of the build or null if the project is not
+	 *         supported by the fast path
+	 * @throws IOException if the worker could not be started or died
+	 */
+	public OunitResult execute(File baseDirectory, String outputDirectory,
+			File logFile) throws IOException {
+		return execute(baseDirectory, outputDirectory, logFile, 0);
+	}
+	
+	/**
+	 * Run a fast path build in a worker JVM.
+	 * 
+	 * @param cpuTimeLimit maximum CPU time in seconds the tests may use,
+	 *        0 for no limit
+	 * @see #execute(File, String, File)
+	 */
+	public OunitResult execute(File baseDirectory, String outputDirectory,
+			File logFile, int cpuTimeLimit) throws IOException {
+		Process p = take();
+		fill();
+		
+		int timeout;
+		synchronized (this) {
+			timeout = testTimeout;
+		}
+		
+		Properties job = new Properties();
+		job.setProperty(BASE_DIRECTORY, baseDirectory.getAbsolutePath());
+		if(outputDirectory != null)
+			job.setProperty(OUTPUT_DIRECTORY, outputDirectory);
+		if(logFile != null)
+			job.setProperty(LOG_FILE, logFile.getAbsolutePath());
+		job.setProperty(TEST_TIMEOUT, String.valueOf(timeout));
+		job.setProperty(CPU_TIME_LIMIT, String.valueOf(cpuTimeLimit));
+		
+		try {
+			OutputStream in = p.getOutputStream();
+			job.store(in, null);
+			in.close();
+			
+			String output = readOutput(p, (timeout + TIMEOUT_MARGIN) * 1000L);
+			if(output == null)
+				return new OunitResult(outputDirectory, "Build did not complete in "
+						+ timeout + " seconds\n", false, false, true);
+			
+			return parseResult(output);
+		} finally {
+			p.destroy();
+		}
+	}
+	
+	/**
+	 * Stop all idle workers. Workers that are being started are
+	 * stopped as soon as they come up.
+	 */
+	public void shutdown() {
+		List<Process> l;
+		synchronized (this) {
+			shutdown = true;
+			l = new ArrayList<Process>(idle);
+			idle.clear();
+		}
+		for(Process p: l)
+			p.destroy();
+	}
+	
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+	
+	private Process take() throws IOException {
+		synchronized (this) {
+			while(!idle.isEmpty()) {
+				Process p = idle.removeFirst();
+				if(isAlive(p))
+					return p;
+				log.warn("Worker JVM died while idle");
+			}
+		}
+		
+		/* Nothing ready, pay the start up cost on the calling thread */
+		return launch();
+	}
+	
+	private void startAsync() {
+		Thread t = new Thread("ounit-jvm-starter") {
+			@Override
+			public void run() {
+				Process p = null;
+				try {
+					p = launch();
+				} catch(IOException e) {
+					log.warn("Failed to start worker JVM", e);
+				}
+				
+				synchronized (WarmJvmPool.this) {
+					starting--;
+					if(p != null && !shutdown) {
+						idle.addLast(p);
+						p = null;
+					}
+				}
+				if(p != null)
+					p.destroy();
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	private Process launch() throws IOException {
+		return new ProcessBuilder(command)
+			.redirectErrorStream(true)
+			.start();
+	}
+	
+	/**
+	 * Collect the output of a worker.
+	 * 
+	 * @return worker output or null if it did not exit in time
+	 */
+	private String readOutput(Process p, long timeout) throws IOException {
+		final InputStream is = p.getInputStream();
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		Thread reader = new Thread("ounit-jvm-reader") {
+			@Override
+			public void run() {
+				byte [] buf = new byte[4096];
+				int n;
+				try {
+					while((n = is.read(buf)) >= 0) {
+						synchronized (os) {
+							os.write(buf, 0, n);
+						}
+					}
+				} catch(IOException e) {
+					/* Worker was destroyed */
+				}
+			}
+		};
+		reader.setDaemon(true);
+		reader.start();
+		
+		try {
+			reader.join(timeout);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for worker JVM");
+		}
+		if(reader.isAlive())
+			return null;
+		
+		synchronized (os) {
+			return os.toString("ISO-8859-1");
+		}
+	}
+	
+	private static OunitResult parseResult(String output) throws IOException {
+		int i = output.lastIndexOf(RESULT_MARKER);
+		if(i < 0)
+			throw new IOException("Worker JVM failed: " + output);
+		
+		Properties rv = new Properties();
+		rv.load(new ByteArrayInputStream(output.substring(
+				i + RESULT_MARKER.length()).getBytes("ISO-8859-1")));
+		
+		if(STATUS_UNSUPPORTED.equals(rv.getProperty(STATUS)))
+			return null;
+		
+		return new OunitResult(rv.getProperty(OUTPUT_DIRECTORY),
+				rv.getProperty(ERRORS),
+				Boolean.parseBoolean(rv.getProperty(COMPILE_ERRORS)),
+				Boolean.parseBoolean(rv.getProperty(TEST_ERRORS)),
+				Boolean.parseBoolean(rv.getProperty(TIMED_OUT)));
+	}
+	
+	private static boolean isAlive(Process p) {
+		try {
+			p.exitValue();
+			return false;
+		} catch(IllegalThreadStateException e) {
+			return true;
+		}
+	}
+	
+	/**
+	 * Find the class path this class was loaded from. Servlet containers
+	 * do not put web application libraries on the system class path.
+	 */
+	static String classPath() {
+		StringBuilder sb = new StringBuilder();
+		for(ClassLoader cl = WarmJvmPool.class.getClassLoader(); cl != null;
+				cl = cl.getParent()) {
+			if(!(cl instanceof URLClassLoader))
+				continue;
+			for(URL u: ((URLClassLoader) cl).getURLs()) {
+				if(!"file".equals(u.getProtocol()))
+					continue;
+				if(sb.length() > 0)
+					sb.append(File.pathSeparator);
+				try {
+					sb.append(new File(u.toURI()).getPath());
+				} catch(URISyntaxException e) {
+					sb.append(new File(u.getPath()).getPath());
+				}
+			}
+		}
+		
+		if(sb.length() == 0)
+			return System.getProperty("java.class.path");
+		
+		return sb.toString();
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+public class BuildLogTest {
+	private File dir;
+	
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			byte [] buf = new byte[8192];
+			int n;
+			while((n = in.read(buf)) > 0)
+				os.write(buf, 0, n);
+		} finally {
+			in.close();
+		}
+		return os.toString();
+	}
+	
+	@Before
+	public void createDirectory() {
+		dir = new File(fromResources("/").getParentFile(), "build-log");
+		dir.mkdirs();
+	}
+	
+	@After
+	public void deleteLogs() {
+		deleteDirectory(dir);
+	}
+	
+	@Test
+	public void allOutputIsWrittenOnClose() throws Exception {
+		File f = new File(dir, "build.log");
+		PrintStream ps = new PrintStream(new BuildLog(f, false));
+		StringBuilder expected = new StringBuilder();
+		for(int i = 0; i < 10000; i++) {
+			ps.println("Line " + i);
+			expected.append("Line " + i).append(System.getProperty("line.separator"));
+		}
+		ps.close();
+		
+		assertEquals(expected.toString(), read(new FileInputStream(f)));
+	}
+	
+	@Test
+	public void emptyLogCreatesFile() throws Exception {
+		File f = new File(dir, "empty.log");
+		new BuildLog(f, false).close();
+		assertTrue(f.isFile());
+	}
+	
+	@Test
+	public void compressedLog() throws Exception {
+		File f = new File(dir, "build.log.gz");
+		BuildLog l = new BuildLog(f, true);
+		l.write("Hello, World!".getBytes());
+		l.close();
+		
+		assertEquals("Hello, World!", read(new GZIPInputStream(new FileInputStream(f))));
+	}
+	
+	@Test
+	public void tailHoldsLatestOutput() throws Exception {
+		BuildLog l = new BuildLog(new File(dir, "tail.log"), false);
+		try {
+			l.write("first".getBytes());
+			assertEquals("first", l.getTail());
+			
+			byte [] filler = new byte[BuildLog.TAIL_SIZE];
+			Arrays.fill(filler, (byte) 'x');
+			l.write(filler);
+			l.write("last".getBytes());
+			
+			String tail = l.getTail();
+			assertEquals(BuildLog.TAIL_SIZE, tail.length());
+			assertTrue(tail.endsWith("xlast"));
+		} finally {
+			l.close();
+		}
+	}
+	
+	@Test
+	public void oldestOutputOverBufferIsDropped() throws Exception {
+		File f = new File(dir, "dropped.log");
+		BuildLog l = new BuildLog(f, false, 10);
+		byte [] output = new byte[105];
+		Arrays.fill(output, (byte) 'x');
+		System.arraycopy("0123456789".getBytes(), 0, output, 95, 10);
+		l.write(output);
+		l.close();
+		
+		assertEquals("\n[95 bytes of output dropped]\n0123456789",
+				read(new FileInputStream(f)));
+	}
+}
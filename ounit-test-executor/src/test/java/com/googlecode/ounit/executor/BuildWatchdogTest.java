@@ -0,0 +1,100 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.File;
+
+import org.junit.*;
+
+public class BuildWatchdogTest {
+	
+	@Test
+	public void abortKillsForkedProcesses() throws Exception {
+		Assume.assumeTrue(new File("/proc/self").isDirectory());
+		
+		File dir = new File(fromResources("/").getParentFile(), "watchdog");
+		dir.mkdirs();
+		Process p = new ProcessBuilder("sleep", "60").directory(dir).start();
+		try {
+			BuildWatchdog dog = new BuildWatchdog(new OunitExecutionRequest()
+				.setBaseDirectory(dir), Thread.currentThread());
+			dog.abort("Test");
+			Thread.interrupted();
+			
+			assertTrue(dog.isTriggered());
+			assertTrue(dog.getResult().isTimedOut());
+			assertEquals("Test\n", dog.getResult().getErrors());
+			p.waitFor();
+			assertEquals(137, p.exitValue());
+		} finally {
+			p.destroy();
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void measuresForkedProcesses() throws Exception {
+		Assume.assumeTrue(new File("/proc/self").isDirectory());
+		
+		File dir = new File(fromResources("/").getParentFile(), "watchdog-cpu");
+		dir.mkdirs();
+		Process p = new ProcessBuilder("sh", "-c", "while :; do :; done")
+			.directory(dir).start();
+		try {
+			BuildWatchdog dog = new BuildWatchdog(new OunitExecutionRequest()
+				.setBaseDirectory(dir), Thread.currentThread());
+			Thread.sleep(1500);
+			assertTrue(dog.getCpuTime() >= 500000000L);
+		} finally {
+			p.destroy();
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void matchesWholeDirectories() {
+		assertTrue(BuildWatchdog.refersTo("java -cp /w/X-1/target/classes Foo ", "/w/X-1"));
+		assertTrue(BuildWatchdog.refersTo("java -Dbasedir=/w/X-1 ", "/w/X-1"));
+		assertFalse(BuildWatchdog.refersTo("java -cp /w/X-12/target/classes Foo ", "/w/X-1"));
+	}
+	
+	@Test
+	public void timeoutAbortsBuild() throws Exception {
+		final Thread t = Thread.currentThread();
+		BuildWatchdog dog = new BuildWatchdog(new OunitExecutionRequest()
+			.setBaseDirectory(new File("nonexistent"))
+			.setTimeout(1), t);
+		dog.start();
+		try {
+			Thread.sleep(10000);
+			fail("Build was not interrupted");
+		} catch(InterruptedException e) {
+			assertTrue(dog.isTriggered());
+			assertTrue(dog.getResult().getErrors().contains("1 seconds"));
+		} finally {
+			dog.stop();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BuildWindowTest {
+	@Test
+	public void emptyWindowReportsUnknownLatency() {
+		BuildWindow w = new BuildWindow(60000, 0);
+		assertEquals(-1, w.getPercentile(1000, 0.5));
+		assertEquals(0.0, w.getRate(1000), 0.001);
+	}
+	
+	@Test
+	public void percentilesAndRateCoverRecentBuilds() {
+		BuildWindow w = new BuildWindow(60000, 0);
+		for(int i = 1; i <= 20; i++)
+			w.add(i * 1000, i * 100);
+		
+		assertEquals(20, w.getCount(20000));
+		assertEquals(1000, w.getPercentile(20000, 0.5));
+		assertEquals(1900, w.getPercentile(20000, 0.95));
+		/* 20 builds in the 20 seconds since creation */
+		assertEquals(60.0, w.getRate(20000), 0.001);
+	}
+	
+	@Test
+	public void oldBuildsExpire() {
+		BuildWindow w = new BuildWindow(60000, 0);
+		w.add(1000, 5000);
+		w.add(50000, 100);
+		
+		assertEquals(2, w.getCount(60000));
+		assertEquals(1, w.getCount(61000));
+		assertEquals(100, w.getPercentile(61000, 0.95));
+		assertEquals(1.0, w.getRate(61000), 0.001);
+		assertEquals(0, w.getCount(110000));
+	}
+}
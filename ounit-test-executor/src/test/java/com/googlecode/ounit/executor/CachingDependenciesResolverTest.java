@@ -0,0 +1,166 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.project.DependencyResolutionException;
+import org.apache.maven.project.DependencyResolutionRequest;
+import org.apache.maven.project.DependencyResolutionResult;
+import org.apache.maven.project.DefaultDependencyResolutionRequest;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.ProjectDependenciesResolver;
+import org.junit.*;
+import org.sonatype.aether.graph.Dependency;
+import org.sonatype.aether.graph.DependencyNode;
+import org.sonatype.aether.impl.internal.SimpleLocalRepositoryManager;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.graph.DefaultDependencyNode;
+
+public class CachingDependenciesResolverTest {
+	private File dir;
+	private DefaultRepositorySystemSession session;
+	
+	/**
+	 * Resolves a single dependency and counts the calls.
+	 */
+	private static class FakeResolver implements ProjectDependenciesResolver {
+		int calls = 0;
+		String version = "1.0";
+		File file;
+		
+		public DependencyResolutionResult resolve(DependencyResolutionRequest request)
+				throws DependencyResolutionException {
+			calls++;
+			DefaultDependencyNode child = new DefaultDependencyNode(new Dependency(
+					new DefaultArtifact("junit", "junit", "jar", version).setFile(file),
+					"test"));
+			final DefaultDependencyNode root = new DefaultDependencyNode();
+			root.getChildren().add(child);
+			
+			return new DependencyResolutionResult() {
+				public DependencyNode getDependencyGraph() {
+					return root;
+				}
+				public List<Dependency> getDependencies() {
+					return Collections.emptyList();
+				}
+				public List<Dependency> getResolvedDependencies() {
+					return Collections.emptyList();
+				}
+				public List<Dependency> getUnresolvedDependencies() {
+					return Collections.emptyList();
+				}
+				public List<Exception> getCollectionErrors() {
+					return Collections.emptyList();
+				}
+				public List<Exception> getResolutionErrors(Dependency d) {
+					return Collections.emptyList();
+				}
+			};
+		}
+	}
+	
+	private DependencyResolutionRequest request(String artifactId) {
+		Model m = new Model();
+		m.setGroupId("test");
+		m.setArtifactId(artifactId);
+		m.setVersion("1.0");
+		return new DefaultDependencyResolutionRequest(new MavenProject(m), session);
+	}
+	
+	@Before
+	public void createRepository() throws Exception {
+		dir = new File(fromResources("/").getParentFile(), "graph-cache");
+		dir.mkdirs();
+		session = new DefaultRepositorySystemSession();
+		session.setLocalRepositoryManager(new SimpleLocalRepositoryManager(dir));
+	}
+	
+	@After
+	public void deleteRepository() {
+		deleteDirectory(dir);
+	}
+	
+	@Test
+	public void graphIsResolvedOnce() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		fake.file = new File(dir, "junit.jar");
+		fake.file.createNewFile();
+		CachingDependenciesResolver.Cache cache = new CachingDependenciesResolver.Cache(10);
+		CachingDependenciesResolver r = new CachingDependenciesResolver(fake, cache);
+		
+		DependencyResolutionResult r1 = r.resolve(request("a"));
+		DependencyResolutionResult r2 = r.resolve(request("a"));
+		assertSame(r1, r2);
+		assertEquals(1, fake.calls);
+		
+		r.resolve(request("b"));
+		assertEquals(2, fake.calls);
+		assertEquals(2, cache.size());
+		
+		/* Artifact removed from the repository */
+		fake.file.delete();
+		r.resolve(request("a"));
+		assertEquals(3, fake.calls);
+	}
+	
+	@Test
+	public void snapshotsAreNotCached() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		fake.version = "1.0-SNAPSHOT";
+		fake.file = new File(dir, "junit.jar");
+		fake.file.createNewFile();
+		CachingDependenciesResolver.Cache cache = new CachingDependenciesResolver.Cache(10);
+		CachingDependenciesResolver r = new CachingDependenciesResolver(fake, cache);
+		
+		r.resolve(request("a"));
+		r.resolve(request("a"));
+		assertEquals(2, fake.calls);
+		assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void cacheIsBounded() throws Exception {
+		FakeResolver fake = new FakeResolver();
+		fake.file = new File(dir, "junit.jar");
+		fake.file.createNewFile();
+		CachingDependenciesResolver.Cache cache = new CachingDependenciesResolver.Cache(2);
+		CachingDependenciesResolver r = new CachingDependenciesResolver(fake, cache);
+		
+		r.resolve(request("a"));
+		r.resolve(request("b"));
+		r.resolve(request("c"));
+		assertEquals(2, cache.size());
+		
+		/* Least recently used entry was dropped */
+		r.resolve(request("a"));
+		assertEquals(4, fake.calls);
+	}
+}
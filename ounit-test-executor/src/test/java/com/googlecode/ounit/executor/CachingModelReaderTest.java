@@ -0,0 +1,95 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.DefaultModelReader;
+import org.junit.*;
+
+public class CachingModelReaderTest {
+	private File dir;
+	
+	/**
+	 * Counts the POMs actually parsed.
+	 */
+	private static class CountingReader extends DefaultModelReader {
+		int calls = 0;
+		
+		@Override
+		public Model read(InputStream input, Map<String, ?> options)
+				throws IOException {
+			calls++;
+			return super.read(input, options);
+		}
+	}
+	
+	private File pom(String session, String artifactId) throws IOException {
+		File d = new File(dir, session);
+		d.mkdirs();
+		File f = new File(d, "pom.xml");
+		FileWriter w = new FileWriter(f);
+		w.write("<project><modelVersion>4.0.0</modelVersion>"
+				+ "<groupId>test</groupId><artifactId>" + artifactId
+				+ "</artifactId><version>1.0</version></project>");
+		w.close();
+		return f;
+	}
+	
+	@Before
+	public void createDirectory() {
+		dir = new File(fromResources("/").getParentFile(), "model-cache");
+		dir.mkdirs();
+	}
+	
+	@After
+	public void cleanup() {
+		deleteDirectory(dir);
+	}
+	
+	@Test
+	public void copiesInSessionsShareModel() throws Exception {
+		CountingReader counting = new CountingReader();
+		CachingModelReader r = new CachingModelReader(counting, 10);
+		File p1 = pom("s1", "a");
+		File p2 = pom("s2", "a");
+		
+		Model m1 = r.read(p1, null);
+		Model m2 = r.read(p2, null);
+		assertEquals(1, counting.calls);
+		assertEquals("a", m2.getArtifactId());
+		assertEquals(p1, m1.getPomFile());
+		assertEquals(p2, m2.getPomFile());
+		assertNotSame(m1, m2);
+		
+		r.read(pom("s3", "b"), null);
+		assertEquals(2, counting.calls);
+	}
+}
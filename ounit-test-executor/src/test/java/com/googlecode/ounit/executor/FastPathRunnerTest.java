@@ -0,0 +1,248 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Properties;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.apache.maven.cli.PrintStreamLogger2.Provider;
+import org.junit.*;
+
+public class FastPathRunnerTest {
+	private static FastPathRunner runner;
+	private static File workDir;
+	
+	static final String STUDENT =
+		"public class Calc {\n" +
+		"  public int add(int a, int b) { return a + b; }\n" +
+		"  public int mul(int a, int b) { return a + b; }\n" +
+		"  public void exit() { System.exit(1); }\n" +
+		"}\n";
+	
+	private static final String TEACHER =
+		"import org.junit.*;\n" +
+		"import static org.junit.Assert.*;\n" +
+		"public class CalcTest {\n" +
+		"  @Test public void add() { assertEquals(5, new Calc().add(2, 3)); }\n" +
+		"  @Test public void mul() { assertEquals(6, new Calc().mul(2, 3)); }\n" +
+		"  @Test(expected = SecurityException.class)\n" +
+		"  public void exit() { new Calc().exit(); }\n" +
+		"}\n";
+	
+	static final String POM = pom("");
+	
+	private static String pom(String build) {
+		return "<project><modelVersion>4.0.0</modelVersion>\n" +
+		"<groupId>test</groupId><artifactId>fast</artifactId><version>1</version>\n" +
+		"<dependencies><dependency><groupId>junit</groupId>\n" +
+		"<artifactId>junit</artifactId><version>" + junit.runner.Version.id() +
+		"</version><scope>test</scope></dependency></dependencies>\n" +
+		build + "</project>\n";
+	}
+	
+	private static String compilerConfig(String configuration) {
+		return pom("<build><pluginManagement><plugins><plugin>\n" +
+			"<artifactId>maven-compiler-plugin</artifactId>\n" +
+			"<configuration>" + configuration + "</configuration>\n" +
+			"</plugin></plugins></pluginManagement></build>\n");
+	}
+	
+	@BeforeClass
+	public static void createRunner() {
+		runner = new FastPathRunner(new Provider() {
+			public PrintStream getStream() {
+				return System.out;
+			}
+		});
+		runner.setTestTimeout(60);
+		runner.setForked(true);
+		workDir = new File(fromResources("/").getParentFile(), "fast-path");
+	}
+	
+	@AfterClass
+	public static void cleanWorkDir() {
+		deleteDirectory(workDir);
+	}
+	
+	private static void write(File f, String contents) throws IOException {
+		f.getParentFile().mkdirs();
+		FileWriter w = new FileWriter(f);
+		w.write(contents);
+		w.close();
+	}
+	
+	private static File createProject(String name, String student)
+			throws Exception {
+		return createProject(name, student, POM);
+	}
+	
+	private static File createProject(String name, String student,
+			String pom) throws Exception {
+		return createProject(new File(workDir, name), student, pom);
+	}
+	
+	static File createProject(File dir, String student, String pom)
+			throws Exception {
+		write(new File(dir, "pom.xml"), pom);
+		write(new File(dir, "src/main/java/Calc.java"), STUDENT);
+		
+		/* Compile teacher tests against a correct student solution */
+		File tmp = new File(dir, "tmp");
+		write(new File(tmp, "Calc.java"), STUDENT);
+		write(new File(tmp, "CalcTest.java"), TEACHER);
+		File classes = new File(dir, FastPathRunner.TEACHER_CLASSES);
+		classes.mkdirs();
+		JavaCompiler c = ToolProvider.getSystemJavaCompiler();
+		assertEquals(0, c.run(null, null, null, "-d", classes.getPath(),
+				"-classpath", System.getProperty("java.class.path"),
+				new File(tmp, "Calc.java").getPath(),
+				new File(tmp, "CalcTest.java").getPath()));
+		new File(classes, "Calc.class").delete();
+		deleteDirectory(tmp);
+		
+		write(new File(dir, "src/main/java/Calc.java"), student);
+		
+		return dir;
+	}
+	
+	static Properties loadMarks(OunitResult r) throws IOException {
+		Properties p = new Properties();
+		FileInputStream in = new FileInputStream(new File(
+				r.getOutputDirectory(), "ounit-reports/marks.properties"));
+		p.load(in);
+		in.close();
+		return p;
+	}
+	
+	@Test
+	public void runsTeacherTests() throws Exception {
+		File dir = createProject("tests", STUDENT);
+		
+		OunitResult r = runner.execute(dir, null);
+		assertNotNull("Project was not accepted", r);
+		assertFalse(r.getErrors(), r.hasErrors());
+		assertTrue(new File(r.getOutputDirectory(),
+				"ounit-reports/results.html").isFile());
+		assertEquals("66.67", loadMarks(r).getProperty("default"));
+	}
+
+	@Test
+	public void reportsCompileErrors() throws Exception {
+		File dir = createProject("errors", "public class Calc { int x = ; }");
+		
+		OunitResult r = runner.execute(dir, null);
+		assertNotNull("Project was not accepted", r);
+		assertTrue(r.hasErrors());
+		assertTrue(r.hasCompileErrors());
+		assertTrue(r.getErrors().contains("Calc.java"));
+	}
+
+	@Test
+	public void rejectsUnsupportedProjects() {
+		assertNull(runner.execute(fromResources(TP3), null));
+	}
+
+	@Test
+	public void onlyRunsInWorkerJvm() throws Exception {
+		File dir = createProject("in-process", STUDENT);
+		
+		FastPathRunner inProcess = new FastPathRunner(new Provider() {
+			public PrintStream getStream() {
+				return System.out;
+			}
+		});
+		assertNull(inProcess.execute(dir, null));
+	}
+
+	@Test
+	public void usesSourceLevelFromPom() throws Exception {
+		String student = STUDENT.replace("return a + b; }\n  public int mul",
+				"java.util.List<String> l = new java.util.ArrayList<>();" +
+				" return a + b; }\n  public int mul");
+		File dir = createProject("source", student,
+				compilerConfig("<source>1.6</source><target>1.6</target>"));
+		
+		OunitResult r = runner.execute(dir, null);
+		assertNotNull("Project was not accepted", r);
+		assertTrue("Diamond operator compiled with source 1.6",
+				r.hasCompileErrors());
+	}
+
+	@Test
+	public void enforcesCpuTimeLimit() throws Exception {
+		String student = STUDENT.replace("return a + b; }\n  public int mul",
+				"while(!Thread.currentThread().isInterrupted()); return a + b; }\n" +
+				"  public int mul");
+		File dir = createProject("cpu", student);
+		
+		runner.setCpuTimeLimit(1);
+		try {
+			OunitResult r = runner.execute(dir, null);
+			assertNotNull("Project was not accepted", r);
+			assertTrue(r.isTimedOut());
+			assertTrue(r.getErrors(), r.getErrors().contains("CPU time"));
+		} finally {
+			runner.setCpuTimeLimit(0);
+		}
+	}
+
+	@Test
+	public void rejectsUnknownCompilers() throws Exception {
+		File dir = createProject("compiler", STUDENT,
+				compilerConfig("<compilerId>unknown</compilerId>"));
+		assertNull(runner.execute(dir, null));
+		
+		dir = createProject("arguments", STUDENT,
+				compilerConfig("<compilerArgument>-Xlint</compilerArgument>"));
+		assertNull(runner.execute(dir, null));
+	}
+
+	@Test
+	public void runsInWorkerJvm() throws Exception {
+		File dir = createProject("forked", STUDENT);
+		
+		WarmJvmPool pool = new WarmJvmPool(1, runner.getLocalRepository(),
+				Collections.<String>emptyList());
+		pool.setTestTimeout(60);
+		try {
+			OunitResult r = pool.execute(dir, null, null);
+			assertNotNull("Project was not accepted", r);
+			assertFalse(r.getErrors(), r.hasErrors());
+			assertEquals("66.67", loadMarks(r).getProperty("default"));
+			
+			assertNull(pool.execute(fromResources(TP3), null, null));
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
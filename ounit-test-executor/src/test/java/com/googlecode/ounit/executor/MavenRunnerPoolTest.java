@@ -0,0 +1,87 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import java.io.PrintStream;
+
+import org.apache.maven.cli.PrintStreamLogger2.Provider;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class MavenRunnerPoolTest {
+	private MavenRunnerPool pool;
+
+	@Before
+	public void createPool() {
+		pool = new MavenRunnerPool(new Provider() {
+			public PrintStream getStream() {
+				return System.out;
+			}
+		});
+	}
+
+	@Test
+	public void engineIsReused() throws Exception {
+		MavenRunner first = pool.acquire();
+		pool.release(first);
+		assertEquals(1, pool.getIdleCount());
+
+		MavenRunner second = pool.acquire();
+		assertSame(first, second);
+		pool.release(second);
+	}
+
+	@Test
+	public void wornOutEngineIsRetired() throws Exception {
+		pool.setMaxBuilds(0);
+		MavenRunner first = pool.acquire();
+		pool.release(first);
+
+		MavenRunner second = pool.acquire();
+		assertNotSame(first, second);
+		pool.release(second);
+	}
+
+	@Test(timeout = 60000)
+	public void acquireBlocksWhenPoolIsExhausted() throws Exception {
+		final MavenRunner first = pool.acquire();
+
+		Thread releaser = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(500);
+				} catch (InterruptedException e) {
+				}
+				pool.release(first);
+			}
+		};
+		long start = System.currentTimeMillis();
+		releaser.start();
+
+		MavenRunner second = pool.acquire();
+		assertTrue(System.currentTimeMillis() - start >= 400);
+		assertSame(first, second);
+		pool.release(second);
+	}
+}
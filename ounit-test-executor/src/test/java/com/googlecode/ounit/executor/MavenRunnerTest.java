@@ -148,6 +148,29 @@ public class MavenRunnerTest {
 		assertEquals("Invalid outputDirectory", outDir, r.getProject().getBuild().getDirectory());
 	}
 
+	@Test
+	public void offlineBuildUsesConfiguredRepository() {
+		File dir = fromResources(TP3);
+		File repo = new File(dir, "target/empty-repository");
+		mvn.setLocalRepository(repo);
+		mvn.setOffline(true);
+		try {
+			MavenExecutionResult r = execute(dir, "compile");
+			assertTrue("Build with an empty repository did not fail", r.hasExceptions());
+
+			String errors = "";
+			for(Throwable t: r.getExceptions())
+				for(; t != null; t = t.getCause())
+					errors += t.getMessage();
+			assertTrue("Configured repository was not used: " + errors,
+					errors.contains(repo.getAbsolutePath()));
+		} finally {
+			mvn.setOffline(false);
+			mvn.setLocalRepository(null);
+			deleteDirectory(repo);
+		}
+	}
+
 	@Ignore
 	@Test
 	public void testIfMalformedPomProducesErrors() {
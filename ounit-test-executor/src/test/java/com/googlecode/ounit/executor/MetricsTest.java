@@ -0,0 +1,109 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.*;
+
+import com.googlecode.ounit.executor.Metrics.Gauge;
+import com.googlecode.ounit.executor.Metrics.Histogram;
+
+public class MetricsTest {
+	private Metrics metrics;
+	
+	@Before
+	public void createRegistry() {
+		metrics = new Metrics();
+	}
+	
+	@Test
+	public void namesIncludeEscapedLabels() {
+		assertEquals("m", Metrics.name("m"));
+		assertEquals("m{a=\"1\",b=\"x\\\"y\"}", Metrics.name("m", "a", "1", "b", "x\"y"));
+	}
+	
+	@Test
+	public void histogramTracksDistribution() {
+		Histogram h = metrics.histogram("t");
+		for(int i = 1; i <= 100; i++)
+			h.update(i * 10);
+		
+		assertEquals(100, h.getCount());
+		assertEquals(1000, h.getMax());
+		assertEquals(505.0, h.getMean(), 0.001);
+		assertEquals(500, h.getPercentile(0.5));
+		assertEquals(1000, h.getPercentile(0.95));
+		assertSame(h, metrics.histogram("t"));
+	}
+	
+	@Test
+	public void textFormatListsAllMetrics() {
+		metrics.cacheAccess("build", true);
+		metrics.cacheAccess("build", true);
+		metrics.cacheAccess("build", false);
+		metrics.register("depth", new Gauge() {
+			public long getValue() {
+				return 3;
+			}
+		});
+		metrics.histogram(Metrics.name("wait_seconds", "phase", "build")).update(30);
+		metrics.histogram(Metrics.name("wait_seconds", "phase", "test")).update(1500);
+		
+		String text = metrics.toText();
+		assertTrue(text, text.contains(
+				"ounit_cache_requests_total{cache=\"build\",result=\"hit\"} 2\n"));
+		assertTrue(text, text.contains(
+				"ounit_cache_requests_total{cache=\"build\",result=\"miss\"} 1\n"));
+		assertTrue(text, text.contains("# TYPE ounit_cache_requests_total counter\n"));
+		assertTrue(text, text.contains("# TYPE depth gauge\ndepth 3\n"));
+		assertTrue(text, text.contains("wait_seconds_bucket{phase=\"build\",le=\"0.025\"} 0\n"));
+		assertTrue(text, text.contains("wait_seconds_bucket{phase=\"build\",le=\"0.05\"} 1\n"));
+		assertTrue(text, text.contains("wait_seconds_bucket{phase=\"build\",le=\"+Inf\"} 1\n"));
+		assertTrue(text, text.contains("wait_seconds_sum{phase=\"build\"} 0.03\n"));
+		assertTrue(text, text.contains("wait_seconds_sum{phase=\"test\"} 1.5\n"));
+		assertFalse(text, text.contains("_max"));
+		
+		/* One type line per metric family */
+		int i = text.indexOf("# TYPE wait_seconds histogram\n");
+		assertTrue(text, i >= 0);
+		assertEquals(-1, text.indexOf("# TYPE wait_seconds", i + 1));
+	}
+	
+	@Test
+	public void metricsAreAvailableThroughJmx() throws Exception {
+		Metrics.getInstance().registerMBean();
+		Metrics.getInstance().registerMBean();
+		
+		MBeanServer s = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+		assertTrue(s.isRegistered(name));
+		
+		Metrics.getInstance().counter("jmx_test").inc();
+		assertEquals(1L, s.getAttribute(name, "jmx_test"));
+	}
+}
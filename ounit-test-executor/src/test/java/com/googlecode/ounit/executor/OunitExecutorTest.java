@@ -25,10 +25,20 @@ import static org.junit.Assert.*;
 import static com.googlecode.ounit.executor.Util.*;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.*;
 
+import com.googlecode.ounit.executor.OunitExecutionRequest.Priority;
+
 public class OunitExecutorTest {
 	private static OunitExecutor oe;
 	private static ArrayList<String> delDirs = new ArrayList<String>();
@@ -113,6 +123,86 @@ public class OunitExecutorTest {
 		assertTrue("TP4 has no test errors", r.hasTestErrors());
 	}
 	
+	private static OunitTaskListener countDown(final CountDownLatch latch) {
+		return new OunitTaskListener() {
+			public void taskDone(OunitTask task) {
+				if(task.isDone())
+					latch.countDown();
+			}
+		};
+	}
+	
+	@Test
+	public void listenerIsNotified() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		OunitTask task = oe.submit( newRequest(TP1), countDown(done) );
+		assertTrue("Listener was not called", done.await(300, TimeUnit.SECONDS));
+		addDelDir(task.get());
+		
+		/* Late listeners must be called immediately */
+		CountDownLatch late = new CountDownLatch(1);
+		task.addListener( countDown(late) );
+		assertEquals("Late listener was not called", 0, late.getCount());
+	}
+	
+	private static OunitTask queued(Priority p, int rank, long seq) {
+		OunitTask t = new OunitTask(new OunitExecutionRequest().setPriority(p));
+		t.rank = rank;
+		t.seq = seq;
+		return t;
+	}
+	
+	@Test
+	public void interactiveTasksAndFreshOwnersGoFirst() {
+		OunitTask background = queued(Priority.BACKGROUND, 0, 0);
+		OunitTask spammer = queued(Priority.INTERACTIVE, 3, 1);
+		OunitTask first = queued(Priority.INTERACTIVE, 0, 2);
+		OunitTask second = queued(Priority.INTERACTIVE, 0, 3);
+		
+		List<OunitTask> l = new ArrayList<OunitTask>(
+				Arrays.asList(background, spammer, second, first));
+		Collections.sort(l);
+		assertEquals(Arrays.asList(first, second, spammer, background), l);
+	}
+	
+	@Test(expected = RejectedExecutionException.class)
+	public void fullQueueIsRejected() {
+		OunitExecutor full = new OunitExecutor(1, 0);
+		try {
+			full.submit( newRequest(TP1) );
+		} finally {
+			full.shutdown();
+		}
+	}
+	
+	@Test
+	public void modelPropertiesAreReloadedWhenPomChanges() throws Exception {
+		File dir = new File(fromResources("/").getParentFile(), "model-cache");
+		dir.mkdirs();
+		delDirs.add(dir.getPath());
+		File pom = new File(dir, "pom.xml");
+		
+		writePom(pom, "1");
+		Properties p = oe.getModelProperties(dir);
+		assertEquals("1", p.getProperty("ounit.marks"));
+		
+		/* Callers get copies */
+		p.setProperty("ounit.marks", "x");
+		assertEquals("1", oe.getModelProperties(dir).getProperty("ounit.marks"));
+		
+		writePom(pom, "10");
+		assertEquals("10", oe.getModelProperties(dir).getProperty("ounit.marks"));
+	}
+	
+	private static void writePom(File f, String marks) throws Exception {
+		FileWriter w = new FileWriter(f);
+		w.write("<project><modelVersion>4.0.0</modelVersion>"
+				+ "<groupId>g</groupId><artifactId>a</artifactId>"
+				+ "<version>1</version><properties><ounit.marks>" + marks
+				+ "</ounit.marks></properties></project>");
+		w.close();
+	}
+	
 	@Test
 	public void testConcurrentTasks() throws Exception {
 		OunitExecutionRequest [] requests = new OunitExecutionRequest[nConcurrent];
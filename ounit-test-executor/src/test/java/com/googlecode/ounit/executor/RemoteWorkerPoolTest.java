@@ -0,0 +1,116 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.googlecode.ounit.executor;
+
+import static org.junit.Assert.*;
+import static com.googlecode.ounit.executor.Util.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import org.junit.*;
+
+public class RemoteWorkerPoolTest {
+	private static final String SECRET = "secret";
+	private static File workDir;
+	
+	@BeforeClass
+	public static void createWorkDir() {
+		workDir = new File(fromResources("/").getParentFile(), "remote-workers");
+	}
+	
+	@AfterClass
+	public static void cleanWorkDir() {
+		deleteDirectory(workDir);
+	}
+	
+	@Test
+	public void runsOnRemoteWorkers() throws Exception {
+		File dir = FastPathRunnerTest.createProject(new File(workDir, "remote"),
+				FastPathRunnerTest.STUDENT, FastPathRunnerTest.POM);
+		
+		RemoteWorkerServer first = new RemoteWorkerServer(0, 1,
+				new File(workDir, "worker-1"), SECRET);
+		RemoteWorkerServer second = new RemoteWorkerServer(0, 1,
+				new File(workDir, "worker-2"), SECRET);
+		first.start();
+		second.start();
+		
+		RemoteWorkerPool pool = new RemoteWorkerPool(Arrays.asList(
+				"127.0.0.1:" + first.getPort(), "127.0.0.1:" + second.getPort(),
+				"127.0.0.1:1"), SECRET);
+		OunitWorker.getInstance().setForkedJvms(1);
+		try {
+			pool.checkAll();
+			assertEquals(2, pool.getHealthyCount());
+			
+			/* Builds sent to a dead worker must be re-dispatched */
+			first.stop();
+			
+			ByteArrayOutputStream log = new ByteArrayOutputStream();
+			OunitResult r = pool.execute(new OunitExecutionRequest()
+				.setBaseDirectory(dir)
+				.setFastPath(true), new PrintStream(log));
+			assertFalse(r.getErrors(), r.hasErrors());
+			assertEquals("66.67", FastPathRunnerTest.loadMarks(r)
+					.getProperty("default"));
+			assertTrue(log.toString().contains("Total Score"));
+			assertEquals(1, pool.getHealthyCount());
+		} finally {
+			pool.shutdown();
+			first.stop();
+			second.stop();
+			OunitWorker.getInstance().setForkedJvms(0);
+		}
+	}
+	
+	@Test
+	public void rejectsUnauthenticatedClients() throws Exception {
+		File dir = new File(workDir, "unauthenticated");
+		dir.mkdirs();
+		
+		RemoteWorkerServer server = new RemoteWorkerServer(0, 1,
+				new File(workDir, "worker-3"), SECRET);
+		server.start();
+		
+		RemoteWorkerPool pool = new RemoteWorkerPool(Arrays.asList(
+				"127.0.0.1:" + server.getPort()), "guess");
+		try {
+			pool.checkAll();
+			assertEquals(0, pool.getHealthyCount());
+			
+			try {
+				pool.execute(new OunitExecutionRequest()
+					.setBaseDirectory(dir), null);
+				fail("Build was accepted without the secret");
+			} catch(IOException e) {
+			}
+			assertEquals(0, server.getActiveCount());
+		} finally {
+			pool.shutdown();
+			server.stop();
+		}
+	}
+}
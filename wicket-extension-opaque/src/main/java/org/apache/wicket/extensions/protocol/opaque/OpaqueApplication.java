@@ -28,6 +28,7 @@ import org.apache.wicket.request.Response;
 import org.apache.wicket.session.ISessionStore;
 import org.apache.wicket.util.IProvider;
 
+import com.googlecode.ounit.opaque.EngineStatus;
 import com.googlecode.ounit.opaque.OpaqueException;
 
 public abstract class OpaqueApplication extends WebApplication {
@@ -46,6 +47,17 @@ public abstract class OpaqueApplication extends WebApplication {
 	public abstract OpaqueQuestion fetchQuestion(String id, String version,
 			String baseUrl) throws OpaqueException;
 
+	/**
+	 * Called from getQuestionMetadata after the question has been fetched.
+	 * The LMS asks for metadata well before students start the question
+	 * so this is a good time for background work. The default
+	 * implementation does nothing.
+	 * 
+	 * @param question question returned by {@link #fetchQuestion}
+	 */
+	public void questionInfoRequested(OpaqueQuestion question) {
+	}
+	
 	public int getActiveSessions() {
 		if(sessionStore != null) {
 			return sessionStore.getActiveSessionCount();
@@ -54,6 +66,15 @@ public abstract class OpaqueApplication extends WebApplication {
 		}
 	}
 	
+	/**
+	 * Add application specific figures, such as build load, to the
+	 * engine status. The default implementation does nothing.
+	 * 
+	 * @param status status with name, memory and sessions already filled in
+	 */
+	public void updateEngineStatus(EngineStatus status) {
+	}
+	
 	public void setSessionStore(OpaqueSessionStore sessionStore) {
 		this.sessionStore = sessionStore; 
 	}
@@ -21,9 +21,15 @@
 
 package org.apache.wicket.extensions.protocol.opaque;
 
+import java.io.Serializable;
+
 import com.googlecode.ounit.opaque.QuestionInfo;
 
-public interface OpaqueQuestion {
+/**
+ * A question of an OPAQUE session. Questions are serialized along
+ * with the session when it is written to disk.
+ */
+public interface OpaqueQuestion extends Serializable {
 	public String getId();
 	public String getVersion();
 	public String getBaseUrl();
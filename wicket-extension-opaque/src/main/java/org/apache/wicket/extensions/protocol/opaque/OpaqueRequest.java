@@ -53,6 +53,7 @@ public class OpaqueRequest extends WebRequest {
 	protected OpaqueRequestParameters postParameters;
 	protected OpaqueQuestion question;
 	protected List<String> cachedResources;
+	protected final long arrivalTime = System.currentTimeMillis();
 
 	public OpaqueRequest(String sessionId, Url url) {
 		this.sessionId = sessionId;
@@ -143,6 +144,13 @@ public class OpaqueRequest extends WebRequest {
 	public void setSessionId(String sessionId) {
 		this.sessionId = sessionId;
 	}
+	
+	/**
+	 * @return time the request was received from the LMS
+	 */
+	public long getArrivalTime() {
+		return arrivalTime;
+	}
 
 	public List<String> getCachedResources() {
 		return cachedResources;
@@ -21,14 +21,28 @@
 
 package org.apache.wicket.extensions.protocol.opaque;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 import org.apache.wicket.Session;
@@ -37,27 +51,141 @@ import org.apache.wicket.request.Request;
 import org.apache.wicket.session.ISessionStore;
 import org.apache.wicket.util.lang.Args;
 
+/**
+ * Session store for OPAQUE applications.
+ * <p>
+ * The LMS often never calls stop, so sessions that have not been
+ * used for {@link #setIdleTimeout(long)} milliseconds are unbound by a
+ * background sweeper. When more than {@link #setMaxSessions(int)}
+ * sessions are in memory, the least recently used ones are serialized
+ * into the spill directory and read back when they are looked up again.
+ * Sessions with a request in progress hold their session lock and are
+ * never spilled or unbound to make room.
+ * Sessions in memory are also written there when the store is destroyed,
+ * so they survive a restart. Without a spill directory sessions over
+ * the limit are unbound; the LMS will start a new session and replay
+ * the responses.
+ * </p>
+ */
 public class OpaqueSessionStore implements ISessionStore {
-	//private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
+	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
 	private final Set<UnboundListener> unboundListeners = new CopyOnWriteArraySet<UnboundListener>();
-
-	final Map<String, Map<String, Serializable>> attributes = Collections
-			.synchronizedMap(new HashMap<String, Map<String, Serializable>>());
-
-	final Map<String, Session> sessions = Collections
-			.synchronizedMap(new HashMap<String, Session>());
-
+	
+	public static final String SPILL_SUFFIX = ".ser";
+	/* How often idle sessions are looked for */
+	public static final long SWEEP_INTERVAL = 60 * 1000L;
+	
+	private static class Entry {
+		final Session session;
+		final Map<String, Serializable> attributes;
+		long lastAccess = System.currentTimeMillis();
+		
+		Entry(Session session, Map<String, Serializable> attributes) {
+			this.session = session;
+			this.attributes = attributes;
+		}
+	}
+	
+	/* Sessions in memory in access order. Guarded by this */
+	private final LinkedHashMap<String, Entry> entries =
+		new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	/* Sessions being written to disk. Guarded by this */
+	private final Map<String, Entry> spilling = new HashMap<String, Entry>();
+	/* Sessions on disk */
+	private final Set<String> spilled =
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	private final SessionLocks locks = new SessionLocks();
+	private int maxSessions = 0;
+	private long idleTimeout = 0;
+	private File spillDir = null;
+	private Timer sweeper = null;
+	
+	/**
+	 * @return locks that requests of a session hold while they run
+	 */
+	SessionLocks getLocks() {
+		return locks;
+	}
+	
+	/**
+	 * @param maxSessions number of sessions kept in memory, 0 for no limit
+	 */
+	public synchronized void setMaxSessions(int maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+	
+	/**
+	 * Unbind sessions that have not been used for a while.
+	 * 
+	 * @param idleTimeout idle time in milliseconds, 0 keeps sessions forever
+	 */
+	public synchronized void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+		if(idleTimeout > 0 && sweeper == null) {
+			sweeper = new Timer("opaque-session-sweeper", true);
+			sweeper.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						sweep(System.currentTimeMillis());
+					} catch(RuntimeException e) {
+						log.warn("Failed to expire idle sessions", e);
+					}
+				}
+			}, SWEEP_INTERVAL, SWEEP_INTERVAL);
+		}
+	}
+	
+	/**
+	 * Set directory for sessions that do not fit into memory.
+	 * Sessions already in the directory are picked up.
+	 * 
+	 * @param dir spill directory or null to unbind excess sessions
+	 */
+	public void setSpillDirectory(File dir) {
+		synchronized (this) {
+			spillDir = dir;
+		}
+		spilled.clear();
+		if(dir == null)
+			return;
+		
+		dir.mkdirs();
+		File [] files = dir.listFiles();
+		if(files == null)
+			return;
+		for(File f: files) {
+			String n = f.getName();
+			if(n.endsWith(SPILL_SUFFIX))
+				spilled.add(n.substring(0, n.length() - SPILL_SUFFIX.length()));
+		}
+		log.debug("Found {} spilled sessions in {}", spilled.size(), dir);
+	}
+	
 	private Map<String, Serializable> getSessionMap(Request request) {
 		String id = getSessionId(request, false);
+		Entry e = getEntry(id);
 		
-		if(attributes.get(id) == null)
+		if(e == null)
 			throw new WicketRuntimeException("Stale session!");
 		
-		return attributes.get(id);
+		return e.attributes;
 	}
 	
-	public int getActiveSessionCount() {
-		return sessions.size();
+	public synchronized int getActiveSessionCount() {
+		return entries.size() + spilling.size() + spilled.size();
+	}
+	
+	/**
+	 * @return true if the session is bound, in memory or on disk
+	 */
+	public boolean isBound(String id) {
+		synchronized (this) {
+			if(entries.containsKey(id) || spilling.containsKey(id))
+				return true;
+		}
+		return spilled.contains(id);
 	}
 	
 	@Override
@@ -83,12 +211,7 @@ public class OpaqueSessionStore implements ISessionStore {
 	@Override
 	public void invalidate(Request request) {
 		String id = getSessionId(request, false);
-		attributes.remove(id);
-		
-		for (UnboundListener l : unboundListeners)
-		{
-			l.sessionUnbound(id);
-		}
+		unbind(id);
 	}
 
 	@Override
@@ -111,7 +234,8 @@ public class OpaqueSessionStore implements ISessionStore {
 	@Override
 	public Session lookup(Request request) {
 		String id = getSessionId(request, false);
-		Session rv = sessions.get(id);
+		Entry e = getEntry(id);
+		Session rv = e == null ? null : e.session;
 		OpaqueRequest rq = (OpaqueRequest)request;
 		if(rq.callType == OpaqueRequest.CallType.PROCESS && rv == null)
 			/* LMS should now request a new question session and replay all user responses */
@@ -124,7 +248,15 @@ public class OpaqueSessionStore implements ISessionStore {
 	public void bind(Request request, Session newSession) {
 		String id = getSessionId(request, false);
 		Args.notEmpty(id, "Session ID");
-		sessions.put(id, newSession);
+		
+		Entry e = getEntry(id);
+		synchronized (this) {
+			Entry n = new Entry(newSession, e == null
+					? Collections.synchronizedMap(new HashMap<String, Serializable>())
+					: e.attributes);
+			entries.put(id, n);
+		}
+		evict();
 	}
 
 	@Override
@@ -134,7 +266,23 @@ public class OpaqueSessionStore implements ISessionStore {
 
 	@Override
 	public void destroy() {
-		// TODO Auto-generated method stub
+		List<String> ids;
+		File dir;
+		synchronized (this) {
+			if(sweeper != null) {
+				sweeper.cancel();
+				sweeper = null;
+			}
+			dir = spillDir;
+			ids = new ArrayList<String>(entries.keySet());
+		}
+		
+		if(dir == null)
+			return;
+		
+		for(String id: ids)
+			spill(id);
+		log.debug("Saved {} sessions to {}", ids.size(), dir);
 	}
 
 	@Override
@@ -152,4 +300,253 @@ public class OpaqueSessionStore implements ISessionStore {
 	public Set<UnboundListener> getUnboundListener() {
 		return Collections.unmodifiableSet(unboundListeners);
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Unbind sessions that have been idle for longer than the timeout.
+	 * 
+	 * @param now current time
+	 */
+	void sweep(long now) {
+		List<String> expired = new ArrayList<String>();
+		File dir;
+		synchronized (this) {
+			if(idleTimeout <= 0)
+				return;
+			/* Iteration is from the least recently used */
+			for(Map.Entry<String, Entry> e: entries.entrySet()) {
+				if(now - e.getValue().lastAccess < idleTimeout)
+					break;
+				expired.add(e.getKey());
+			}
+			dir = spillDir;
+		}
+		
+		if(dir != null) {
+			for(String id: spilled) {
+				File f = spillFile(dir, id);
+				if(now - f.lastModified() >= idleTimeout)
+					expired.add(id);
+			}
+		}
+		
+		if(!expired.isEmpty())
+			log.debug("Expiring {} idle sessions", expired.size());
+		for(String id: expired) {
+			/* A request running longer than the timeout keeps its session */
+			SessionLocks.SessionLock lock = locks.get(id);
+			if(lock.isHeldByCurrentThread() || !lock.tryLock())
+				continue;
+			try {
+				unbind(id);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	private void unbind(String id) {
+		boolean bound;
+		File dir;
+		synchronized (this) {
+			bound = entries.remove(id) != null;
+			bound |= spilling.remove(id) != null;
+			dir = spillDir;
+		}
+		if(spilled.remove(id))
+			bound = true;
+		if(dir != null)
+			spillFile(dir, id).delete();
+		
+		if(!bound)
+			return;
+		for (UnboundListener l : unboundListeners)
+		{
+			l.sessionUnbound(id);
+		}
+	}
+	
+	/**
+	 * Find a session, reading it from disk if necessary.
+	 */
+	private Entry getEntry(String id) {
+		if(id == null)
+			return null;
+		
+		Entry e;
+		File dir;
+		synchronized (this) {
+			e = entries.get(id);
+			if(e == null) {
+				/* Still being written, the writer will discard the file */
+				e = spilling.remove(id);
+				if(e != null)
+					entries.put(id, e);
+			}
+			if(e != null) {
+				e.lastAccess = System.currentTimeMillis();
+				return e;
+			}
+			dir = spillDir;
+		}
+		
+		if(dir == null || !spilled.contains(id))
+			return null;
+		
+		e = load(dir, id);
+		synchronized (this) {
+			/* Somebody else may have loaded it meanwhile */
+			Entry o = entries.get(id);
+			if(o != null)
+				return o;
+			if(e != null)
+				entries.put(id, e);
+		}
+		if(e == null) {
+			/* Corrupt or unreadable, the LMS will have to start over */
+			unbind(id);
+			return null;
+		}
+		spilled.remove(id);
+		spillFile(dir, id).delete();
+		evict();
+		
+		return e;
+	}
+	
+	/**
+	 * Move least recently used sessions out of memory until the limit
+	 * is satisfied. Sessions with a request in progress are skipped,
+	 * so the limit may be exceeded while they are busy.
+	 */
+	private void evict() {
+		Set<String> busy = new HashSet<String>();
+		while(true) {
+			String id = null;
+			synchronized (this) {
+				if(maxSessions <= 0 || entries.size() <= maxSessions)
+					return;
+				for(String k: entries.keySet()) {
+					if(!busy.contains(k)) {
+						id = k;
+						break;
+					}
+				}
+			}
+			if(id == null)
+				return;
+			
+			SessionLocks.SessionLock lock = locks.get(id);
+			if(lock.isHeldByCurrentThread() || !lock.tryLock()) {
+				busy.add(id);
+				continue;
+			}
+			try {
+				if(!spill(id))
+					unbind(id);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Write a session to disk and remove it from memory.
+	 * 
+	 * @return false if the session could not be written
+	 */
+	private boolean spill(String id) {
+		Entry e;
+		File dir;
+		synchronized (this) {
+			dir = spillDir;
+			if(dir == null)
+				return false;
+			e = entries.remove(id);
+			if(e == null)
+				return true;
+			spilling.put(id, e);
+		}
+		
+		File f = spillFile(dir, id);
+		File tmp = new File(dir, "." + id + "-" + Thread.currentThread().getId());
+		try {
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp));
+			try {
+				out.writeObject(e.session);
+				synchronized (e.attributes) {
+					out.writeObject(new HashMap<String, Serializable>(e.attributes));
+				}
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(f)) {
+				f.delete();
+				if(!tmp.renameTo(f))
+					throw new IOException("Unable to create " + f);
+			}
+			f.setLastModified(e.lastAccess);
+		} catch(IOException ex) {
+			log.warn("Failed to save session " + id, ex);
+			tmp.delete();
+			synchronized (this) {
+				/* Put it back unless it was looked up or unbound meanwhile */
+				if(spilling.remove(id) != null)
+					entries.put(id, e);
+			}
+			return false;
+		}
+		
+		synchronized (this) {
+			if(spilling.remove(id) == null) {
+				/* Looked up or unbound while writing, memory copy wins */
+				f.delete();
+				return true;
+			}
+			spilled.add(id);
+		}
+		
+		return true;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Entry load(File dir, String id) {
+		File f = spillFile(dir, id);
+		try {
+			ObjectInputStream in = new SessionInputStream(new FileInputStream(f));
+			try {
+				Session s = (Session) in.readObject();
+				Map<String, Serializable> a = (Map<String, Serializable>) in.readObject();
+				return new Entry(s, Collections.synchronizedMap(a));
+			} finally {
+				in.close();
+			}
+		} catch(Exception e) {
+			log.warn("Unable to restore session " + id, e);
+			return null;
+		}
+	}
+	
+	private static File spillFile(File dir, String id) {
+		return new File(dir, id + SPILL_SUFFIX);
+	}
+	
+	/* Resolve classes of the web application, not just the container */
+	private static class SessionInputStream extends ObjectInputStream {
+		SessionInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+		
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc)
+				throws IOException, ClassNotFoundException {
+			ClassLoader cl = Thread.currentThread().getContextClassLoader();
+			if(cl != null) {
+				try {
+					return Class.forName(desc.getName(), false, cl);
+				} catch(ClassNotFoundException e) {
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+}
@@ -26,6 +26,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.wicket.Application;
 import org.apache.wicket.Component;
@@ -69,6 +71,7 @@ public class PageRunner {
 	private final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(this.getClass());
 
 	OpaqueApplication application;
+	private final ResourceCache resourceCache = new ResourceCache();
 
 	public PageRunner(OpaqueApplication application) {
 		this.application = application;
@@ -183,6 +186,13 @@ public class PageRunner {
 		});
 	}
 	
+	/**
+	 * @return cache of static and versioned resources shared by all sessions
+	 */
+	public ResourceCache getResourceCache() {
+		return resourceCache;
+	}
+	
 	/**
 	 * Create a request cycle and execute it. Follows redirects if necessary.
 	 * 
@@ -271,21 +281,18 @@ public class PageRunner {
 				if(session.getCachedResources().contains(name))
 					continue;
 				
-				String sessionId = request.getSessionId();
-				
-				OpaqueRequest resourceRequest = new OpaqueRequest(
-						sessionId, rm.get(name));
-				
-				cycle = processRequest(resourceRequest);
-				if(cycle == null)
-					// FIXME: Should we throw here?
-					continue;
-				r = (OpaqueResponse)cycle.getResponse();
-				
-				byte [] data = r.getBinaryContent();
+				final String sessionId = request.getSessionId();
+				final Url url = rm.get(name);
+				Resource resource;
 				
-				/* Handle dynamically generated resources */
 				if(name.startsWith(sessionId)) {
+					/* Handle dynamically generated resources */
+					r = renderResource(sessionId, url);
+					if(r == null)
+						// FIXME: Should we throw here?
+						continue;
+					
+					byte [] data = r.getBinaryContent();
 					String fname = r.getFileName();
 
 					if(fname == null)
@@ -297,12 +304,26 @@ public class PageRunner {
 					head = Strings.replaceAll(head, name, fname);
 					css = Strings.replaceAll(css, name, fname);
 
-					name = fname;
+					resource = new Resource(fname, r.getContentType(), data);
+				} else {
+					/* Static and versioned resources are content addressed */
+					final String rname = name;
+					resource = resourceCache.get(name, new Callable<Resource>() {
+						public Resource call() {
+							OpaqueResponse rr = renderResource(sessionId, url);
+							if(rr == null)
+								return null;
+							return new Resource(rname, rr.getContentType(),
+									rr.getBinaryContent());
+						}
+					});
+					if(resource == null)
+						continue;
 				}
 
-				newResources.add(new Resource(name, r.getContentType(), data));
+				newResources.add(resource);
 
-				session.addCachedResource(name);
+				session.addCachedResource(resource.getFilename());
 				session.dirty();
 			}
 
@@ -314,16 +335,39 @@ public class PageRunner {
 			}
 			
 			if(newResources.size() > 0) {
-				rv.setResources(newResources.toArray(new Resource[rm.size()]));
+				rv.setResources(newResources.toArray(new Resource[newResources.size()]));
 				log.debug("Sent {} new resources to LMS", newResources.size());
 			}
 		}
+		catch(RuntimeException e)
+		{
+			/* Tell the LMS the server is overloaded rather than failing */
+			for(Throwable t = e; t != null; t = t.getCause()) {
+				if(t instanceof RejectedExecutionException)
+					throw new OpaqueException(t.getMessage(), t);
+			}
+			throw e;
+		}
 		finally
 		{
 			ThreadContext.restore(previousThreadContext);
 		}
 	}
 
+	/**
+	 * Render a resource referenced by a page.
+	 * 
+	 * @return response holding the resource or null if the URL was not
+	 *         resolved to a wicket request
+	 */
+	private OpaqueResponse renderResource(String sessionId, Url url) {
+		RequestCycle cycle = processRequest(new OpaqueRequest(sessionId, url));
+		if(cycle == null)
+			return null;
+		
+		return (OpaqueResponse)cycle.getResponse();
+	}
+
 	private String decorateFileName(final String fileName, final byte[] data) {
 		Args.notNull(fileName, "fileName");
 		
@@ -0,0 +1,152 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.wicket.extensions.protocol.opaque;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.wicket.WicketRuntimeException;
+
+import com.googlecode.ounit.opaque.Resource;
+
+/**
+ * Content addressed cache of rendered resources.
+ * <p>
+ * Names of static and versioned resources contain a digest of their
+ * content, so a name refers to the same bytes no matter which session
+ * references it. Such resources are rendered once and sent to every
+ * other session straight from memory. Concurrent requests for a missing
+ * resource wait for a single render. When the cache grows over
+ * {@link #setMaxSize(long)} bytes the least recently used resources
+ * are dropped.
+ * </p>
+ */
+public class ResourceCache {
+	public static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+	
+	/* Access ordered, guarded by this */
+	private final LinkedHashMap<String, Resource> resources =
+		new LinkedHashMap<String, Resource>(16, 0.75f, true);
+	private final ConcurrentHashMap<String, FutureTask<Resource>> pending =
+		new ConcurrentHashMap<String, FutureTask<Resource>>();
+	private long size = 0;
+	private long maxSize = DEFAULT_MAX_SIZE;
+	
+	/**
+	 * Find a resource, rendering it if necessary.
+	 * 
+	 * @param name content addressed resource name
+	 * @param loader renders the resource, may return null if it can not be
+	 *        found
+	 * @return the resource or null if the loader did not find it
+	 */
+	public Resource get(String name, Callable<Resource> loader) {
+		Resource r = get(name);
+		if(r != null)
+			return r;
+		
+		FutureTask<Resource> task = new FutureTask<Resource>(loader);
+		FutureTask<Resource> running = pending.putIfAbsent(name, task);
+		if(running == null) {
+			running = task;
+			try {
+				task.run();
+				put(name, task.get());
+			} catch(Exception e) {
+				/* Reported to every waiting thread below */
+			} finally {
+				pending.remove(name);
+			}
+		}
+		
+		try {
+			return running.get();
+		} catch(ExecutionException e) {
+			Throwable t = e.getCause();
+			if(t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			throw new WicketRuntimeException(t);
+		} catch(InterruptedException e) {
+			throw new WicketRuntimeException(e);
+		}
+	}
+	
+	public synchronized Resource get(String name) {
+		return resources.get(name);
+	}
+	
+	public synchronized void put(String name, Resource r) {
+		if(r == null || length(r) > maxSize)
+			return;
+		
+		Resource old = resources.put(name, r);
+		if(old != null)
+			size -= length(old);
+		size += length(r);
+		trim();
+	}
+	
+	public synchronized void clear() {
+		resources.clear();
+		size = 0;
+	}
+	
+	/**
+	 * @return number of cached resources
+	 */
+	public synchronized int getCount() {
+		return resources.size();
+	}
+	
+	/**
+	 * @return total size of cached resources in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	/**
+	 * Limit the total size of cached resources.
+	 * 
+	 * @param maxSize maximum size in bytes, 0 disables the cache
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		trim();
+	}
+	
+	private void trim() {
+		Iterator<Resource> i = resources.values().iterator();
+		while(size > maxSize && i.hasNext()) {
+			size -= length(i.next());
+			i.remove();
+		}
+	}
+	
+	private static long length(Resource r) {
+		return r.getContent() == null ? 0 : r.getContent().length;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.wicket.extensions.protocol.opaque;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of per-session locks.
+ * <p>
+ * Only one request of a session may run at a time, otherwise a double
+ * click or an LMS retry could start two builds in the same directory.
+ * Locks are only weakly referenced by the registry, so they disappear
+ * when no thread uses them. The registry is split into stripes to keep
+ * sessions from contending on a single monitor.
+ * </p>
+ */
+class SessionLocks {
+	private static final int STRIPES = 16;
+	
+	/**
+	 * Lock of a single session. Identical requests that arrive while one
+	 * is already in progress wait for its result instead of running again.
+	 */
+	static class SessionLock extends ReentrantLock {
+		private static final long serialVersionUID = 1L;
+		
+		final String id;
+		/* Requests waiting for or holding the lock. Guarded by itself */
+		private final Map<Object, FutureTask<?>> inFlight =
+			new HashMap<Object, FutureTask<?>>();
+		
+		SessionLock(String id) {
+			this.id = id;
+		}
+		
+		/**
+		 * Run a task while holding the lock, unless an equal task is
+		 * already in progress, in which case its result is returned.
+		 * 
+		 * @param key identifies equal tasks
+		 * @param c the task
+		 * @return result of the task
+		 * @throws Exception anything the task throws
+		 */
+		@SuppressWarnings("unchecked")
+		<T> T execute(Object key, Callable<T> c) throws Exception {
+			FutureTask<T> task = new FutureTask<T>(c);
+			FutureTask<?> running;
+			synchronized (inFlight) {
+				running = inFlight.get(key);
+				if(running == null)
+					inFlight.put(key, task);
+			}
+			
+			if(running == null) {
+				lock();
+				try {
+					task.run();
+				} finally {
+					synchronized (inFlight) {
+						inFlight.remove(key);
+					}
+					unlock();
+				}
+				running = task;
+			}
+			
+			try {
+				return (T) running.get();
+			} catch(ExecutionException e) {
+				Throwable t = e.getCause();
+				if(t instanceof Exception)
+					throw (Exception) t;
+				if(t instanceof Error)
+					throw (Error) t;
+				throw e;
+			}
+		}
+	}
+	
+	private final Map<String, WeakReference<SessionLock>> [] stripes;
+	
+	@SuppressWarnings("unchecked")
+	SessionLocks() {
+		stripes = new Map[STRIPES];
+		for(int i = 0; i < STRIPES; i++)
+			stripes[i] = new WeakHashMap<String, WeakReference<SessionLock>>();
+	}
+	
+	/**
+	 * @param id session id
+	 * @return the lock of a session, the same object for as long as
+	 *         anybody holds a reference to it
+	 */
+	SessionLock get(String id) {
+		Map<String, WeakReference<SessionLock>> m =
+			stripes[(id.hashCode() & 0x7fffffff) % STRIPES];
+		synchronized (m) {
+			WeakReference<SessionLock> r = m.get(id);
+			SessionLock l = (r == null) ? null : r.get();
+			if(l == null) {
+				/* 
+				 * The key must be the string held by the lock, otherwise
+				 * the entry could vanish while the lock is still in use.
+				 */
+				m.remove(id);
+				l = new SessionLock(id);
+				m.put(l.id, new WeakReference<SessionLock>(l));
+			}
+			return l;
+		}
+	}
+}
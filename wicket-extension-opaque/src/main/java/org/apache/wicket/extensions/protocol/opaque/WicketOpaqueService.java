@@ -24,10 +24,17 @@ package org.apache.wicket.extensions.protocol.opaque;
 import static com.googlecode.ounit.opaque.OpaqueUtils.*;
 import static org.apache.wicket.extensions.protocol.opaque.OpaqueSession.DEFAULT_MARKS;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import javax.jws.WebService;
 import javax.jws.soap.SOAPBinding;
 import javax.jws.soap.SOAPBinding.Style;
 
+import org.apache.wicket.session.ISessionStore;
+
 import com.googlecode.ounit.opaque.EngineStatus;
 import com.googlecode.ounit.opaque.OpaqueException;
 import com.googlecode.ounit.opaque.OpaqueService;
@@ -52,6 +59,11 @@ import com.googlecode.ounit.opaque.StartReturn;
  *
  * }
  * </pre>
+ * <p>
+ * Requests of a single session are executed one at a time. A request
+ * that is identical to one still in progress gets the result of the
+ * running one.
+ * </p>
  * 
  * @author anttix
  *
@@ -63,10 +75,16 @@ public abstract class WicketOpaqueService implements OpaqueService {
 	
 	protected OpaqueApplication app;
 	protected PageRunner renderer;
+	private final SessionLocks locks;
 
 	public WicketOpaqueService(OpaqueApplication app) {
 		this.app = app;
 		renderer = new PageRunner(app);
+		
+		/* Shared with the store, so it does not evict sessions in use */
+		ISessionStore store = app.getSessionStore();
+		locks = (store instanceof OpaqueSessionStore)
+			? ((OpaqueSessionStore) store).getLocks() : new SessionLocks();
 	}
 
 	/**
@@ -80,6 +98,7 @@ public abstract class WicketOpaqueService implements OpaqueService {
 		// TODO: add Version number
 		rv.setUsedmemory(getJvmMem());
 		rv.setActivesessions(app.getActiveSessions());
+		app.updateEngineStatus(rv);
 		
 		return rv;
 	}
@@ -98,6 +117,7 @@ public abstract class WicketOpaqueService implements OpaqueService {
 		
 		OpaqueQuestion q = app.fetchQuestion(questionID, questionVersion,
 				questionBaseURL);
+		app.questionInfoRequested(q);
 		QuestionInfo rv = q.getInfo();
 		
 		if (rv.getMaxScore() == 0)
@@ -145,12 +165,21 @@ public abstract class WicketOpaqueService implements OpaqueService {
 		if(questionSession == null)
 			throw new OpaqueException("questionSession must be present");
 
-		ProcessReturn rv = new ProcessReturn();
-		OpaqueRequest request = new OpaqueRequest(questionSession, names,
+		final OpaqueRequest request = new OpaqueRequest(questionSession, names,
 				values);
-		renderer.execute(request, rv);
 		
-		return rv;
+		/* Double clicks and LMS retries get the result of the first request */
+		List<Object> key = new ArrayList<Object>(2);
+		key.add(names == null ? null : Arrays.asList(names));
+		key.add(values == null ? null : Arrays.asList(values));
+		
+		return withLock(questionSession, key, new Callable<ProcessReturn>() {
+			public ProcessReturn call() throws Exception {
+				ProcessReturn rv = new ProcessReturn();
+				renderer.execute(request, rv);
+				return rv;
+			}
+		});
 	}
 
 	/**
@@ -162,8 +191,30 @@ public abstract class WicketOpaqueService implements OpaqueService {
 		if(questionSession == null)
 			throw new OpaqueException("questionSession must be present");
 		
-		OpaqueRequest request = new OpaqueRequest(questionSession, null);
-		app.getSessionStore().invalidate(request);
+		final OpaqueRequest request = new OpaqueRequest(questionSession, null);
+		withLock(questionSession, "stop", new Callable<Void>() {
+			public Void call() throws Exception {
+				app.getSessionStore().invalidate(request);
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Run a request while holding the lock of it's session.
+	 */
+	private <T> T withLock(String questionSession, Object key, Callable<T> c)
+			throws OpaqueException {
+		SessionLocks.SessionLock lock = locks.get(questionSession);
+		try {
+			return lock.execute(key, c);
+		} catch(OpaqueException e) {
+			throw e;
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 	
 	/**
@@ -0,0 +1,223 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.wicket.extensions.protocol.opaque;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.wicket.Session;
+import org.apache.wicket.request.ClientInfo;
+import org.apache.wicket.request.Request;
+import org.apache.wicket.session.ISessionStore.UnboundListener;
+import org.junit.*;
+
+public class OpaqueSessionStoreTest {
+	private File dir = new File("target/spilled-sessions");
+	private List<String> unbound = new ArrayList<String>();
+	
+	private static class MockSession extends Session {
+		private static final long serialVersionUID = 1L;
+		final String value;
+		
+		MockSession(Request request, String value) {
+			super(request);
+			this.value = value;
+		}
+		
+		@Override
+		public ClientInfo getClientInfo() {
+			return null;
+		}
+		
+		@Override
+		public void cleanupFeedbackMessages() {
+		}
+	}
+	
+	private static OpaqueRequest request(String id) {
+		return new OpaqueRequest(id, new String[] { "-_page" }, new String[] { "x" });
+	}
+	
+	private static void bind(OpaqueSessionStore store, String id) {
+		store.bind(request(id), new MockSession(request(id), id.toUpperCase()));
+	}
+	
+	private OpaqueSessionStore newStore() {
+		OpaqueSessionStore store = new OpaqueSessionStore();
+		store.setSpillDirectory(dir);
+		store.registerUnboundListener(new UnboundListener() {
+			@Override
+			public void sessionUnbound(String sessionId) {
+				unbound.add(sessionId);
+			}
+		});
+		return store;
+	}
+	
+	@Before
+	@After
+	public void cleanDirectory() {
+		File [] files = dir.listFiles();
+		if(files != null)
+			for(File f: files)
+				f.delete();
+		dir.delete();
+	}
+	
+	@Test
+	public void leastRecentlyUsedSessionsSpillToDisk() {
+		OpaqueSessionStore store = newStore();
+		store.setMaxSessions(1);
+		bind(store, "a");
+		store.setAttribute(request("a"), "key", "value");
+		bind(store, "b");
+		
+		assertTrue("Session was not spilled", new File(dir, "a.ser").isFile());
+		assertEquals(2, store.getActiveSessionCount());
+		
+		MockSession s = (MockSession) store.lookup(request("a"));
+		assertEquals("A", s.value);
+		assertEquals("value", store.getAttribute(request("a"), "key"));
+		assertFalse(new File(dir, "a.ser").isFile());
+		assertTrue(new File(dir, "b.ser").isFile());
+		assertTrue(unbound.isEmpty());
+	}
+	
+	@Test
+	public void sessionsInUseAreNotSpilled() throws Exception {
+		final OpaqueSessionStore store = newStore();
+		store.setMaxSessions(1);
+		bind(store, "a");
+		
+		/* A request of session a is running on another thread */
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				SessionLocks.SessionLock l = store.getLocks().get("a");
+				l.lock();
+				try {
+					locked.countDown();
+					done.await();
+				} catch(InterruptedException e) {
+				} finally {
+					l.unlock();
+				}
+			}
+		};
+		t.start();
+		locked.await();
+		try {
+			bind(store, "b");
+			assertFalse("Session in use was spilled", new File(dir, "a.ser").exists());
+		} finally {
+			done.countDown();
+			t.join();
+		}
+		
+		bind(store, "c");
+		assertTrue(new File(dir, "a.ser").isFile());
+		assertTrue(new File(dir, "b.ser").isFile());
+		assertEquals(3, store.getActiveSessionCount());
+	}
+	
+	@Test
+	public void sessionsSurviveRestart() {
+		OpaqueSessionStore store = newStore();
+		bind(store, "a");
+		store.destroy();
+		
+		store = newStore();
+		assertTrue(store.isBound("a"));
+		assertEquals("A", ((MockSession) store.lookup(request("a"))).value);
+	}
+	
+	@Test
+	public void idleSessionsAreUnbound() {
+		OpaqueSessionStore store = newStore();
+		store.setMaxSessions(1);
+		bind(store, "a");
+		bind(store, "b");
+		store.setIdleTimeout(1000);
+		
+		store.sweep(System.currentTimeMillis() + 5000);
+		assertEquals(0, store.getActiveSessionCount());
+		assertEquals(2, unbound.size());
+		assertFalse(new File(dir, "a.ser").exists());
+		store.destroy();
+	}
+	
+	@Test
+	public void sessionsInUseDoNotExpire() throws Exception {
+		final OpaqueSessionStore store = newStore();
+		bind(store, "a");
+		store.setIdleTimeout(1000);
+		
+		/* A request of session a is running on another thread */
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				SessionLocks.SessionLock l = store.getLocks().get("a");
+				l.lock();
+				try {
+					locked.countDown();
+					done.await();
+				} catch(InterruptedException e) {
+				} finally {
+					l.unlock();
+				}
+			}
+		};
+		t.start();
+		locked.await();
+		try {
+			store.sweep(System.currentTimeMillis() + 5000);
+			assertEquals(1, store.getActiveSessionCount());
+			assertTrue(unbound.isEmpty());
+		} finally {
+			done.countDown();
+			t.join();
+		}
+		
+		store.sweep(System.currentTimeMillis() + 5000);
+		assertEquals(0, store.getActiveSessionCount());
+		store.destroy();
+	}
+	
+	@Test
+	public void invalidateUnbindsOnce() {
+		OpaqueSessionStore store = newStore();
+		bind(store, "a");
+		store.invalidate(request("a"));
+		store.invalidate(request("a"));
+		
+		assertFalse(store.isBound("a"));
+		assertEquals(1, unbound.size());
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.wicket.extensions.protocol.opaque;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.googlecode.ounit.opaque.Resource;
+
+public class ResourceCacheTest {
+	private ResourceCache cache = new ResourceCache();
+	private ExecutorService pool = Executors.newCachedThreadPool();
+	
+	@After
+	public void shutdownPool() {
+		pool.shutdownNow();
+	}
+	
+	private static Resource resource(String name, int size) {
+		return new Resource(name, "application/octet-stream", new byte[size]);
+	}
+	
+	private static Callable<Resource> loader(final Resource r,
+			final AtomicInteger runs) {
+		return new Callable<Resource>() {
+			public Resource call() {
+				runs.incrementAndGet();
+				return r;
+			}
+		};
+	}
+	
+	@Test
+	public void resourceIsRenderedOnce() {
+		AtomicInteger runs = new AtomicInteger();
+		Resource r = resource("a-ver-1.js", 10);
+		
+		assertSame(r, cache.get("a-ver-1.js", loader(r, runs)));
+		assertSame(r, cache.get("a-ver-1.js", loader(resource("x", 1), runs)));
+		assertEquals(1, runs.get());
+		assertEquals(10, cache.getSize());
+	}
+	
+	@Test
+	public void missingResourceIsNotCached() {
+		AtomicInteger runs = new AtomicInteger();
+		
+		assertNull(cache.get("missing", loader(null, runs)));
+		assertNull(cache.get("missing", loader(null, runs)));
+		assertEquals(2, runs.get());
+		assertEquals(0, cache.getCount());
+	}
+	
+	@Test
+	public void leastRecentlyUsedIsDropped() {
+		cache.setMaxSize(25);
+		cache.put("a", resource("a", 10));
+		cache.put("b", resource("b", 10));
+		cache.get("a");
+		cache.put("c", resource("c", 10));
+		
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(20, cache.getSize());
+		
+		cache.put("big", resource("big", 30));
+		assertNull(cache.get("big"));
+	}
+	
+	@Test
+	public void concurrentRequestsWaitForSingleRender() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		final Resource r = resource("zip", 100);
+		
+		Future<Resource> first = pool.submit(new Callable<Resource>() {
+			public Resource call() {
+				return cache.get("zip", new Callable<Resource>() {
+					public Resource call() throws Exception {
+						runs.incrementAndGet();
+						started.countDown();
+						release.await();
+						return r;
+					}
+				});
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		
+		Future<Resource> second = pool.submit(new Callable<Resource>() {
+			public Resource call() {
+				return cache.get("zip", loader(resource("other", 1), runs));
+			}
+		});
+		Thread.sleep(100);
+		release.countDown();
+		
+		assertSame(r, first.get(5, TimeUnit.SECONDS));
+		assertSame(r, second.get(5, TimeUnit.SECONDS));
+		assertEquals(1, runs.get());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void renderFailureIsRethrown() {
+		cache.get("broken", new Callable<Resource>() {
+			public Resource call() {
+				throw new IllegalStateException("render failed");
+			}
+		});
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * OUnit - an OPAQUE compliant framework for Computer Aided Testing
+ *
+ * Copyright (C) 2010, 2011  Antti Andreimann
+ *
+ * This file is part of OUnit.
+ *
+ * OUnit is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OUnit is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OUnit.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.apache.wicket.extensions.protocol.opaque;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import org.apache.wicket.extensions.protocol.opaque.SessionLocks.SessionLock;
+
+public class SessionLocksTest {
+	private SessionLocks locks = new SessionLocks();
+	private ExecutorService pool = Executors.newCachedThreadPool();
+	
+	@After
+	public void shutdownPool() {
+		pool.shutdownNow();
+	}
+	
+	/* A task that blocks until released and counts how often it ran */
+	private Callable<Integer> task(final CountDownLatch started,
+			final CountDownLatch release, final AtomicInteger runs) {
+		return new Callable<Integer>() {
+			public Integer call() throws Exception {
+				started.countDown();
+				release.await();
+				return runs.incrementAndGet();
+			}
+		};
+	}
+	
+	@Test
+	public void sameSessionGetsSameLock() {
+		assertSame(locks.get("a"), locks.get(new String("a")));
+		assertNotSame(locks.get("a"), locks.get("b"));
+	}
+	
+	@Test
+	public void identicalRequestsAreCoalesced() throws Exception {
+		final SessionLock lock = locks.get("a");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		final Callable<Integer> c = task(started, release, runs);
+		
+		Future<Integer> f1 = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return lock.execute("req", c);
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Integer> f2 = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return locks.get("a").execute("req", c);
+			}
+		});
+		Thread.sleep(100);
+		release.countDown();
+		
+		assertEquals(1, f1.get(5, TimeUnit.SECONDS).intValue());
+		assertEquals(1, f2.get(5, TimeUnit.SECONDS).intValue());
+		assertEquals(1, runs.get());
+	}
+	
+	@Test
+	public void differentRequestsRunOneAtATime() throws Exception {
+		final SessionLock lock = locks.get("a");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		
+		pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return lock.execute("first", task(started, release, runs));
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		Future<Integer> second = pool.submit(new Callable<Integer>() {
+			public Integer call() throws Exception {
+				return lock.execute("second", new Callable<Integer>() {
+					public Integer call() {
+						return runs.get();
+					}
+				});
+			}
+		});
+		Thread.sleep(100);
+		assertFalse("Second request ran concurrently", second.isDone());
+		
+		release.countDown();
+		assertEquals(1, second.get(5, TimeUnit.SECONDS).intValue());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void exceptionsArePassedThrough() throws Exception {
+		locks.get("a").execute("req", new Callable<Void>() {
+			public Void call() {
+				throw new IllegalStateException();
+			}
+		});
+	}
+}